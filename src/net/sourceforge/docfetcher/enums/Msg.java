@@ -533,6 +533,10 @@ public enum Msg {
 	archive_entry_encrypted ("Archive entry is encrypted."),
 	not_an_archive ("Not an archive."),
 	parser_not_found ("Could not find a suitable parser."),
+	parse_timeout ("Parsing took longer than {0} seconds and was aborted. " +
+		"The file will be skipped until it is modified."),
+	parse_quarantined ("Skipped because parsing this file timed out or ran out of " +
+		"memory before. The file will be parsed again when it is modified."),
 	folder_hierarchy_too_deep ("The folder hierarchy is too deep (at least {0} levels). Please " +
 			"reduce the folder depth and rebuild the index. This error occurred at: {1}"),
 	document ("Document"),
@@ -675,6 +679,7 @@ public enum Msg {
 	// Result panel and status bar
 	num_results ("Results: {0}"),
 	num_sel_results ("Selected: {0}"),
+	results_incomplete ("The search took too long and was stopped. Results may be incomplete."),
 	title ("Title"),
 	score ("Score [%]"),
 	size ("Size"),
@@ -686,6 +691,7 @@ public enum Msg {
 	subject ("Subject"),
 	sender ("Sender"),
 	send_date ("Send Date"),
+	snippet ("Snippet"),
 	open ("Open"),
 	open_parent ("Open Parent Folder"),
 	open_limit ("The number of entries that can be opened simultaneously is limited to {0}."),
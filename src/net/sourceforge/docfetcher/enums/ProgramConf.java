@@ -56,6 +56,10 @@ public final class ProgramConf {
 		ShowAdvancedSettingsLink (true),
 		ReportObsoleteIndexFiles (true),
 		IndexExcelFormulas (true),
+		DeduplicateContent (false),
+		DetectMovedFiles (false),
+		ShowSnippets (false),
+		SearchAsYouType (false),
 		;
 
 		private boolean value;
@@ -81,6 +85,23 @@ public final class ProgramConf {
 		UnpackCacheCapacity (20, 1),
 		Analyzer (0, 0),
 		InitialSorting (0, Integer.MIN_VALUE),
+		DedupCacheSize (32, 0),
+		FingerprintFullHashLimit (16, 0),
+		ParseTimeout (0, 0),
+		ParserProcesses (0, 0),
+		ParserProcessMemory (256, 16),
+		ParserProcessRecycleCount (200, 1),
+		PdfParserThreads (1, 1),
+		PdfParallelPageThreshold (200, 1),
+		PdfScratchFileThreshold (32, 0),
+		WatchLimit (8192, 0),
+		FolderPollingMinInterval (5, 1),
+		FolderPollingMaxInterval (300, 1),
+		FolderPollingSliceSize (10000, 1),
+		IndexLoadingThreads (4, 1),
+		QueryCacheSize (32, 0),
+		SearchAsYouTypeDelay (300, 0),
+		SearchTimeLimit (10, 0),
 		;
 
 		private int value;
@@ -139,7 +160,9 @@ public final class ProgramConf {
 	}
 
 	public static enum StrList implements Loadable {
-		HtmlExtensions ("html", "htm", "xhtml", "shtml", "shtm", "php", "asp", "jsp")
+		HtmlExtensions ("html", "htm", "xhtml", "shtml", "shtm", "php", "asp", "jsp"),
+		ParseTimeouts (),
+		ParserProcessExtensions ("pdf", "doc", "xls", "ppt", "docx", "xlsx", "pptx", "rtf"),
 		;
 
 		private List<String> value;
@@ -302,6 +302,7 @@ public final class SettingsConf {
 	@Description("# Comma-separated lists of table column widths.")
 	public static enum ColumnWidths implements Storable {
 		ResultPanel (250, 75, 75, 200, 75, 350, 100, 100),
+		ResultPanelWithSnippets (250, 75, 75, 200, 75, 350, 100, 100, 400),
 		IndexingErrorTable (100, 100, 500),
 		PatternTable (200, 75, 75),
 		;
@@ -566,7 +566,7 @@ public final class Application {
 						StringBuilder msg = new StringBuilder(Msg.corrupted_indexes.get());
 						for (CorruptedIndex index : loadingProblems.getCorruptedIndexes()) {
 							msg.append("\n\n");
-							String indexName = index.index.getRootFolder().getDisplayName();
+							String indexName = index.index.getDisplayName();
 							String errorMsg = index.ioException.getMessage();
 							msg.append(Msg.index.format(indexName));
 							msg.append("\n");
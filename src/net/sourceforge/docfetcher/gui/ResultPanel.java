@@ -19,24 +19,29 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.sourceforge.docfetcher.enums.Img;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.enums.SettingsConf;
 import net.sourceforge.docfetcher.model.FileResource;
+import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.Path.PathParts;
 import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.model.search.ResultDocument;
+import net.sourceforge.docfetcher.model.search.SortSpec;
+import net.sourceforge.docfetcher.model.search.SortSpec.Criterion;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.MutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
-import net.sourceforge.docfetcher.util.collect.AlphanumComparator;
 import net.sourceforge.docfetcher.util.gui.ContextMenuManager;
 import net.sourceforge.docfetcher.util.gui.FileIconCache;
 import net.sourceforge.docfetcher.util.gui.MenuAction;
@@ -54,8 +59,6 @@ import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Table;
 
-import com.google.common.primitives.Longs;
-
 /**
  * @author Tran Nam Quang
  */
@@ -95,10 +98,23 @@ public final class ResultPanel {
 	public final Event<List<ResultDocument>> evtSelection = new Event<List<ResultDocument>> ();
 	public final Event<Void> evtHideInSystemTray = new Event<Void>();
 	
+	/**
+	 * Fired when the user sorts the results by clicking on a column header.
+	 * The event data is the column index in the format of
+	 * {@link #sortByColumn(int)}.
+	 */
+	public final Event<Integer> evtSortChanged = new Event<Integer>();
+	
 	private final VirtualTableViewer<ResultDocument> viewer;
 	private final FileIconCache iconCache;
 	private HeaderMode presetHeaderMode = HeaderMode.FILES; // externally suggested header mode
 	private HeaderMode actualHeaderMode = HeaderMode.FILES; // header mode after examining each visible element
+	
+	// Sort specs of the columns that can be sorted by the searcher, for
+	// upward sorting in the viewer
+	private final Map<Column<ResultDocument>, SortSpec> sortSpecs = new HashMap<Column<ResultDocument>, SortSpec>();
+	
+	@Nullable private final SnippetLoader snippetLoader;
 
 	public ResultPanel(@NotNull Composite parent) {
 		iconCache = new FileIconCache(parent);
@@ -109,6 +125,10 @@ public final class ResultPanel {
 			protected List<ResultDocument> getElements(Object rootElement) {
 				return (List<ResultDocument>) rootElement;
 			}
+			protected void onColumnSorted(Column<ResultDocument> column, boolean up) {
+				int index = getColumnsVisualOrder().indexOf(column) + 1;
+				evtSortChanged.fire(up ? index : -index);
+			}
 		};
 		
 		// Open result document on double-click
@@ -137,7 +157,7 @@ public final class ResultPanel {
 			}
 		});
 		
-		viewer.addColumn(new VariableHeaderColumn<ResultDocument>(Msg.title.get(), Msg.subject.get()) {
+		viewer.addColumn(withSortSpec(Criterion.TITLE, false, new VariableHeaderColumn<ResultDocument>(Msg.title.get(), Msg.subject.get()) {
 			protected String getLabel(ResultDocument element) {
 				return element.getTitle();
 			}
@@ -146,28 +166,29 @@ public final class ResultPanel {
 					return Img.EMAIL.get();
 				return iconCache.getIcon(element.getFilename(), Img.FILE.get());
 			}
-			protected int compare(ResultDocument e1, ResultDocument e2) {
-				return compareAlphanum(e1.getTitle(), e2.getTitle());
+			protected Comparable<?> getSortKey(ResultDocument element) {
+				// Same order as in the searcher, see Fields.createSortTitle
+				return Fields.normalizeSortTitle(element.getTitle());
 			}
-		});
+		}));
 		
-		viewer.addColumn(new Column<ResultDocument>(Msg.score.get(), SWT.RIGHT) {
+		viewer.addColumn(withSortSpec(Criterion.SCORE, true, new Column<ResultDocument>(Msg.score.get(), SWT.RIGHT) {
 			protected String getLabel(ResultDocument element) {
 				return String.valueOf(element.getScore());
 			}
-			protected int compare(ResultDocument e1, ResultDocument e2) {
-				return -1 * Float.compare(e1.getScore(), e2.getScore());
+			protected Comparable<?> getSortKey(ResultDocument element) {
+				return -1 * element.getScore();
 			}
-		});
+		}));
 		
-		viewer.addColumn(new Column<ResultDocument>(Msg.size.get(), SWT.RIGHT) {
+		viewer.addColumn(withSortSpec(Criterion.SIZE, true, new Column<ResultDocument>(Msg.size.get(), SWT.RIGHT) {
 			protected String getLabel(ResultDocument element) {
 				return String.format("%,d KB", element.getSizeInKB());
 			}
-			protected int compare(ResultDocument e1, ResultDocument e2) {
-				return -1 * Longs.compare(e1.getSizeInKB(), e2.getSizeInKB());
+			protected Comparable<?> getSortKey(ResultDocument element) {
+				return -1 * element.getSizeInKB();
 			}
-		});
+		}));
 
 		viewer.addColumn(new VariableHeaderColumn<ResultDocument>(Msg.filename.get(), Msg.sender.get()) {
 			protected String getLabel(ResultDocument element) {
@@ -175,8 +196,8 @@ public final class ResultPanel {
 					return element.getSender();
 				return element.getFilename();
 			}
-			protected int compare(ResultDocument e1, ResultDocument e2) {
-				return compareAlphanum(getLabel(e1), getLabel(e2));
+			protected Comparable<?> getSortKey(ResultDocument element) {
+				return Fields.normalizeSortKey(getLabel(element));
 			}
 		});
 
@@ -184,8 +205,8 @@ public final class ResultPanel {
 			protected String getLabel(ResultDocument element) {
 				return element.getType();
 			}
-			protected int compare(ResultDocument e1, ResultDocument e2) {
-				return compareAlphanum(e1.getType(), e2.getType());
+			protected Comparable<?> getSortKey(ResultDocument element) {
+				return Fields.normalizeSortKey(element.getType());
 			}
 		});
 		
@@ -193,8 +214,8 @@ public final class ResultPanel {
 			protected String getLabel(ResultDocument element) {
 				return element.getPath().getPath();
 			}
-			protected int compare(ResultDocument e1, ResultDocument e2) {
-				return compareAlphanum(getLabel(e1), getLabel(e2));
+			protected Comparable<?> getSortKey(ResultDocument element) {
+				return Fields.normalizeSortKey(getLabel(element));
 			}
 		});
 		
@@ -202,24 +223,20 @@ public final class ResultPanel {
 			protected String getLabel(ResultDocument element) {
 				return element.getAuthors();
 			}
-			protected int compare(ResultDocument e1, ResultDocument e2) {
-				return compareAlphanum(e1.getAuthors(), e2.getAuthors());
+			protected Comparable<?> getSortKey(ResultDocument element) {
+				return Fields.normalizeSortKey(element.getAuthors());
 			}
 		});
 		
-		viewer.addColumn(new VariableHeaderColumn<ResultDocument>(Msg.last_modified.get(), Msg.send_date.get()) {
+		viewer.addColumn(withSortSpec(Criterion.DATE, false, new VariableHeaderColumn<ResultDocument>(Msg.last_modified.get(), Msg.send_date.get()) {
 			protected String getLabel(ResultDocument element) {
 				Date date = getDate(element);
 				return date == null ? "" : dateFormat.format(date);
 			}
-			protected int compare(ResultDocument e1, ResultDocument e2) {
-				Date date1 = getDate(e1);
-				Date date2 = getDate(e2);
-				if (date1 == null) // Place null dates before non-null dates
-					return date2 == null ? 0 : -1;
-				else if (date2 == null)
-					return 1;
-				return date1.compareTo(date2);
+			protected Comparable<?> getSortKey(ResultDocument element) {
+				// Place null dates before non-null dates
+				Date date = getDate(element);
+				return date == null ? Long.MIN_VALUE : date.getTime();
 			}
 			@Nullable
 			private Date getDate(ResultDocument element) {
@@ -227,9 +244,26 @@ public final class ResultPanel {
 					return element.getDate();
 				return element.getLastModified();
 			}
-		});
+		}));
 		
-		SettingsConf.ColumnWidths.ResultPanel.bind(table);
+		if (ProgramConf.Bool.ShowSnippets.get()) {
+			snippetLoader = new SnippetLoader(table, new Runnable() {
+				public void run() {
+					viewer.refreshVisibleItems();
+				}
+			});
+			viewer.addColumn(new Column<ResultDocument>(Msg.snippet.get()) {
+				protected String getLabel(ResultDocument element) {
+					String snippet = snippetLoader.getSnippet(element);
+					return snippet == null ? "" : snippet;
+				}
+			});
+			SettingsConf.ColumnWidths.ResultPanelWithSnippets.bind(table);
+		}
+		else {
+			snippetLoader = null;
+			SettingsConf.ColumnWidths.ResultPanel.bind(table);
+		}
 		SettingsConf.ColumnOrder.ResultPanelColumnOrder.bind(table);
 	}
 	
@@ -242,10 +276,6 @@ public final class ResultPanel {
 			launchFiles(Collections.singletonList(doc));
 	}
 	
-	private static int compareAlphanum(@NotNull String s1, @NotNull String s2) {
-		return AlphanumComparator.ignoreCaseInstance.compare(s1, s2);
-	}
-
 	private void initContextMenu() {
 		ContextMenuManager menuManager = new ContextMenuManager(viewer.getControl());
 		
@@ -364,6 +394,8 @@ public final class ResultPanel {
 		}
 		setActualHeaderMode(results); // TODO post-release-1.1: needs some refactoring
 		
+		if (snippetLoader != null)
+			snippetLoader.clear();
 		viewer.setRoot(results);
 		viewer.scrollToTop();
 	}
@@ -416,6 +448,35 @@ public final class ResultPanel {
 		}
 	}
 	
+	/**
+	 * Returns the sort spec with which the searcher returns the top results in
+	 * the order of {@link #sortByColumn(int)} for the given column index. If
+	 * the column cannot be sorted by the searcher, the results will be
+	 * returned in the order of descending score. This method must be called
+	 * from the GUI thread.
+	 */
+	@NotNull
+	public SortSpec getSortSpec(int columnIndex) {
+		int index = Math.abs(columnIndex) - 1;
+		List<Column<ResultDocument>> columns = viewer.getColumnsVisualOrder();
+		if (index < 0 || index >= columns.size())
+			return SortSpec.SCORE;
+		SortSpec sortSpec = sortSpecs.get(columns.get(index));
+		if (sortSpec == null)
+			return SortSpec.SCORE;
+		if (columnIndex > 0)
+			return sortSpec;
+		return new SortSpec(sortSpec.criterion, !sortSpec.descending);
+	}
+	
+	@NotNull
+	private <T extends Column<ResultDocument>> T withSortSpec(	@NotNull Criterion criterion,
+																boolean descending,
+																@NotNull T column) {
+		sortSpecs.put(column, new SortSpec(criterion, descending));
+		return column;
+	}
+	
 	// Should not be called with emails
 	private void launchFiles(@NotNull List<ResultDocument> docs) {
 		assert !docs.isEmpty();
@@ -29,6 +29,8 @@ import org.eclipse.swt.events.ControlAdapter;
 import org.eclipse.swt.events.ControlEvent;
 import org.eclipse.swt.events.KeyAdapter;
 import org.eclipse.swt.events.KeyEvent;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Point;
@@ -48,6 +50,7 @@ public final class SearchBar {
 	private static final int SPACING = 1;
 
 	public final Event<String> evtSearch = new Event<String>();
+	public final Event<String> evtSearchAsYouType = new Event<String>();
 	public final Event<Void> evtHideInSystemTray = new Event<Void>();
 	public final Event<Void> evtOpenManual = new Event<Void>();
 	public final Event<Void> evtOKClicked = new Event<Void> ();
@@ -58,6 +61,17 @@ public final class SearchBar {
 	private final ToolBar toolBar;
 	private final MemoryList<String> searchHistory;
 
+	// Fires the search-as-you-type event after a pause in typing
+	private final Runnable typingTimer = new Runnable() {
+		public void run() {
+			if (searchBox.isDisposed())
+				return;
+			String query = searchBox.getText();
+			if (!query.trim().isEmpty())
+				evtSearchAsYouType.fire(query);
+		}
+	};
+
 	public SearchBar(@NotNull Composite parent, @NotNull final File programConfFile) {
 		comp = new CustomBorderComposite(parent) {
 			public Point computeSize(int wHint, int hHint, boolean changed) {
@@ -71,11 +85,24 @@ public final class SearchBar {
 		searchBox.addKeyListener(new KeyAdapter() {
 			public void keyReleased(KeyEvent e) {
 				String query = searchBox.getText().trim();
-				if (!query.isEmpty() && Util.isEnterKey(e.keyCode))
+				if (!query.isEmpty() && Util.isEnterKey(e.keyCode)) {
+					cancelTypingTimer();
 					evtSearch.fire(query);
+				}
 			}
 		});
 
+		if (ProgramConf.Bool.SearchAsYouType.get()) {
+			searchBox.addModifyListener(new ModifyListener() {
+				public void modifyText(ModifyEvent e) {
+					// Restart the timer on each keystroke
+					int delay = ProgramConf.Int.SearchAsYouTypeDelay.get();
+					searchBox.getDisplay().timerExec(-1, typingTimer);
+					searchBox.getDisplay().timerExec(delay, typingTimer);
+				}
+			});
+		}
+
 		// Load search history
 		searchHistory = new MemoryList<String>(ProgramConf.Int.SearchHistorySize.get());
 		searchHistory.addAll(SettingsConf.StrList.SearchHistory.get()); // may discard items
@@ -86,8 +113,10 @@ public final class SearchBar {
 		searchBt.addSelectionListener(new SelectionAdapter() {
 			public void widgetSelected(SelectionEvent e) {
 				String query = searchBox.getText().trim();
-				if (!query.isEmpty())
+				if (!query.isEmpty()) {
+					cancelTypingTimer();
 					evtSearch.fire(query);
+				}
 			}
 		});
 
@@ -210,6 +239,11 @@ public final class SearchBar {
 		SettingsConf.StrList.SearchHistory.set(historyArray);
 		searchBox.setItems(historyArray);
 		searchBox.setText(query);
+		cancelTypingTimer(); // setText triggers the modify listener
+	}
+
+	private void cancelTypingTimer() {
+		searchBox.getDisplay().timerExec(-1, typingTimer);
 	}
 
 	@NotNull
@@ -26,13 +26,17 @@ import net.sourceforge.docfetcher.gui.ResultPanel.HeaderMode;
 import net.sourceforge.docfetcher.gui.filter.FileTypePanel;
 import net.sourceforge.docfetcher.gui.filter.FilesizePanel;
 import net.sourceforge.docfetcher.gui.filter.IndexPanel;
+import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.TreeCheckState;
 import net.sourceforge.docfetcher.model.parse.Parser;
 import net.sourceforge.docfetcher.model.search.ResultDocument;
 import net.sourceforge.docfetcher.model.search.SearchException;
 import net.sourceforge.docfetcher.model.search.Searcher;
+import net.sourceforge.docfetcher.model.search.Searcher.Results;
+import net.sourceforge.docfetcher.model.search.SortSpec;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Event;
@@ -54,7 +58,7 @@ import com.google.common.collect.Sets;
 public final class SearchQueue {
 	
 	private static enum GuiEvent {
-		SEARCH_OR_LIST, SIZE, TYPE, LOCATION
+		SEARCH_OR_LIST, SIZE, TYPE, LOCATION, SORT
 	}
 	
 	private static final String spaces = Strings.repeat(" ", 5);
@@ -72,12 +76,34 @@ public final class SearchQueue {
 	private final EnumSet<GuiEvent> queue = EnumSet.noneOf(GuiEvent.class);
 	
 	@Nullable private volatile String query;
-	@Nullable private volatile Set<String> listDocIds;
+	private volatile boolean searchAsYouType;
+	
+	/*
+	 * Incremented for each new search request. A running search is canceled
+	 * as soon as this counter no longer matches the value it had when the
+	 * search was started.
+	 */
+	private volatile int searchCount = 0; // modified while holding 'lock'
+	@Nullable private volatile ListMap<LuceneIndex, Path> listFolders;
 	@Nullable private List<ResultDocument> results;
+	private volatile boolean resultsIncomplete = false;
 	@Nullable private Set<String> checkedParsers;
 	@Nullable private TreeCheckState treeCheckState;
 	private boolean allParsersChecked;
 	
+	/*
+	 * The sorting of the result panel, as a column index in the format of
+	 * ResultPanel.sortByColumn(int), and the matching sort spec for the
+	 * searcher. Both are set on the GUI thread, so that the search thread
+	 * doesn't have to query the result panel.
+	 */
+	private volatile int sortColumn; // modified while holding 'lock'
+	private volatile SortSpec sortSpec; // modified while holding 'lock'
+	
+	// The query and sort spec the current results were found with
+	@Nullable private String resultsQuery;
+	@Nullable private SortSpec resultsSortSpec;
+	
 	public SearchQueue(	@NotNull SearchBar searchBar,
 						@NotNull FilesizePanel filesizePanel,
 						@NotNull FileTypePanel fileTypePanel,
@@ -92,6 +118,7 @@ public final class SearchQueue {
 		this.indexPanel = indexPanel;
 		this.resultPanel = resultPanel;
 		this.statusBar = statusBar;
+		resetSorting();
 		
 		resultPanel.evtSelection.add(new Event.Listener<List<ResultDocument>>() {
 			public void update(List<ResultDocument> eventData) {
@@ -121,6 +148,9 @@ public final class SearchQueue {
 				lock.lock();
 				try {
 					query = eventData;
+					searchAsYouType = false;
+					searchCount++;
+					resetSorting();
 					searchBar.setEnabled(false);
 					queue.add(GuiEvent.SEARCH_OR_LIST);
 					queueNotEmpty.signal();
@@ -131,6 +161,23 @@ public final class SearchQueue {
 			}
 		});
 		
+		searchBar.evtSearchAsYouType.add(new Event.Listener<String>() {
+			public void update(String eventData) {
+				lock.lock();
+				try {
+					query = eventData;
+					searchAsYouType = true;
+					searchCount++; // cancels the running search, if any
+					resetSorting();
+					queue.add(GuiEvent.SEARCH_OR_LIST);
+					queueNotEmpty.signal();
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+		});
+		
 		filesizePanel.evtValuesChanged.add(new Event.Listener<Void>() {
 			public void update(Void eventData) {
 				lock.lock();
@@ -170,11 +217,28 @@ public final class SearchQueue {
 			}
 		});
 		
-		indexPanel.evtListDocuments.add(new Event.Listener<Set<String>>() {
-			public void update(Set<String> eventData) {
+		resultPanel.evtSortChanged.add(new Event.Listener<Integer>() {
+			public void update(Integer eventData) {
+				lock.lock();
+				try {
+					sortColumn = eventData;
+					sortSpec = resultPanel.getSortSpec(eventData);
+					queue.add(GuiEvent.SORT);
+					queueNotEmpty.signal();
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+		});
+		
+		indexPanel.evtListDocuments.add(new Event.Listener<ListMap<LuceneIndex, Path>>() {
+			public void update(ListMap<LuceneIndex, Path> eventData) {
 				lock.lock();
 				try {
-					listDocIds = eventData;
+					listFolders = eventData;
+					searchCount++;
+					resetSorting();
 					queue.add(GuiEvent.SEARCH_OR_LIST);
 					queueNotEmpty.signal();
 				}
@@ -188,7 +252,10 @@ public final class SearchQueue {
 	private boolean threadLoop() {
 		final EnumSet<GuiEvent> queueCopy;
 		final String query;
-		final Set<String> listDocIds;
+		final boolean searchAsYouType;
+		final int searchId;
+		final ListMap<LuceneIndex, Path> listFolders;
+		final SortSpec sortSpec;
 		
 		lock.lock();
 		try {
@@ -198,9 +265,12 @@ public final class SearchQueue {
 			queueCopy = EnumSet.copyOf(queue);
 			queue.clear();
 			query = this.query;
-			listDocIds = this.listDocIds;
+			searchAsYouType = this.searchAsYouType;
+			searchId = searchCount;
+			listFolders = this.listFolders;
+			sortSpec = this.sortSpec;
 			this.query = null;
-			this.listDocIds = null;
+			this.listFolders = null;
 		}
 		catch (InterruptedException e) {
 			return false;
@@ -209,10 +279,27 @@ public final class SearchQueue {
 			lock.unlock();
 		}
 		
+		/*
+		 * If the user sorted the results by clicking on a column header, the
+		 * result panel has already sorted them. However, if the results were
+		 * cut off, the last search must be run again with the new sort spec,
+		 * since the top results by the new criterion may be different.
+		 */
+		boolean resort = false;
+		if (queueCopy.remove(GuiEvent.SORT)) {
+			resort = !queueCopy.contains(GuiEvent.SEARCH_OR_LIST)
+				&& resultsQuery != null
+				&& results != null
+				&& results.size() >= Searcher.MAX_RESULTS
+				&& !sortSpec.equals(resultsSortSpec);
+			if (!resort && queueCopy.isEmpty())
+				return true;
+		}
+		
 		IndexRegistry indexRegistry = indexPanel.getIndexRegistry();
 		
 		// Run search
-		if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST)) {
+		if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST) || resort) {
 			try {
 				Searcher searcher = indexRegistry.getSearcher(); // might block
 				
@@ -234,23 +321,55 @@ public final class SearchQueue {
 				if (searcher == null)
 					return false;
 				
-				if (query != null)
-					results = searcher.search(query);
-				else if (listDocIds != null)
-					results = searcher.list(listDocIds);
+				if (resort) {
+					setResults(searcher.search(resultsQuery, sortSpec), resultsQuery, sortSpec);
+				}
+				else if (query != null && searchAsYouType) {
+					Cancelable cancelable = new Cancelable() {
+						public boolean isCanceled() {
+							return searchCount != searchId;
+						}
+					};
+					Results newResults = searcher.searchAsYouType(
+						query, sortSpec, cancelable);
+					if (newResults != null)
+						setResults(newResults, query, sortSpec);
+					else if (!skipSearch(queueCopy)) // canceled by a newer search
+						return true;
+				}
+				else if (query != null) {
+					setResults(searcher.search(query, sortSpec), query, sortSpec);
+				}
+				else if (listFolders != null) {
+					results = searcher.list(listFolders);
+					resultsIncomplete = false;
+					resultsQuery = null;
+					resultsSortSpec = null;
+				}
 				else
 					throw new IllegalStateException();
 			}
 			catch (SearchException e) {
-				AppUtil.showError(e.getMessage(), true, true);
-				Util.runSyncExec(searchBar.getControl(), new Runnable() {
-					public void run() {
-						searchBar.setEnabled(true);
-					}
-				});
-				
-				// Don't return yet, we might have to update the filters
-				results = null;
+				/*
+				 * Errors in queries that are still being typed are expected,
+				 * e.g. unbalanced quotes, so they're ignored and the previous
+				 * results are kept.
+				 */
+				if (searchAsYouType) {
+					if (!skipSearch(queueCopy))
+						return true;
+				}
+				else {
+					AppUtil.showError(e.getMessage(), true, true);
+					Util.runSyncExec(searchBar.getControl(), new Runnable() {
+						public void run() {
+							searchBar.setEnabled(true);
+						}
+					});
+					
+					// Don't return yet, we might have to update the filters
+					results = null;
+				}
 			}
 			catch (CheckedOutOfMemoryError e) {
 				UtilGui.showOutOfMemoryMessage(searchBar.getControl(), e);
@@ -317,19 +436,50 @@ public final class SearchQueue {
 		Util.runSyncExec(searchBar.getControl(), new Runnable() {
 			public void run() {
 				resultPanel.setResults(visibleResults, mode);
-				resultPanel.sortByColumn(ProgramConf.Int.InitialSorting.get());
-				if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST))
+				resultPanel.sortByColumn(sortColumn);
+				
+				// Leave the focus in the search field while the user is typing
+				boolean searched = queueCopy.contains(GuiEvent.SEARCH_OR_LIST);
+				if (searched && !searchAsYouType)
 					resultPanel.getControl().setFocus();
 				updateResultStatus(); // Must be done *after* setting the results
 				searchBar.setEnabled(true);
 				
-				if (query != null)
+				if (searched && query != null && !searchAsYouType)
 					searchBar.addToSearchHistory(query);
 			}
 		});
 		
 		return true;
 	}
+	
+	private void setResults(@NotNull Results newResults,
+							@NotNull String query,
+							@NotNull SortSpec sortSpec) {
+		results = newResults.resultDocuments;
+		resultsIncomplete = newResults.incomplete;
+		resultsQuery = query;
+		resultsSortSpec = sortSpec;
+	}
+	
+	/*
+	 * Removes the search from the given events, so that the previous results
+	 * are kept. Returns whether there are other events left to handle.
+	 */
+	private static boolean skipSearch(@NotNull Set<GuiEvent> queueCopy) {
+		queueCopy.remove(GuiEvent.SEARCH_OR_LIST);
+		return !queueCopy.isEmpty();
+	}
+	
+	/*
+	 * Resets the sorting to the initial sorting of the result panel, so that
+	 * the searcher returns the top results by that criterion rather than the
+	 * top results by score. Must be called from the GUI thread.
+	 */
+	private void resetSorting() {
+		sortColumn = ProgramConf.Int.InitialSorting.get();
+		sortSpec = resultPanel.getSortSpec(sortColumn);
+	}
 
 	private void updateParserFilter() {
 		ListMap<Parser, Boolean> map = fileTypePanel.getParserStateMap();
@@ -350,6 +500,8 @@ public final class SearchQueue {
 		String msg = Msg.num_results.format(resultCount);
 		if (resultCount >= Searcher.MAX_RESULTS)
 			msg += "+";
+		if (resultsIncomplete)
+			msg += spaces + Msg.results_incomplete.get();
 		int selCount = resultPanel.getSelection().size();
 		if (selCount > 1)
 			msg += spaces + Msg.num_sel_results.format(selCount);
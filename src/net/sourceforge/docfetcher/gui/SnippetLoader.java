@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.gui;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.sourceforge.docfetcher.model.search.ResultDocument;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.widgets.Widget;
+
+/**
+ * Computes the snippets shown on the result panel. Snippets are only requested
+ * for the rows the virtual result table is about to display, so only the
+ * snippets of the visible results are computed. The snippets are computed in
+ * parallel on a thread pool that lives as long as the given widget. As the
+ * snippets come in, the given updater is run to refresh the table.
+ * <p>
+ * All methods must be called from the GUI thread.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+final class SnippetLoader {
+
+	private final Widget widget;
+	private final Runnable updater;
+	private final ExecutorService executor;
+	private final Map<ResultDocument, String> snippets = new HashMap<ResultDocument, String>();
+	private final Map<ResultDocument, Future<?>> loading = new HashMap<ResultDocument, Future<?>>();
+	private boolean updateScheduled = false;
+	private int clearCount = 0; // for discarding the results of outdated computations
+
+	public SnippetLoader(@NotNull Widget widget, @NotNull Runnable updater) {
+		Util.checkNotNull(widget, updater);
+		this.widget = widget;
+		this.updater = updater;
+
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, SnippetLoader.class.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		widget.addDisposeListener(new DisposeListener() {
+			public void widgetDisposed(DisposeEvent e) {
+				executor.shutdownNow();
+			}
+		});
+	}
+
+	/**
+	 * Returns the snippet of the given result document if it has already been
+	 * computed, otherwise schedules its computation and returns null. Also
+	 * returns null if the document has no snippet.
+	 */
+	@Nullable
+	public String getSnippet(@NotNull final ResultDocument doc) {
+		if (snippets.containsKey(doc))
+			return snippets.get(doc);
+		if (loading.containsKey(doc) || executor.isShutdown())
+			return null;
+		final int startCount = clearCount;
+		Future<?> future = executor.submit(new Runnable() {
+			public void run() {
+				final String snippet = computeSnippet(doc);
+				Util.runAsyncExec(widget, new Runnable() {
+					public void run() {
+						if (startCount != clearCount)
+							return;
+						loading.remove(doc);
+						snippets.put(doc, snippet);
+						scheduleUpdate();
+					}
+				});
+			}
+		});
+		loading.put(doc, future);
+		return null;
+	}
+
+	// Discards all computed snippets and cancels all pending computations
+	public void clear() {
+		for (Future<?> future : loading.values())
+			future.cancel(false);
+		snippets.clear();
+		loading.clear();
+		clearCount++;
+	}
+
+	/*
+	 * Refreshes the table once for all snippets that arrived in the meantime,
+	 * rather than once per snippet.
+	 */
+	private void scheduleUpdate() {
+		if (updateScheduled)
+			return;
+		updateScheduled = true;
+		Util.runAsyncExec(widget, new Runnable() {
+			public void run() {
+				updateScheduled = false;
+				updater.run();
+			}
+		});
+	}
+
+	// Failed documents get no snippet rather than being retried
+	@Nullable
+	private static String computeSnippet(@NotNull ResultDocument doc) {
+		try {
+			return doc.getSnippet();
+		}
+		catch (CheckedOutOfMemoryError e) {
+			return null;
+		}
+		catch (RuntimeException e) {
+			Util.printErr(e);
+			return null;
+		}
+	}
+
+}
@@ -32,6 +32,7 @@ import net.sourceforge.docfetcher.model.Folder.FolderEvent;
 import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.model.IndexRegistry.ExistingIndexesHandler;
 import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.ViewNode;
 import net.sourceforge.docfetcher.model.index.IndexingQueue;
 import net.sourceforge.docfetcher.model.index.IndexingQueue.Rejection;
@@ -46,6 +47,7 @@ import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.RecursiveMethod;
 import net.sourceforge.docfetcher.util.collect.AlphanumComparator;
+import net.sourceforge.docfetcher.util.collect.ListMap;
 import net.sourceforge.docfetcher.util.gui.ContextMenuManager;
 import net.sourceforge.docfetcher.util.gui.MenuAction;
 import net.sourceforge.docfetcher.util.gui.dialog.InputLoop;
@@ -80,7 +82,7 @@ public final class IndexPanel {
 	}
 	
 	public final Event<Void> evtCheckStatesChanged = new Event<Void>();
-	public final Event<Set<String>> evtListDocuments = new Event<Set<String>>();
+	public final Event<ListMap<LuceneIndex, Path>> evtListDocuments = new Event<ListMap<LuceneIndex, Path>>();
 	public final Event<Rectangle> evtIndexingDialogMinimized = new Event<Rectangle>();
 	public final Event<Void> evtIndexingDialogOpened = new Event<Void>();
 
@@ -89,6 +91,7 @@ public final class IndexPanel {
 	private final IndexRegistry indexRegistry;
 	private final DialogFactory dialogFactory;
 	private final Set<ViewNode> nodesToBeAdded = new HashSet<ViewNode>();
+	private final Set<LuceneIndex> treesBeingLoaded = new HashSet<LuceneIndex>();
 	
 	@NotNull private MenuAction updateIndexAction;
 	@NotNull private MenuAction removeIndexAction;
@@ -142,6 +145,13 @@ public final class IndexPanel {
 				 * here is to filter out subfolders for which no tree item has
 				 * been created yet.
 				 */
+				if (element instanceof LuceneIndex) {
+					LuceneIndex index = (LuceneIndex) element;
+					if (!index.isTreeLoaded()) {
+						loadTreeAsync(index);
+						return Collections.emptyList();
+					}
+				}
 				return Iterables.filter(element.getChildren(), new Predicate<ViewNode>() {
 					public boolean apply(ViewNode child) {
 						return !nodesToBeAdded.contains(child);
@@ -159,7 +169,6 @@ public final class IndexPanel {
 			
 			protected void setChecked(ViewNode element, boolean checked) {
 				setCheckedRecursively(element, checked);
-				setCheckedRecursively(viewer.getItem(element), checked);
 				evtCheckStatesChanged.fire(null);
 			}
 			
@@ -202,6 +211,24 @@ public final class IndexPanel {
 			}
 		});
 
+		/*
+		 * Show the children of an index once its tree has been loaded, either
+		 * by loadTreeAsync or by an index update.
+		 */
+		LuceneIndex.evtTreeLoaded.add(new Event.Listener<LuceneIndex>() {
+			public void update(final LuceneIndex eventData) {
+				Util.runAsyncExec(tree, new Runnable() {
+					public void run() {
+						treesBeingLoaded.remove(eventData);
+						if (viewer.getItem(eventData) == null)
+							return;
+						viewer.refreshChildren(eventData);
+						viewer.update(eventData);
+					}
+				});
+			}
+		});
+
 		/*
 		 * In the following added/removed handlers, the GUI must be accessed via
 		 * asyncExec calls, not via syncExec, otherwise a deadlock will occur if
@@ -381,7 +408,6 @@ public final class IndexPanel {
 			public void run() {
 				for (ViewNode element : viewer.getRoots()) {
 					setCheckedRecursively(element, checkAll);
-					setCheckedRecursively(viewer.getItem(element), checkAll);
 				}
 				evtCheckStatesChanged.fire(null);
 			}
@@ -446,10 +472,20 @@ public final class IndexPanel {
 			}
 			public void run() {
 				List<ViewNode> selection = viewer.getSelection();
-				Set<String> uids = new HashSet<String>();
-				for (ViewNode viewNode : selection)
-					uids.addAll(viewNode.getDocumentIds());
-				evtListDocuments.fire(uids);
+				ListMap<LuceneIndex, Path> folders = ListMap.create(selection.size());
+				for (ViewNode viewNode : selection) {
+					if (viewNode instanceof LuceneIndex) {
+						LuceneIndex index = (LuceneIndex) viewNode;
+						folders.add(index, index.getRootPath());
+					}
+					else {
+						Folder<?, ?> folder = (Folder<?, ?>) viewNode;
+						LuceneIndex index = getIndex(folder);
+						if (index != null)
+							folders.add(index, folder.getPath());
+					}
+				}
+				evtListDocuments.fire(folders);
 			}
 		});
 		
@@ -532,21 +568,56 @@ public final class IndexPanel {
 		return rootSelection;
 	}
 	
+	/*
+	 * The trees of the indexes are loaded lazily after program startup, so
+	 * that the indexes can be searched right away. Loading the tree of a large
+	 * index can take a while, which is why this is done in the background.
+	 */
+	private void loadTreeAsync(@NotNull final LuceneIndex index) {
+		if (!treesBeingLoaded.add(index))
+			return;
+		Thread thread = new Thread(IndexPanel.class.getName()) {
+			public void run() {
+				index.getRootFolder();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	// Returns null if the index was removed in the meantime
+	@Nullable
+	private LuceneIndex getIndex(@NotNull Folder<?, ?> folder) {
+		Folder<?, ?> root = folder.getRoot();
+		for (LuceneIndex index : indexRegistry.getIndexes())
+			if (index.isTreeLoaded() && index.getRootFolder() == root)
+				return index;
+		return null;
+	}
+	
+	/*
+	 * Sets the check state of the given element, its subfolders and their
+	 * tree items. If the element is an index whose tree hasn't been loaded
+	 * yet, the check states are set without loading the tree.
+	 */
 	@RecursiveMethod
 	private void setCheckedRecursively(	@NotNull ViewNode element,
 										boolean checked) {
+		TreeItem item = viewer.getItem(element);
+		if (item != null)
+			item.setChecked(checked);
+		if (element instanceof LuceneIndex) {
+			LuceneIndex index = (LuceneIndex) element;
+			if (!index.isTreeLoaded()) {
+				index.setCheckedDeep(checked);
+				return;
+			}
+		}
 		element.setChecked(checked);
 		for (ViewNode child : element.getChildren())
 			setCheckedRecursively(child, checked);
 	}
 	
-	@RecursiveMethod
-	private void setCheckedRecursively(@NotNull TreeItem item, boolean checked) {
-		item.setChecked(checked);
-		for (TreeItem child : item.getItems())
-			setCheckedRecursively(child, checked);
-	}
-	
 	// Returns nearest parent file that is an existing directory or the
 	// root file. The path of the returned file is in canonical form.
 	@NotNull
@@ -11,9 +11,10 @@
 
 package net.sourceforge.docfetcher.gui.preview;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -28,8 +29,6 @@ import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 
-import com.google.common.collect.Maps;
-
 /**
  * An implementation of StyledTextContent that is optimized for appending text
  * at the end. This class does not support inserting text anywhere else.
@@ -88,13 +87,22 @@ final class AppendingStyledTextContent implements StyledTextContent {
 		protected abstract void handleBreak(int start, int end);
 	}
 	
-	private final StringBuilder buffer = new StringBuilder();
-	private final Map<Integer, Integer> lineToOffset = Maps.newHashMap();
-	private final List<TextChangeListener> listeners = new LinkedList<TextChangeListener>();
+	/*
+	 * The text is stored in fixed-size chunks rather than in a single
+	 * StringBuilder, so that appending to a large text never requires copying
+	 * it into a bigger array, and the line offsets are stored in a primitive
+	 * int array rather than in a map with boxed keys and values. For a text
+	 * with millions of lines, this makes a difference of several hundred MB.
+	 */
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
 	
-	public AppendingStyledTextContent() {
-		lineToOffset.put(0, 0);
-	}
+	private final List<char[]> chunks = new ArrayList<char[]>();
+	private int charCount = 0;
+	private int[] lineOffsets = new int[64];
+	private int lineCount = 1; // the first line always starts at offset 0
+	private final List<TextChangeListener> listeners = new LinkedList<TextChangeListener>();
 	
 	public void addTextChangeListener(TextChangeListener listener) {
 		listeners.add(listener);
@@ -105,11 +113,11 @@ final class AppendingStyledTextContent implements StyledTextContent {
 	}
 
 	public int getCharCount() {
-		return buffer.length();
+		return charCount;
 	}
 	
 	public int getLineCount() {
-		return lineToOffset.size();
+		return lineCount;
 	}
 
 	public String getLineDelimiter() {
@@ -117,78 +125,79 @@ final class AppendingStyledTextContent implements StyledTextContent {
 	}
 	
 	public String getLine(int lineIndex) {
-		Integer start = lineToOffset.get(lineIndex);
-		Integer end = lineToOffset.get(lineIndex + 1);
-		if (end == null)
-			end = buffer.length();
+		int start = lineOffsets[lineIndex];
+		int end = lineIndex + 1 < lineCount ? lineOffsets[lineIndex + 1] : charCount;
 		// This code has to be really fast
 		int lineLength = end - start;
 		if (lineLength >= 1) {
-			char c1 = buffer.charAt(end - 1);
+			char c1 = charAt(end - 1);
 			if (c1 == '\n') {
 				if (lineLength >= 2) {
-					char c2 = buffer.charAt(end - 2);
+					char c2 = charAt(end - 2);
 					if (c2 == '\r')
-						return buffer.substring(start, end - 2);
+						return getTextRange(start, lineLength - 2);
 				}
-				return buffer.substring(start, end - 1);
+				return getTextRange(start, lineLength - 1);
 			}
 			else if (c1 == '\r') {
-				return buffer.substring(start, end - 1);
+				return getTextRange(start, lineLength - 1);
 			}
 		}
-		return buffer.substring(start, end);
+		return getTextRange(start, lineLength);
 	}
 
 	public int getLineAtOffset(int offset) {
-		if (offset == buffer.length())
-			return lineToOffset.size() - 1;
-		// Binary search
+		if (offset == charCount)
+			return lineCount - 1;
+		if (offset < 0 || offset > charCount)
+			throw new IllegalArgumentException();
+		// Binary search for the last line starting at or before the offset
 		int low = 0;
-		int high = lineToOffset.size() - 1;
-		while (low <= high) {
-			int mid = (low + high) >>> 1;
-			Integer startOffset = lineToOffset.get(mid);
-			if (offset < startOffset) {
+		int high = lineCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (lineOffsets[mid] <= offset)
+				low = mid;
+			else
 				high = mid - 1;
-			}
-			else {
-				Integer endOffset = lineToOffset.get(mid + 1);
-				if (endOffset == null)
-					endOffset = buffer.length();
-				if (offset >= endOffset)
-					low = mid + 1;
-				else
-					return mid;
-			}
 		}
-		throw new IllegalArgumentException();
+		return low;
 	}
 
 	public int getOffsetAtLine(int lineIndex) {
-		return lineToOffset.get(lineIndex);
+		if (lineIndex < 0 || lineIndex >= lineCount)
+			throw new IndexOutOfBoundsException();
+		return lineOffsets[lineIndex];
 	}
 	
 	public String getTextRange(int start, int length) {
-		return buffer.substring(start, start + length);
+		if (start < 0 || length < 0 || start + length > charCount)
+			throw new IndexOutOfBoundsException();
+		char[] chars = new char[length];
+		int copied = 0;
+		while (copied < length) {
+			int offset = start + copied;
+			int chunkOffset = offset & CHUNK_MASK;
+			int count = Math.min(length - copied, CHUNK_SIZE - chunkOffset);
+			char[] chunk = chunks.get(offset >>> CHUNK_BITS);
+			System.arraycopy(chunk, chunkOffset, chars, copied, count);
+			copied += count;
+		}
+		return new String(chars);
 	}
 
 	public void replaceTextRange(int start, int replaceLength, String text) {
 		// Only append operation is supported
-		Util.checkThat(start == buffer.length() && replaceLength == 0);
+		Util.checkThat(start == charCount && replaceLength == 0);
 		if (text.isEmpty())
 			return;
 
-		final int shift = buffer.length();
-		final Map<Integer, Integer> map = Maps.newHashMap();
-		
-		new LineBreaker(text) {
-			protected void handleBreak(int start, int end) {
-				int lineStart = end + shift;
-				int lineIndex = lineToOffset.size() + map.size();
-				map.put(lineIndex, lineStart);
-			}
-		};
+		/*
+		 * The offsets of the new lines are written behind the current line
+		 * offsets, but only become visible after the listeners have been told
+		 * about the upcoming change.
+		 */
+		final int newLineCount = addLineOffsets(text, charCount);
 		
 		TextChangingEvent event1 = new TextChangingEvent(this);
 		event1.start = start;
@@ -196,12 +205,12 @@ final class AppendingStyledTextContent implements StyledTextContent {
 		event1.replaceCharCount = replaceLength;
 		event1.newCharCount = text.length();
 		event1.replaceLineCount = 0;
-		event1.newLineCount = map.size();
+		event1.newLineCount = newLineCount;
 		for (TextChangeListener listener : listeners)
 			listener.textChanging(event1);
 		
-		buffer.append(text);
-		lineToOffset.putAll(map);
+		appendChars(text);
+		lineCount += newLineCount;
 		
 		TextChangedEvent event2 = new TextChangedEvent(this);
 		for (TextChangeListener listener : listeners)
@@ -209,22 +218,56 @@ final class AppendingStyledTextContent implements StyledTextContent {
 	}
 
 	public void setText(String text) {
-		buffer.delete(0, buffer.length());
-		lineToOffset.clear();
-		lineToOffset.put(0, 0);
+		chunks.clear();
+		charCount = 0;
+		lineOffsets = new int[64];
+		lineCount = 1;
 		
-		buffer.append(text);
-		new LineBreaker(text) {
-			protected void handleBreak(int start, int end) {
-				int lineStart = end;
-				int lineIndex = lineToOffset.size();
-				lineToOffset.put(lineIndex, lineStart);
-			}
-		};
+		lineCount += addLineOffsets(text, 0);
+		appendChars(text);
 		
 		TextChangedEvent event = new TextChangedEvent(this);
 		for (TextChangeListener listener : listeners)
 			listener.textSet(event);
 	}
 	
+	private char charAt(int offset) {
+		return chunks.get(offset >>> CHUNK_BITS)[offset & CHUNK_MASK];
+	}
+	
+	private void appendChars(@NotNull String text) {
+		final int len = text.length();
+		int copied = 0;
+		while (copied < len) {
+			int chunkOffset = charCount & CHUNK_MASK;
+			if (chunkOffset == 0)
+				chunks.add(new char[CHUNK_SIZE]);
+			char[] chunk = chunks.get(chunks.size() - 1);
+			int count = Math.min(len - copied, CHUNK_SIZE - chunkOffset);
+			text.getChars(copied, copied + count, chunk, chunkOffset);
+			copied += count;
+			charCount += count;
+		}
+	}
+	
+	/*
+	 * Writes the start offsets of the lines following the line breaks in the
+	 * given text behind the current line offsets, growing the array if
+	 * necessary, and returns the number of offsets written. The line count is
+	 * not updated.
+	 */
+	private int addLineOffsets(@NotNull String text, final int shift) {
+		final int[] newCount = { 0 };
+		new LineBreaker(text) {
+			protected void handleBreak(int start, int end) {
+				int lineIndex = lineCount + newCount[0];
+				if (lineIndex == lineOffsets.length)
+					lineOffsets = Arrays.copyOf(lineOffsets, lineIndex * 2);
+				lineOffsets[lineIndex] = end + shift;
+				newCount[0]++;
+			}
+		};
+		return newCount[0];
+	}
+	
 }
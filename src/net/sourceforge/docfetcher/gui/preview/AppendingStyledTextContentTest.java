@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.gui.preview;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class AppendingStyledTextContentTest {
+
+	@Test
+	public void testLines() {
+		AppendingStyledTextContent content = new AppendingStyledTextContent();
+		content.setText("a\r\nbc\rd");
+		content.replaceTextRange(7, 0, "\nef\n");
+		assertEquals(11, content.getCharCount());
+		assertEquals(5, content.getLineCount());
+		assertEquals("a", content.getLine(0));
+		assertEquals("bc", content.getLine(1));
+		assertEquals("d", content.getLine(2));
+		assertEquals("ef", content.getLine(3));
+		assertEquals("", content.getLine(4));
+		assertEquals(3, content.getOffsetAtLine(1));
+		assertEquals(0, content.getLineAtOffset(2));
+		assertEquals(1, content.getLineAtOffset(3));
+		assertEquals(3, content.getLineAtOffset(9));
+		assertEquals(4, content.getLineAtOffset(11));
+	}
+
+	@Test
+	public void testLargeText() {
+		// Text spanning several chunks, appended in pieces of odd sizes
+		StringBuilder expected = new StringBuilder();
+		AppendingStyledTextContent content = new AppendingStyledTextContent();
+		for (int i = 0; i < 20000; i++) {
+			String line = "line " + i + "\n";
+			content.replaceTextRange(content.getCharCount(), 0, line);
+			expected.append(line);
+		}
+		assertEquals(expected.length(), content.getCharCount());
+		assertEquals(20001, content.getLineCount());
+		assertEquals("line 12345", content.getLine(12345));
+		int offset = content.getOffsetAtLine(12345);
+		assertEquals(12345, content.getLineAtOffset(offset + 3));
+		assertEquals(
+			expected.substring(65000, 140000),
+			content.getTextRange(65000, 75000));
+	}
+
+}
@@ -11,7 +11,6 @@
 
 package net.sourceforge.docfetcher.gui.preview;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -28,6 +27,8 @@ import net.sourceforge.docfetcher.util.gui.ContextMenuManager;
 import net.sourceforge.docfetcher.util.gui.MenuAction;
 
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.LineStyleEvent;
+import org.eclipse.swt.custom.LineStyleListener;
 import org.eclipse.swt.custom.ST;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
@@ -40,6 +41,12 @@ import org.eclipse.swt.graphics.Resource;
 import org.eclipse.swt.widgets.Composite;
 
 /**
+ * A text viewer for the highlighted document text. The highlight ranges are
+ * kept in a sorted int array and are only turned into style ranges for the
+ * lines the text viewer is about to draw, so that the cost of highlighting
+ * doesn't grow with the size of the document. For the same reason, going to
+ * the next or previous occurrence is done with a binary search.
+ * 
  * @author Tran Nam Quang
  */
 final class HighlightingText {
@@ -50,7 +57,8 @@ final class HighlightingText {
 	@NotNull private StyleRange highlightStyle;
 	@NotNull private Color highlightColor;
 	
-	private final List<int[]> rangesList = new ArrayList<int[]>();
+	// Start and length of each occurrence, in ascending order
+	private int[] ranges = new int[0];
 	private int occCount;
 	private Font normalFont;
 	private Font monoFont;
@@ -62,6 +70,13 @@ final class HighlightingText {
 		textViewer.setContent(new AppendingStyledTextContent());
 		setHighlightColorAndStyle();
 		
+		// Provide the highlighting for the lines that are being drawn
+		textViewer.addLineStyleListener(new LineStyleListener() {
+			public void lineGetStyle(LineStyleEvent event) {
+				event.styles = getLineStyles(event.lineOffset, event.lineText.length());
+			}
+		});
+		
 		// Update highlight color when preferences entry changes
 		SettingsConf.IntArray.PreviewHighlighting.evtChanged.add(new Event.Listener<int[]>() {
 			public void update(int[] eventData) {
@@ -131,7 +146,7 @@ final class HighlightingText {
 	
 	public void clear() {
 		textViewer.setText("");
-		rangesList.clear();
+		ranges = new int[0];
 		occCount = 0;
 	}
 	
@@ -149,21 +164,11 @@ final class HighlightingText {
 	}
 	
 	public void setText(@NotNull HighlightedString string) {
-		rangesList.clear();
+		ranges = new int[0];
 		occCount = 0;
 		
 		textViewer.setText(string.getString());
-		if (string.isEmpty())
-			return;
-		
-		int[] rangeArray = getRangeArray(string, 0);
-		if (SettingsConf.Bool.HighlightingEnabled.get()) {
-			StyleRange[] styles = getStylesArray(string);
-			textViewer.setStyleRanges(rangeArray, styles);
-		}
-		
-		rangesList.add(rangeArray);
-		occCount = string.getRangeCount();
+		addRanges(string.getRanges(), 0);
 	}
 	
 	public void appendText(@NotNull HighlightedString string) {
@@ -172,32 +177,26 @@ final class HighlightingText {
 		
 		int offset = textViewer.getCharCount();
 		textViewer.append(string.getString());
-		
-		int[] rangeArray = getRangeArray(string, offset);
-		if (SettingsConf.Bool.HighlightingEnabled.get()) {
-			StyleRange[] styles = getStylesArray(string);
-			textViewer.setStyleRanges(offset, string.length(), rangeArray, styles);
-		}
-		
-		rangesList.add(rangeArray);
-		occCount += string.getRangeCount();
+		addRanges(string.getRanges(), offset);
+	}
+	
+	/**
+	 * Adds occurrences to the text that was set last. The given ranges must be
+	 * in ascending order and must come after the existing occurrences.
+	 */
+	public void addRanges(@NotNull List<Range> newRanges) {
+		if (newRanges.isEmpty())
+			return;
+		addRanges(newRanges, 0);
+		Range first = newRanges.get(0);
+		Range last = newRanges.get(newRanges.size() - 1);
+		int end = last.start + last.length;
+		textViewer.redrawRange(first.start, end - first.start, false);
 	}
 	
 	public void updateHighlighting() {
-		if (SettingsConf.Bool.HighlightingEnabled.get()) {
-			int[] fullRangeArray = new int[2 * occCount];
-			int offset = 0;
-			for (int[] array : rangesList) {
-				System.arraycopy(array, 0, fullRangeArray, offset, array.length);
-				offset += array.length;
-			}
-			StyleRange[] styleArray = new StyleRange[occCount];
-			Arrays.fill(styleArray, highlightStyle);
-			textViewer.setStyleRanges(fullRangeArray, styleArray);
-		}
-		else {
-			textViewer.setStyleRanges(new StyleRange[0]);
-		}
+		// The line style listener picks up the new settings
+		textViewer.redraw();
 	}
 
 	/**
@@ -218,26 +217,10 @@ final class HighlightingText {
 	
 	// argument is one-based
 	public void goTo(int occ) {
-		int tokenStart = -1;
-		int tokenEnd = -1;
-		int tokenIndex = 0;
-		
-		outer: {
-			for (int[] ranges : rangesList) {
-				for (int i = 0; i < ranges.length - 1; i += 2) {
-					tokenIndex++;
-					if (tokenIndex == occ) {
-						tokenStart = ranges[i];
-						tokenEnd = tokenStart + ranges[i + 1];
-						break outer;
-					}
-				}
-			}
-		}
-		
-		if (tokenStart == -1)
+		if (occ < 1 || occ > occCount)
 			return;
-		
+		int tokenStart = ranges[2 * (occ - 1)];
+		int tokenEnd = tokenStart + ranges[2 * (occ - 1) + 1];
 		textViewer.setSelection(tokenStart, tokenEnd);
 		scrollToMiddle((tokenStart + tokenEnd) / 2);
 	}
@@ -256,66 +239,81 @@ final class HighlightingText {
 	
 	@Nullable
 	private Integer goTo(boolean forward, int searchStart) {
-		int tokenStart = -1;
-		int tokenEnd = -1;
-		int tokenIndex = 0;
-		
-		outer: {
-			if (forward) {
-				for (int[] ranges : rangesList) {
-					for (int i = 0; i < ranges.length - 1; i += 2) {
-						tokenIndex++;
-						if (ranges[i] >= searchStart) {
-							tokenStart = ranges[i];
-							tokenEnd = tokenStart + ranges[i + 1];
-							break outer;
-						}
-					}
-				}
-			}
-			else {
-				for (int[] ranges : rangesList) {
-					for (int i = 0; i < ranges.length - 1; i += 2) {
-						if (ranges[i] + ranges[i + 1] <= searchStart) {
-							tokenStart = ranges[i];
-							tokenEnd = tokenStart + ranges[i + 1];
-							tokenIndex++;
-						}
-						else {
-							break outer;
-						}
-					}
-				}
-			}
-		}
-		
-		if (tokenStart == -1)
+		// Index of the first occurrence starting at or after the search start,
+		// or of the last occurrence ending at or before the search start
+		int index = forward
+			? findFirst(searchStart, false)
+			: findFirst(searchStart + 1, true) - 1;
+		if (index < 0 || index >= occCount)
 			return null;
 		
+		int tokenStart = ranges[2 * index];
+		int tokenEnd = tokenStart + ranges[2 * index + 1];
 		textViewer.setSelection(tokenStart, tokenEnd);
 		scrollToMiddle((tokenStart + tokenEnd) / 2);
-		return tokenIndex;
+		return index + 1;
 	}
-
-	@NotNull
-	private static int[] getRangeArray(@NotNull HighlightedString string,
-								int offset) {
-		List<Range> ranges = string.getRanges();
-		int[] rangeArray = new int[ranges.size() * 2];
-		for (int i = 0; i < ranges.size(); i++) {
-			rangeArray[i * 2] = ranges.get(i).start + offset;
-			rangeArray[i * 2 + 1] = ranges.get(i).length;
+	
+	/*
+	 * Returns the index of the first occurrence whose start offset (or end
+	 * offset, if byEnd is true) is at least the given offset, or the number of
+	 * occurrences if there is no such occurrence. Since the occurrences don't
+	 * overlap, both the start and the end offsets are in ascending order.
+	 */
+	private int findFirst(int offset, boolean byEnd) {
+		int low = 0;
+		int high = occCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int value = ranges[2 * mid];
+			if (byEnd)
+				value += ranges[2 * mid + 1];
+			if (value < offset)
+				low = mid + 1;
+			else
+				high = mid;
 		}
-		return rangeArray;
+		return low;
 	}
 	
-	@NotNull
-	private StyleRange[] getStylesArray(@NotNull HighlightedString string) {
-		StyleRange[] styles = new StyleRange[string.getRangeCount()];
-		Arrays.fill(styles, highlightStyle);
+	@Nullable
+	private StyleRange[] getLineStyles(int lineOffset, int lineLength) {
+		if (occCount == 0 || !SettingsConf.Bool.HighlightingEnabled.get())
+			return null;
+		int lineEnd = lineOffset + lineLength;
+		int first = findFirst(lineOffset + 1, true);
+		int last = first;
+		while (last < occCount && ranges[2 * last] < lineEnd)
+			last++;
+		if (first == last)
+			return null;
+		
+		// Clip occurrences that span several lines
+		StyleRange[] styles = new StyleRange[last - first];
+		for (int i = first; i < last; i++) {
+			int start = Math.max(ranges[2 * i], lineOffset);
+			int end = Math.min(ranges[2 * i] + ranges[2 * i + 1], lineEnd);
+			StyleRange style = (StyleRange) highlightStyle.clone();
+			style.start = start;
+			style.length = end - start;
+			styles[i - first] = style;
+		}
 		return styles;
 	}
 	
+	private void addRanges(@NotNull List<Range> newRanges, int offset) {
+		if (newRanges.isEmpty())
+			return;
+		int newCount = occCount + newRanges.size();
+		if (2 * newCount > ranges.length)
+			ranges = Arrays.copyOf(ranges, Math.max(2 * newCount, 2 * ranges.length));
+		for (Range range : newRanges) {
+			ranges[2 * occCount] = range.start + offset;
+			ranges[2 * occCount + 1] = range.length;
+			occCount++;
+		}
+	}
+	
 	/**
 	 * Vertically divides the text viewer into three segments of equal height
 	 * and scrolls the given caret offset into view so that it is always
@@ -19,6 +19,7 @@ import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.SettingsConf;
 import net.sourceforge.docfetcher.gui.CustomBorderComposite;
 import net.sourceforge.docfetcher.model.search.HighlightedString;
+import net.sourceforge.docfetcher.model.search.Range;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -308,6 +309,28 @@ class HighlightingToolBarWithTextViewer {
         textViewer.getControl().setRedraw(true);
 	}
 	
+	/**
+	 * Adds occurrences to the text that was set with
+	 * {@link #setText(HighlightedString)}. The given ranges must be in
+	 * ascending order and must come after the existing occurrences.
+	 */
+	public final void addRanges(@NotNull List<Range> ranges) {
+		Util.checkThat(pages.size() == 1);
+		if (ranges.isEmpty())
+			return;
+		boolean wasEmpty = occCount == 0;
+		pages.get(0).addRanges(ranges);
+		textViewer.addRanges(ranges);
+		occCount += ranges.size();
+		
+		occField.setRange(currentOcc, occCount);
+		upBt.setEnabled(true);
+		downBt.setEnabled(true);
+		highlightBt.setEnabled(true);
+		if (wasEmpty && SettingsConf.Bool.AutoScrollToFirstMatch.get())
+			moveSelection(true);
+	}
+	
 	public final void appendPage(@NotNull HighlightedString string) {
 		occCount += string.getRangeCount();
 		if (pages.isEmpty()) {
@@ -26,7 +26,9 @@ import net.sourceforge.docfetcher.gui.preview.DelayedOverlay.Hider;
 import net.sourceforge.docfetcher.model.FileResource;
 import net.sourceforge.docfetcher.model.MailResource;
 import net.sourceforge.docfetcher.model.parse.ParseException;
+import net.sourceforge.docfetcher.model.search.HighlightService.HighlightHandler;
 import net.sourceforge.docfetcher.model.search.HighlightedString;
+import net.sourceforge.docfetcher.model.search.Range;
 import net.sourceforge.docfetcher.model.search.ResultDocument;
 import net.sourceforge.docfetcher.model.search.ResultDocument.PdfPageHandler;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
@@ -457,10 +459,35 @@ public final class PreviewPanel extends Composite {
 			super(doc, startCount);
 		}
 
-		protected void doRun(Hider overlayHider) throws ParseException,
+		protected void doRun(final Hider overlayHider) throws ParseException,
 				FileNotFoundException, CheckedOutOfMemoryError {
-			HighlightedString string = doc.getHighlightedText();
-			setTextSafely(string, doc.isPlainTextFile(), startCount, false);
+			/*
+			 * Show the text as soon as it's available, and add the occurrences
+			 * of the search terms as they are found.
+			 */
+			doc.readHighlightedText(new HighlightHandler() {
+				private boolean isStopped = false;
+				
+				public void handleText(HighlightedString string) {
+					if (!setTextSafely(string, doc.isPlainTextFile(), startCount, false))
+						isStopped = true;
+					overlayHider.hide();
+				}
+				
+				public void handleRanges(final List<Range> ranges) {
+					boolean success = runSafely(startCount, textPreview, new Runnable() {
+						public void run() {
+							textPreview.addRanges(ranges);
+						}
+					});
+					if (!success)
+						isStopped = true;
+				}
+				
+				public boolean isStopped() {
+					return isStopped;
+				}
+			});
 		}
 	}
 	
@@ -11,9 +11,12 @@
 
 package net.sourceforge.docfetcher.gui.preview;
 
+import java.util.List;
+
 import net.sourceforge.docfetcher.enums.Img;
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.model.search.HighlightedString;
+import net.sourceforge.docfetcher.model.search.Range;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.gui.ToolItemFactory;
@@ -78,6 +81,10 @@ final class TextPreview extends ToolBarForm {
 		toolBarWithTextViewer.setText(string);
 	}
 
+	public void addRanges(@NotNull List<Range> ranges) {
+		toolBarWithTextViewer.addRanges(ranges);
+	}
+
 	public void appendPage(@NotNull HighlightedString string) {
 		toolBarWithTextViewer.appendPage(string);
 	}
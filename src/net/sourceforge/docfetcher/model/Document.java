@@ -42,24 +42,40 @@ public abstract class Document<D extends Document<D, F>, F extends Folder<D, F>>
 	}
 	
 	public final void setLastModified(long lastModified) {
+		if (this.lastModified == lastModified)
+			return;
 		this.lastModified = lastModified;
+		incrementModCount();
+	}
+
+	protected final void incrementModCount() {
+		F parent = this.parent; // null if the document was removed
+		if (parent != null)
+			parent.incrementModCount();
 	}
 
 	@NotNull
 	protected abstract DocumentType getType();
 	
+	/*
+	 * The unique ID is built in the same string builder as the path, so that
+	 * no path objects are created for the document and its ancestors.
+	 */
 	@NotNull
 	public final String getUniqueId() {
-		return getType().createUniqueId(getPath());
+		StringBuilder sb = new StringBuilder(getType().getPrefix());
+		int start = sb.length();
+		parent.appendPath(sb);
+		Path.appendPathPart(sb, start, getName());
+		return sb.toString();
 	}
 	
-	/*
-	 * TODO post-release-1.1: This method is somewhat expensive. Try to avoid
-	 * calling it. May also have multi-threading issues.
-	 */
 	@NotNull
 	public final Path getPath() {
-		return parent.getPath().createSubPath(getName());
+		StringBuilder sb = new StringBuilder();
+		parent.appendPath(sb);
+		Path.appendPathPart(sb, 0, getName());
+		return Path.createSubPath(sb.toString(), getName());
 	}
 
 }
@@ -30,6 +30,11 @@ public enum DocumentType {
 		this.isEmail = isEmail;
 	}
 	
+	@NotNull
+	String getPrefix() {
+		return prefix;
+	}
+	
 	@NotNull
 	public String createUniqueId(@NotNull Path path) {
 		return prefix + path.getPath();
@@ -11,16 +11,24 @@
 
 package net.sourceforge.docfetcher.model;
 
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
 import javolution.io.CharSequenceReader;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
+import org.apache.lucene.document.CompressionTools;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Index;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.Field.TermVector;
 import org.apache.lucene.document.NumericField;
 
+import com.google.common.base.Charsets;
+
 /**
  * @author Tran Nam Quang
  */
@@ -61,10 +69,24 @@ public enum Fields {
 	SENDER (Store.YES, Index.ANALYZED),
 	RECIPIENTS (Store.YES, Index.ANALYZED), // TODO post-release-1.1: show this field on results panel in "email mode"
 	DATE (Store.YES, Index.NO), // this field is optional
+	
+	// Compressed copy of the extracted text; optional, see createText(String)
+	TEXT (Store.YES, Index.NO),
+	
+	// Unstored single-term fields for sorting the results inside Lucene. The
+	// date field holds the last-modified value of files and the send date of
+	// emails. Documents indexed without these fields sort as if their values
+	// were empty or zero.
+	SORT_TITLE (Store.NO, Index.NOT_ANALYZED_NO_NORMS), // see createSortTitle(String)
+	SORT_DATE (Store.NO, Index.NOT_ANALYZED_NO_NORMS),
 	;
 	
 	public static final String EMAIL_PARSER = "EmailParser";
 	
+	private static final int SORT_TITLE_MAX_LENGTH = 64;
+	private static final int SORT_TITLE_DIGITS = 10;
+	private static final char SORT_TITLE_SEPARATOR = '\u0001';
+	
 	@NotNull private final String key;
 	@NotNull private final Store store;
 	@NotNull private final Index index;
@@ -93,6 +115,145 @@ public enum Fields {
 		return new NumericField(key, store, true).setLongValue(fieldValue);
 	}
 	
+	/**
+	 * Creates an unstored field holding a normalized version of the given
+	 * title, so that sorting the field's terms lexicographically yields the
+	 * natural, case-insensitive order of the titles. See
+	 * {@link #normalizeSortTitle(String)}.
+	 */
+	@NotNull
+	public static Field createSortTitle(@NotNull String title) {
+		return SORT_TITLE.create(normalizeSortTitle(title));
+	}
+	
+	/**
+	 * Returns a normalized version of the given title for sorting, such that
+	 * the lexicographic order of the normalized titles is the natural order of
+	 * the case-insensitive AlphanumComparator: Characters are case-folded the
+	 * same way as in the comparator, and runs of the digits 0-9 are left-padded
+	 * with zeros to a fixed length, so that for example "file9" sorts before
+	 * "file10". A digit run that doesn't start the title is preceded by a
+	 * separator that sorts before all other characters, since the comparator
+	 * places "file1.txt" before "file.txt". The result is cut off after a
+	 * fixed number of characters to save memory in the Lucene field cache.
+	 * <p>
+	 * The orders only differ for titles whose first difference lies beyond the
+	 * cut-off, and for digit runs that differ in leading zeros or exceed the
+	 * padding length. The result panel sorts titles by the normalized titles,
+	 * so that it agrees with the searcher in these cases as well.
+	 */
+	@NotNull
+	public static String normalizeSortTitle(@NotNull String title) {
+		return normalizeSortKey(title, SORT_TITLE_MAX_LENGTH);
+	}
+	
+	/**
+	 * Same as {@link #normalizeSortTitle(String)}, but without the cut-off.
+	 * This is used for sorting by other strings than titles, e.g. paths, so
+	 * that all string sorting follows the same rules.
+	 */
+	@NotNull
+	public static String normalizeSortKey(@NotNull String value) {
+		return normalizeSortKey(value, Integer.MAX_VALUE);
+	}
+	
+	@NotNull
+	private static String normalizeSortKey(@NotNull String value, int maxLength) {
+		StringBuilder sb = new StringBuilder(Math.min(value.length(), SORT_TITLE_MAX_LENGTH));
+		int length = value.length();
+		int i = 0;
+		while (i < length && sb.length() < maxLength) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				sb.append(Character.toLowerCase(Character.toUpperCase(c)));
+				i++;
+				continue;
+			}
+			if (i > 0)
+				sb.append(SORT_TITLE_SEPARATOR);
+			int end = i + 1;
+			while (end < length && value.charAt(end) >= '0' && value.charAt(end) <= '9')
+				end++;
+			for (int j = end - i; j < SORT_TITLE_DIGITS; j++)
+				sb.append('0');
+			sb.append(value, i, end);
+			i = end;
+		}
+		if (sb.length() > maxLength)
+			sb.setLength(maxLength);
+		return sb.toString();
+	}
+	
+	/**
+	 * Creates a stored, compressed and unindexed field with the given extracted
+	 * text. Storing the text allows rebuilding a Lucene document without
+	 * running the parser again, e.g. after the file was moved.
+	 */
+	@NotNull
+	public static Field createText(@NotNull String text) {
+		return new Field(TEXT.key, CompressionTools.compressString(text));
+	}
+	
+	/**
+	 * Decompresses the values of the given document's text field, or returns
+	 * null if the document has no such field.
+	 */
+	@Nullable
+	public static String[] getText(@NotNull Document luceneDoc) {
+		byte[][] values = luceneDoc.getBinaryValues(TEXT.key);
+		if (values.length == 0)
+			return null;
+		String[] texts = new String[values.length];
+		try {
+			for (int i = 0; i < values.length; i++)
+				texts[i] = CompressionTools.decompressString(values[i]);
+		}
+		catch (DataFormatException e) {
+			return null;
+		}
+		return texts;
+	}
+	
+	/**
+	 * Decompresses at most the first <tt>maxChars</tt> characters of the
+	 * given document's text field, or returns null if the document has no
+	 * such field. Unlike {@link #getText(Document)}, this only decompresses
+	 * as much of the text as needed.
+	 */
+	@Nullable
+	public static String getTextPrefix(@NotNull Document luceneDoc, int maxChars) {
+		byte[] value = luceneDoc.getBinaryValue(TEXT.key);
+		if (value == null)
+			return null;
+		
+		// The text is UTF-8 encoded, i.e. a char takes at most three bytes
+		byte[] buffer = new byte[(int) Math.min(3L * maxChars, Integer.MAX_VALUE)];
+		int length = 0;
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(value);
+			while (length < buffer.length && !inflater.finished()) {
+				int count = inflater.inflate(buffer, length, buffer.length - length);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length += count;
+			}
+		}
+		catch (DataFormatException e) {
+			return null;
+		}
+		finally {
+			inflater.end();
+		}
+		
+		/*
+		 * If the buffer ends with an incomplete char, the latter is decoded as
+		 * a replacement char at or beyond index maxChars, and is thus removed.
+		 */
+		String text = new String(buffer, 0, length, Charsets.UTF_8);
+		return text.length() > maxChars ? text.substring(0, maxChars) : text;
+	}
+	
 	// Will create a tokenized and indexed field that is not stored if the given
 	// fieldValue is not a String
 	// does not store token positions and offsets
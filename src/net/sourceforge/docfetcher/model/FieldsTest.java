@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.lucene.document.Document;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class FieldsTest {
+
+	@Test
+	public void testGetTextPrefix() {
+		Document doc = new Document();
+		assertNull(Fields.getTextPrefix(doc, 10));
+
+		String text = "Héllo Wörld 世界 " + Strings.repeat("x", 1000);
+		doc.add(Fields.createText(text));
+		assertEquals(text, Fields.getTextPrefix(doc, text.length()));
+		assertEquals(text, Fields.getText(doc)[0]);
+		for (int i = 1; i <= 16; i++)
+			assertEquals(text.substring(0, i), Fields.getTextPrefix(doc, i));
+		assertEquals(text, Fields.getTextPrefix(doc, 100 * 1000));
+	}
+
+}
@@ -16,10 +16,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sourceforge.docfetcher.UtilGlobal;
 import net.sourceforge.docfetcher.util.Event;
@@ -32,6 +34,7 @@ import net.sourceforge.docfetcher.util.annotations.RecursiveMethod;
 import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Maps;
 
@@ -95,8 +98,7 @@ public abstract class Folder
 	 */
 	@Nullable protected F parent;
 	@Nullable protected Path path;
-	private int pathHashCode;
-
+	
 	/**
 	 * The last time this object was modified. Null if the object has no last
 	 * modified field (e.g. regular folder).
@@ -105,6 +107,30 @@ public abstract class Folder
 
 	protected boolean isChecked = true;
 
+	/*
+	 * The unchecked folders of the tree, only used on root folders. It's
+	 * updated whenever a check state changes, so that getTreeCheckState()
+	 * doesn't have to traverse the tree. The set is created on demand, e.g.
+	 * after deserialization. Folders that have been removed from the tree may
+	 * remain in the set until the next call to getTreeCheckState().
+	 */
+	@Nullable private transient Set<Folder<?, ?>> uncheckedFolders; // guarded by checkStateLock
+
+	/*
+	 * Lock for the uncheckedFolders sets. To avoid deadlocks, it must not be
+	 * acquired while holding the lock of a folder.
+	 */
+	private static final Object checkStateLock = new Object();
+	
+	/*
+	 * The modification counter of the tree, only set on the root folders of
+	 * tree indexes, see TreeIndex.getModCount(). Other root folders, e.g. HTML
+	 * folders, have no counter. This is fine since they're only modified by
+	 * the index update that attaches them to a tree, which increments the
+	 * counter of the tree and saves the tree afterwards.
+	 */
+	@Nullable private transient volatile AtomicLong modCount;
+
 	@SuppressWarnings("unchecked")
 	protected Folder(	@NotNull F parent,
 						@NotNull String name,
@@ -114,14 +140,12 @@ public abstract class Folder
 		this.parent = parent;
 		this.lastModified = lastModified;
 		parent.putSubFolder((F) this);
-		updatePathHashCode();
 	}
 
 	protected Folder(@NotNull Path path, @Nullable Long lastModified) {
 		super(path.getName());
 		this.path = path;
 		this.lastModified = lastModified;
-		updatePathHashCode();
 	}
 	
 	public final synchronized int getParentCount() {
@@ -134,21 +158,6 @@ public abstract class Folder
 		return count;
 	}
 
-	protected void updatePathHashCode() {
-		if (path != null) {
-			pathHashCode = path.getPath().hashCode();
-		}
-		else {
-			String parentPath = parent.getPath().getPath();
-			String thisPath = Util.joinPath(parentPath, getName());
-			pathHashCode = thisPath.hashCode();
-		}
-	}
-
-	synchronized int getPathHashCode() {
-		return pathHashCode;
-	}
-
 	@Nullable
 	public synchronized final F getParent() {
 		return parent;
@@ -161,41 +170,69 @@ public abstract class Folder
 		return parent == null ? (F) this : parent.getRoot();
 	}
 
-	// TODO post-release-1.1: This method is somewhat expensive. Try to avoid calling it
-	@SuppressWarnings("unchecked")
+	/*
+	 * The paths of non-root folders are not stored, but built from the names
+	 * of the ancestors on each call, so that moving a subtree or changing the
+	 * root path doesn't require updating any of the descendants. The path
+	 * string is built in a single string builder, see appendPath.
+	 */
 	@NotNull
 	public synchronized final Path getPath() {
 		assert (parent == null) == (path != null);
-
-		// Just return the path if this instance is a root
-		if (path != null)
-			return path;
-
-		// Create a list of nodes from the root down to this instance
-		LinkedList<F> list = new LinkedList<F>();
-		list.add((F) this);
-		F current = parent;
-		while (current != null) {
-			list.addFirst(current);
-			current = current.parent;
-		}
-
-		// Construct path for this instance
+		Path rootPath = path;
+		if (rootPath != null)
+			return rootPath;
 		StringBuilder sb = new StringBuilder();
-		sb.append(list.removeFirst().path.getPath()); // root path
-		for (F node : list) {
-			sb.append("/");
-			sb.append(node.getName());
+		appendPath(sb);
+		return Path.createSubPath(sb.toString(), getName());
+	}
+	
+	/**
+	 * Appends the path of the receiver to the given string builder. Doesn't
+	 * acquire the locks of the ancestors, in order to avoid lock-ordering
+	 * deadlocks with methods that lock the ancestors before the descendants.
+	 */
+	final void appendPath(@NotNull StringBuilder sb) {
+		appendPath(sb, sb.length());
+	}
+	
+	@RecursiveMethod
+	private void appendPath(@NotNull StringBuilder sb, int start) {
+		Path rootPath = path;
+		if (rootPath != null) {
+			sb.append(rootPath.getPath());
+			return;
 		}
+		Folder<D, F> parentFolder = parent;
+		parentFolder.appendPath(sb, start);
+		Path.appendPathPart(sb, start, getName());
+	}
 
-		return new Path(sb.toString());
+	final void setModCount(@NotNull AtomicLong modCount) {
+		Util.checkNotNull(modCount);
+		Util.checkThat(parent == null);
+		this.modCount = modCount;
+	}
+	
+	/*
+	 * Doesn't acquire the locks of the ancestors, for the same reason as
+	 * appendPath(StringBuilder).
+	 */
+	protected final void incrementModCount() {
+		Folder<D, F> root = this;
+		F parent;
+		while ((parent = root.parent) != null)
+			root = parent;
+		AtomicLong rootModCount = root.modCount;
+		if (rootModCount != null)
+			rootModCount.incrementAndGet();
 	}
 
 	synchronized final void setPath(@NotNull Path path) {
 		Util.checkNotNull(path);
 		this.path = path;
 		parent = null;
-		updatePathHashCode();
+		incrementModCount();
 	}
 
 	@Nullable
@@ -204,7 +241,10 @@ public abstract class Folder
 	}
 
 	public synchronized final void setLastModified(@Nullable Long lastModified) {
+		if (Objects.equal(this.lastModified, lastModified))
+			return;
 		this.lastModified = lastModified;
+		incrementModCount();
 	}
 
 	// will replace document with identical name;
@@ -217,6 +257,7 @@ public abstract class Folder
 		if (doc.parent != null && doc.parent != this)
 			doc.parent.removeDocument(doc);
 		doc.parent = (F) this;
+		incrementModCount();
 	}
 
 	// will replace folder with identical name
@@ -230,9 +271,22 @@ public abstract class Folder
 				subFolder.parent.subFolders.remove(subFolder);
 			subFolder.parent = (F) this;
 			subFolder.path = null;
-			subFolder.updatePathHashCode();
 			subFolders.put(subFolder.getName(), subFolder);
 		}
+		incrementModCount();
+
+		// A moved subtree may contain unchecked folders
+		if (!subFolder.isChecked() || subFolder.getSubFolderCount() > 0) {
+			Folder<D, F> movedFolder = subFolder;
+			Set<Folder<?, ?>> unchecked = movedFolder.collectUncheckedFolders();
+			if (!unchecked.isEmpty()) {
+				Folder<D, F> root = getRoot();
+				synchronized (checkStateLock) {
+					if (root.uncheckedFolders != null)
+						root.uncheckedFolders.addAll(unchecked);
+				}
+			}
+		}
 		evtFolderAdded.fire(new FolderEvent(this, subFolder));
 	}
 
@@ -247,6 +301,7 @@ public abstract class Folder
 		doc.parent = null;
 		if (documents.isEmpty())
 			documents = null;
+		incrementModCount();
 	}
 
 	public final void removeChildren() {
@@ -268,6 +323,7 @@ public abstract class Folder
 				}
 			}
 		}
+		incrementModCount();
 		for (F subFolder : toNotify)
 			evtFolderRemoved.fire(new FolderEvent(this, subFolder));
 	}
@@ -297,6 +353,7 @@ public abstract class Folder
 			if (subFolders.isEmpty())
 				subFolders = null;
 		}
+		incrementModCount();
 		evtFolderRemoved.fire(new FolderEvent(this, subFolder));
 	}
 
@@ -308,6 +365,7 @@ public abstract class Folder
 			if (predicate.apply(doc)) {
 				docIt.remove();
 				doc.parent = null;
+				incrementModCount();
 			}
 		}
 		if (documents.isEmpty())
@@ -331,6 +389,7 @@ public abstract class Folder
 					subFolder.path = subFolder.getPath();
 					subFolder.parent = null;
 					toNotify.add(subFolder);
+					incrementModCount();
 				}
 			}
 			if (subFolders.isEmpty())
@@ -421,21 +480,74 @@ public abstract class Folder
 		return isChecked;
 	}
 
-	public synchronized final void setChecked(boolean isChecked) {
-		this.isChecked = isChecked;
+	public final void setChecked(boolean isChecked) {
+		synchronized (this) {
+			if (this.isChecked == isChecked)
+				return;
+			this.isChecked = isChecked;
+		}
+		incrementModCount();
+
+		// If the set doesn't exist yet, it will be created with this change
+		Folder<D, F> root = getRoot();
+		synchronized (checkStateLock) {
+			Set<Folder<?, ?>> unchecked = root.uncheckedFolders;
+			if (unchecked == null)
+				return;
+			if (isChecked())
+				unchecked.remove(this);
+			else
+				unchecked.add(this);
+		}
+	}
+
+	/**
+	 * Returns the check states of the receiver and its subfolders. This
+	 * doesn't traverse the tree, except on the first call after the tree was
+	 * loaded. This method should only be called on root folders.
+	 */
+	@NotNull
+	public final TreeCheckState getTreeCheckState() {
+		List<Folder<?, ?>> unchecked;
+		synchronized (checkStateLock) {
+			if (uncheckedFolders == null)
+				uncheckedFolders = collectUncheckedFolders();
+			unchecked = new ArrayList<Folder<?, ?>>(uncheckedFolders);
+		}
+
+		// Skip and forget folders that were removed from the tree
+		List<Path> uncheckedPaths = new ArrayList<Path>(unchecked.size());
+		List<Folder<?, ?>> removed = new ArrayList<Folder<?, ?>>(0);
+		for (Folder<?, ?> folder : unchecked) {
+			if (folder.getRoot() == this)
+				uncheckedPaths.add(folder.getPath());
+			else
+				removed.add(folder);
+		}
+		if (!removed.isEmpty()) {
+			synchronized (checkStateLock) {
+				uncheckedFolders.removeAll(removed);
+			}
+		}
+
+		TreeCheckState state = new TreeCheckState();
+		state.addTree(getPath(), uncheckedPaths);
+		return state;
 	}
 
 	@NotNull
 	@SuppressWarnings("unchecked")
-	public synchronized final TreeCheckState getTreeCheckState() {
-		final TreeCheckState state = new TreeCheckState();
-		state.add(this, isChecked);
+	private Set<Folder<?, ?>> collectUncheckedFolders() {
+		final Set<Folder<?, ?>> unchecked = new HashSet<Folder<?, ?>>();
+		if (!isChecked())
+			unchecked.add(this);
 		new FolderVisitor<D, F, Throwable>((F) this) {
 			protected void visitFolder(F parent, F folder) {
-				state.add(folder, folder.isChecked);
+				if (!folder.isChecked())
+					unchecked.add(folder);
 			}
 		}.runSilently();
-		return state;
+		return unchecked;
 	}
 
 	public final boolean isIndex() {
@@ -483,10 +595,33 @@ public abstract class Folder
 	@ThreadSafe
 	protected synchronized TreeNode findTreeNodeUnchecked(@NotNull Path targetPath) {
 		/*
-		 * TODO post-release-1.1: since getPath() constructs the returned path
-		 * dynamically, this search algorithm is somewhat inefficient. Maybe
-		 * improve it? (Consider making use of the path hashcode.)
+		 * Usually, the next child on the way to the target can be looked up
+		 * by name. If that fails, e.g. because the child names contain path
+		 * separators, we'll fall back to comparing the paths of all children.
 		 */
+		String target = targetPath.getPath();
+		StringBuilder sb = new StringBuilder();
+		appendPath(sb);
+		String thisPath = sb.toString();
+		int start = thisPath.length() + 1;
+		if (target.length() > start && target.startsWith(thisPath)
+				&& target.charAt(start - 1) == '/') {
+			int end = target.indexOf('/', start);
+			String name = end == -1
+				? target.substring(start)
+				: target.substring(start, end);
+			if (end == -1 && documents != null) {
+				D document = documents.get(name);
+				if (document != null)
+					return document;
+			}
+			F subFolder = subFolders == null ? null : subFolders.get(name);
+			if (subFolder != null) {
+				if (end == -1)
+					return subFolder;
+				return subFolder.findTreeNodeUnchecked(targetPath);
+			}
+		}
 		if (documents != null) {
 			for (D document : documents.values()) {
 				Path path = document.getPath();
@@ -11,7 +11,9 @@
 
 package net.sourceforge.docfetcher.model;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import net.sourceforge.docfetcher.model.index.file.FileDocument;
 import net.sourceforge.docfetcher.model.index.file.FileFolder;
@@ -42,5 +44,29 @@ public final class FolderTest {
 			assertNull(f1.findTreeNode(new Path(prefix + "does/not/exist")));
 		}
 	}
+	
+	@Test
+	public void testPaths() {
+		FileFolder f1 = new FileFolder(new Path("one"), null);
+		FileFolder f2 = new FileFolder(f1, "two", null);
+		FileFolder f3 = new FileFolder(f2, "three", null);
+		FileDocument doc = new FileDocument(f3, "four", 1L);
+		
+		assertEquals("one/two/three", f3.getPath().getPath());
+		assertEquals("three", f3.getPath().getName());
+		assertEquals("one/two/three/four", doc.getPath().getPath());
+		assertEquals("file://one/two/three/four", doc.getUniqueId());
+		
+		// Changing the root path changes the paths of all descendants
+		((Folder<?, ?>) f1).setPath(new Path("/one"));
+		assertEquals("/one/two/three", f3.getPath().getPath());
+		assertEquals("/one/two/three/four", doc.getPath().getPath());
+		assertEquals("file:///one/two/three/four", doc.getUniqueId());
+		assertSame(doc, f1.findTreeNode(new Path("/one/two/three/four")));
+		
+		// Removed folders keep their paths
+		f2.removeSubFolder(f3);
+		assertEquals("/one/two/three", f3.getPath().getPath());
+	}
 
 }
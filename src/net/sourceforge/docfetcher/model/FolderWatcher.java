@@ -12,14 +12,19 @@
 package net.sourceforge.docfetcher.model;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
 import net.contentobjects.jnotify.JNotify;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.gui.ManualLocator;
+import net.sourceforge.docfetcher.model.HybridFolderWatch.WatchBudget;
 import net.sourceforge.docfetcher.model.IndexRegistry.ExistingIndexesHandler;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.PatternAction;
@@ -53,6 +58,16 @@ public final class FolderWatcher {
 	
 	// Should only be accessed from the worker thread
 	private final Map<LuceneIndex, Integer> watchIdMap = Maps.newHashMap();
+	private final Map<LuceneIndex, HybridFolderWatch> hybridWatchMap = Maps.newHashMap();
+	
+	/*
+	 * On Linux, folder trees are watched with a limited number of inotify
+	 * watches, and the remaining folders are polled by the polling thread.
+	 * This avoids running into the kernel's watch limit on large trees.
+	 */
+	private final List<HybridFolderWatch> hybridWatches = new CopyOnWriteArrayList<HybridFolderWatch>();
+	private final WatchBudget watchBudget = new WatchBudget(ProgramConf.Int.WatchLimit.get());
+	@Nullable private final Thread pollingThread;
 
 	private final Lock writeLock;
 	private final Condition needsUpdate;
@@ -72,6 +87,20 @@ public final class FolderWatcher {
 		
 		initListeners();
 		
+		// Must be started before the worker thread, which reads this field
+		if (Util.IS_LINUX) {
+			pollingThread = new Thread(FolderWatcher.class.getName() + " (Polling)") {
+				public void run() {
+					pollLoop();
+				}
+			};
+			pollingThread.setDaemon(true);
+			pollingThread.start();
+		}
+		else {
+			pollingThread = null;
+		}
+		
 		/*
 		 * Adding and removing watches is done in a dedicated thread because
 		 * adding watches can be a time-consuming operation, depending on the
@@ -91,6 +120,44 @@ public final class FolderWatcher {
 		};
 		thread.start();
 	}
+	
+	/*
+	 * Polls the folders not covered by inotify watches. Each sweep over the
+	 * folder trees is done in slices, with the minimum polling interval
+	 * between two slices, so that large trees don't cause bursts of disk
+	 * access. The interval between two sweeps is doubled each time a sweep
+	 * finds no changes, up to a maximum, and is reset to the minimum when
+	 * polling finds changes. Changes reported by inotify don't reset the
+	 * interval, since they don't affect the polled folders.
+	 */
+	private void pollLoop() {
+		long minInterval = ProgramConf.Int.FolderPollingMinInterval.get() * 1000L;
+		long maxInterval = Math.max(
+			minInterval, ProgramConf.Int.FolderPollingMaxInterval.get() * 1000L);
+		long interval = minInterval;
+		try {
+			while (true) {
+				Thread.sleep(interval);
+				boolean changed = false;
+				List<HybridFolderWatch> sweeping = new ArrayList<HybridFolderWatch>(hybridWatches);
+				while (true) {
+					for (HybridFolderWatch watch : sweeping)
+						changed |= watch.poll();
+					Iterator<HybridFolderWatch> it = sweeping.iterator();
+					while (it.hasNext())
+						if (it.next().isSweepComplete())
+							it.remove();
+					if (sweeping.isEmpty())
+						break;
+					Thread.sleep(minInterval);
+				}
+				interval = changed ? minInterval : Math.min(interval * 2, maxInterval);
+			}
+		}
+		catch (InterruptedException e) {
+			// Folder watcher was shut down
+		}
+	}
 
 	private void initListeners() {
 		// Registering the listeners must be done before starting the thread
@@ -195,6 +262,12 @@ public final class FolderWatcher {
 				}
 			}
 			watchIdMap.clear();
+			for (HybridFolderWatch watch : hybridWatchMap.values())
+				watch.dispose();
+			hybridWatchMap.clear();
+			hybridWatches.clear();
+			if (pollingThread != null)
+				pollingThread.interrupt();
 			LuceneIndex.evtWatchFoldersChanged.remove(watchChangedListener);
 			throw new InterruptedException();
 		}
@@ -220,10 +293,22 @@ public final class FolderWatcher {
 			 */
 			// Add watch
 			if (watchQueueCopy.get(index)) {
-				if (watchIdMap.containsKey(index))
+				if (watchIdMap.containsKey(index)
+						|| hybridWatchMap.containsKey(index))
 					continue;
 				if (!rootFile.exists())
 					continue;
+				
+				if (pollingThread != null && rootFile.isDirectory()) {
+					HybridFolderWatch watch = new HybridFolderWatch(
+						rootFile, watchBudget,
+						ProgramConf.Int.FolderPollingSliceSize.get(),
+						new JNotifyListenerImpl(index));
+					hybridWatchMap.put(index, watch);
+					watch.init();
+					hybridWatches.add(watch);
+					continue;
+				}
 
 				/*
 				 * Tests indicate that Linux can watch individual files, but
@@ -249,6 +334,12 @@ public final class FolderWatcher {
 			}
 			// Remove watch
 			else {
+				HybridFolderWatch watch = hybridWatchMap.remove(index);
+				if (watch != null) {
+					hybridWatches.remove(watch);
+					watch.dispose();
+					continue;
+				}
 				Integer id = watchIdMap.remove(index);
 				if (id == null)
 					continue;
@@ -280,7 +371,8 @@ public final class FolderWatcher {
 		}
 	}
 	
-	private final class JNotifyListenerImpl extends SimpleJNotifyListener {
+	private final class JNotifyListenerImpl extends SimpleJNotifyListener
+			implements HybridFolderWatch.ChangeListener {
 		private final LuceneIndex watchedIndex;
 		private final DelayedExecutor delayedExecutor = new DelayedExecutor(1000);
 		
@@ -288,10 +380,27 @@ public final class FolderWatcher {
 			this.watchedIndex = Util.checkNotNull(watchedIndex);
 		}
 		
-		protected void handleEvent(File targetFile, EventType eventType) {
-			if (!accept(targetFile, eventType))
-				return;
-			
+		public void handleEvent(File targetFile, EventType eventType) {
+			if (accept(targetFile, eventType))
+				scheduleUpdate();
+		}
+		
+		public void handleFolderChange(File folder) {
+			/*
+			 * Apply the same filtering as for inotify events. Polling only
+			 * tells us that entries were added to or removed from the folder,
+			 * which corresponds to a creation event rather than a modification
+			 * event, the latter being checked against the stored last-modified
+			 * values of files and archives.
+			 */
+			EventType eventType = folder.isDirectory()
+				? EventType.CREATED
+				: EventType.DELETED;
+			if (accept(folder, eventType))
+				scheduleUpdate();
+		}
+		
+		private void scheduleUpdate() {
 			/*
 			 * JNotify can fire many events in rapid succession, so we'll add a
 			 * small delay here in order to let the file system "cool down".
@@ -0,0 +1,497 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+import net.contentobjects.jnotify.JNotify;
+import net.sourceforge.docfetcher.model.SimpleJNotifyListener.EventType;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Detects changes in a folder tree with a limited number of non-recursive
+ * inotify watches. Watches are placed on the most recently active folders,
+ * initially on the folders closest to the root. All other folders are covered
+ * by comparing their last-modified values in regular intervals, in slices of
+ * limited size, see {@link #poll()}. When a polled folder changes, it
+ * receives a watch, if necessary by taking the watch of the least recently
+ * active folder.
+ * <p>
+ * Note that the last-modified value of a folder only changes when entries are
+ * added to, removed from or renamed in the folder, so modifications of
+ * existing files in polled folders are not detected.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class HybridFolderWatch {
+
+	interface ChangeListener {
+		/**
+		 * Called for file system events reported by inotify, on the thread
+		 * delivering the events.
+		 */
+		public void handleEvent(@NotNull File target, @NotNull EventType eventType);
+
+		/**
+		 * Called on the polling thread for folders whose contents have changed
+		 * according to their last-modified values, or which were deleted.
+		 */
+		public void handleFolderChange(@NotNull File folder);
+	}
+
+	/**
+	 * The number of inotify watches that may be used by all instances of
+	 * {@link HybridFolderWatch} together.
+	 */
+	@ThreadSafe
+	static final class WatchBudget {
+		private int available;
+
+		public WatchBudget(int size) {
+			available = size;
+		}
+
+		public synchronized boolean tryAcquire() {
+			if (available <= 0)
+				return false;
+			available--;
+			return true;
+		}
+
+		public synchronized void release() {
+			available++;
+		}
+
+		// Called when the kernel refused a watch before the budget was used up
+		public synchronized void exhaust() {
+			available = 0;
+		}
+	}
+
+	private static final class PendingEvent {
+		private final File target;
+		private final EventType eventType;
+
+		private PendingEvent(@NotNull File target, @NotNull EventType eventType) {
+			this.target = target;
+			this.eventType = eventType;
+		}
+	}
+
+	/*
+	 * A folder of the watched tree. Since the tree may contain millions of
+	 * folders, only the name of each folder is stored, and paths are built
+	 * from the parent chain when needed. The names are interned and shared
+	 * with the names of the tree nodes of the index. The root folder stores
+	 * its full path instead of its name.
+	 */
+	private static final class FolderNode {
+		@Nullable private final FolderNode parent;
+		private final String name;
+		private long lastModified;
+		@Nullable private Map<String, FolderNode> children; // null instead of empty map to save RAM
+		private boolean removed = false;
+
+		private FolderNode(@Nullable FolderNode parent, @NotNull String name) {
+			this.parent = parent;
+			this.name = name;
+		}
+
+		@Nullable
+		private FolderNode getChild(@NotNull String name) {
+			return children == null ? null : children.get(name);
+		}
+	}
+
+	private final File rootDir;
+	private final WatchBudget budget;
+	private final int sliceSize;
+	private final ChangeListener listener;
+
+	/*
+	 * The inotify events are delivered while JNotify holds an internal lock,
+	 * which it also acquires when watches are added or removed. To avoid
+	 * deadlocks, the inotify callbacks don't acquire the lock of this instance
+	 * and only put directory changes into this queue.
+	 */
+	private final Queue<PendingEvent> pendingEvents = new ConcurrentLinkedQueue<PendingEvent>();
+
+	// Null before initialization and after the root folder has been removed
+	@Nullable private FolderNode root; // guarded by 'this' lock
+	private int folderCount = 0; // guarded by 'this' lock
+
+	// Watch IDs of the watched folders, least recently active first
+	private final LinkedHashMap<FolderNode, Integer> watchIds = new LinkedHashMap<FolderNode, Integer>(16, 0.75f, true); // guarded by 'this' lock
+
+	// Folders that remain to be visited in the current sweep over the tree
+	private final Deque<FolderNode> sweepStack = new ArrayDeque<FolderNode>(); // guarded by 'this' lock
+
+	private boolean disposed = false; // guarded by 'this' lock
+
+	/**
+	 * Creates a new instance that checks at most <tt>sliceSize</tt> folders
+	 * without a watch on each call of {@link #poll()}.
+	 */
+	public HybridFolderWatch(	@NotNull File rootDir,
+								@NotNull WatchBudget budget,
+								int sliceSize,
+								@NotNull ChangeListener listener) {
+		Util.checkNotNull(rootDir, budget, listener);
+		Util.checkThat(sliceSize > 0);
+		this.rootDir = rootDir.getAbsoluteFile();
+		this.budget = budget;
+		this.sliceSize = sliceSize;
+		this.listener = listener;
+	}
+
+	/**
+	 * Scans the folder tree and places watches on the folders closest to the
+	 * root, as far as the watch budget allows. This can take some time for
+	 * large folder trees.
+	 */
+	public synchronized void init() {
+		if (!disposed && root == null)
+			root = addTree(null, rootDir);
+	}
+
+	/**
+	 * Compares the last-modified values of the next slice of folders without
+	 * a watch with the values recorded earlier, and notifies the listener of
+	 * folders that have changed. Successive calls sweep over the whole tree,
+	 * and a new sweep is started if the previous one is complete, see
+	 * {@link #isSweepComplete()}. Also updates the set of known folders with
+	 * the folders that were created or deleted in watched folders. Returns
+	 * whether any changes were found by polling; changes reported by inotify
+	 * are not taken into account.
+	 * <p>
+	 * The last-modified values are read without holding the lock of the
+	 * receiver, and the listener is notified without holding it either.
+	 */
+	public boolean poll() {
+		List<FolderNode> slice = new ArrayList<FolderNode>();
+		List<File> sliceFiles = new ArrayList<File>();
+		List<Long> sliceLastModified = new ArrayList<Long>();
+		
+		synchronized (this) {
+			if (disposed)
+				return false;
+			processPendingEvents();
+			
+			// Take the next slice of folders without a watch
+			if (sweepStack.isEmpty() && root != null)
+				sweepStack.push(root);
+			while (slice.size() < sliceSize && !sweepStack.isEmpty()) {
+				FolderNode node = sweepStack.pop();
+				if (node.removed)
+					continue;
+				if (node.children != null)
+					for (FolderNode child : node.children.values())
+						sweepStack.push(child);
+				if (watchIds.containsKey(node))
+					continue;
+				slice.add(node);
+				sliceFiles.add(getFile(node));
+				sliceLastModified.add(node.lastModified);
+			}
+		}
+		
+		// Find changed folders in the slice
+		List<FolderNode> changedFolders = new ArrayList<FolderNode>();
+		for (int i = 0; i < slice.size(); i++) {
+			long lastModified = sliceFiles.get(i).lastModified();
+			if (lastModified != sliceLastModified.get(i).longValue())
+				changedFolders.add(slice.get(i));
+		}
+		if (changedFolders.isEmpty())
+			return false;
+		
+		boolean changed = false;
+		List<File> notifications = new ArrayList<File>(changedFolders.size());
+		synchronized (this) {
+			if (disposed)
+				return false;
+			for (FolderNode node : changedFolders) {
+				// Skip folders that were removed or watched in the meantime
+				if (node.removed || watchIds.containsKey(node))
+					continue;
+				changed = true;
+				File folder = getFile(node);
+				if (!folder.isDirectory()) {
+					removeTree(node);
+					notifications.add(folder);
+					continue;
+				}
+				node.lastModified = folder.lastModified();
+				updateSubFolders(node, folder);
+				notifications.add(folder);
+				
+				// Move a watch to the changed folder
+				if (!watch(node) && !watchIds.isEmpty()) {
+					Iterator<FolderNode> it = watchIds.keySet().iterator();
+					FolderNode leastActive = it.next();
+					unwatch(leastActive);
+					watch(node);
+				}
+			}
+		}
+		
+		for (File folder : notifications)
+			listener.handleFolderChange(folder);
+		return changed;
+	}
+	
+	/**
+	 * Returns whether the current sweep over the folder tree is complete, i.e.
+	 * whether the next call of {@link #poll()} will start a new sweep.
+	 */
+	public synchronized boolean isSweepComplete() {
+		return sweepStack.isEmpty();
+	}
+	
+	/**
+	 * Removes all watches of the receiver and stops it from reporting any
+	 * further changes.
+	 */
+	public synchronized void dispose() {
+		disposed = true;
+		for (FolderNode node : new ArrayList<FolderNode>(watchIds.keySet()))
+			unwatch(node);
+		root = null;
+		folderCount = 0;
+		sweepStack.clear();
+		pendingEvents.clear();
+	}
+
+	@VisibleForTesting
+	synchronized int getFolderCount() {
+		return folderCount;
+	}
+
+	@VisibleForTesting
+	synchronized int getWatchCount() {
+		return watchIds.size();
+	}
+	
+	// Processes folders created or deleted in watched folders
+	private void processPendingEvents() {
+		PendingEvent event;
+		while ((event = pendingEvents.poll()) != null) {
+			File parentFile = event.target.getParentFile();
+			FolderNode parent = parentFile == null ? null : findNode(parentFile);
+			if (parent == null)
+				continue;
+			watchIds.get(parent); // mark parent as active
+			FolderNode node = parent.getChild(event.target.getName());
+			if (event.eventType == EventType.DELETED) {
+				if (node != null)
+					removeTree(node);
+			}
+			else if (node == null && event.target.isDirectory()
+					&& !Util.isSymLink(event.target)) {
+				addTree(parent, event.target);
+			}
+		}
+	}
+	
+	// Adds new subfolders and removes deleted subfolders of the given folder
+	private void updateSubFolders(@NotNull FolderNode node, @NotNull File folder) {
+		File[] children = folder.listFiles();
+		if (children == null)
+			return;
+		Set<String> names = new HashSet<String>();
+		for (File child : children) {
+			if (!child.isDirectory() || Util.isSymLink(child))
+				continue;
+			names.add(child.getName());
+			if (node.getChild(child.getName()) == null)
+				addTree(node, child);
+		}
+		if (node.children == null)
+			return;
+		for (FolderNode child : new ArrayList<FolderNode>(node.children.values()))
+			if (!names.contains(child.name))
+				removeTree(child);
+	}
+
+	// Adds the given folder and its subfolders in breadth-first order, so that
+	// the folders closest to the root are watched first
+	@NotNull
+	private FolderNode addTree(@Nullable FolderNode parent, @NotNull File dir) {
+		FolderNode top = addFolder(parent, dir);
+		Deque<FolderNode> queue = new ArrayDeque<FolderNode>();
+		queue.add(top);
+		while (!queue.isEmpty()) {
+			FolderNode node = queue.remove();
+			File[] children = getFile(node).listFiles();
+			if (children == null)
+				continue;
+			for (File child : children)
+				if (child.isDirectory() && !Util.isSymLink(child)
+						&& node.getChild(child.getName()) == null)
+					queue.add(addFolder(node, child));
+		}
+		return top;
+	}
+	
+	@NotNull
+	private FolderNode addFolder(@Nullable FolderNode parent, @NotNull File folder) {
+		FolderNode node;
+		if (parent == null) {
+			node = new FolderNode(null, folder.getPath());
+		}
+		else {
+			node = new FolderNode(parent, TreeNode.internName(folder.getName()));
+			if (parent.children == null)
+				parent.children = new HashMap<String, FolderNode>(4);
+			parent.children.put(node.name, node);
+		}
+		node.lastModified = folder.lastModified();
+		folderCount++;
+		watch(node);
+		return node;
+	}
+
+	private void removeTree(@NotNull FolderNode top) {
+		if (top.parent != null && top.parent.children != null) {
+			top.parent.children.remove(top.name);
+			if (top.parent.children.isEmpty())
+				top.parent.children = null;
+		}
+		if (top == root)
+			root = null;
+		Deque<FolderNode> stack = new ArrayDeque<FolderNode>();
+		stack.push(top);
+		while (!stack.isEmpty()) {
+			FolderNode node = stack.pop();
+			node.removed = true;
+			folderCount--;
+			if (watchIds.containsKey(node))
+				unwatch(node);
+			if (node.children != null)
+				for (FolderNode child : node.children.values())
+					stack.push(child);
+		}
+	}
+	
+	@Nullable
+	private FolderNode findNode(@NotNull File folder) {
+		if (root == null)
+			return null;
+		String path = folder.getPath();
+		if (path.equals(root.name))
+			return root;
+		String prefix = root.name.endsWith(File.separator)
+			? root.name
+			: root.name + File.separator;
+		if (!path.startsWith(prefix))
+			return null;
+		FolderNode node = root;
+		String relativePath = path.substring(prefix.length());
+		for (String name : relativePath.split(Pattern.quote(File.separator))) {
+			node = node.getChild(name);
+			if (node == null)
+				return null;
+		}
+		return node;
+	}
+	
+	@NotNull
+	private static File getFile(@NotNull FolderNode node) {
+		if (node.parent == null)
+			return new File(node.name);
+		StringBuilder sb = new StringBuilder();
+		appendPath(sb, node);
+		return new File(sb.toString());
+	}
+	
+	private static void appendPath(@NotNull StringBuilder sb, @NotNull FolderNode node) {
+		if (node.parent == null) {
+			sb.append(node.name);
+			return;
+		}
+		appendPath(sb, node.parent);
+		if (sb.charAt(sb.length() - 1) != File.separatorChar)
+			sb.append(File.separatorChar);
+		sb.append(node.name);
+	}
+
+	// Returns false if there's no budget left for the watch
+	private boolean watch(@NotNull FolderNode node) {
+		if (watchIds.containsKey(node))
+			return true;
+		if (!budget.tryAcquire())
+			return false;
+		File folder = getFile(node);
+		try {
+			int id = new FolderListener().addWatch(folder, false);
+			watchIds.put(node, id);
+			return true;
+		}
+		catch (Exception e) {
+			/*
+			 * Either the kernel watch limit was reached because other programs
+			 * are using inotify watches as well, or the folder was deleted in
+			 * the meantime. In the first case, we'll give up on acquiring more
+			 * watches.
+			 */
+			budget.release();
+			if (folder.isDirectory())
+				budget.exhaust();
+			return false;
+		}
+	}
+
+	private void unwatch(@NotNull FolderNode node) {
+		Integer id = watchIds.remove(node);
+		if (id == null)
+			return;
+		budget.release();
+		try {
+			JNotify.removeWatch(id);
+		}
+		catch (Exception e) {
+			// Watch was removed automatically because the folder was deleted
+		}
+
+		// Changes before this point were reported by the watch
+		if (!node.removed)
+			node.lastModified = getFile(node).lastModified();
+	}
+
+	private final class FolderListener extends SimpleJNotifyListener {
+		protected void handleEvent(File targetFile, EventType eventType) {
+			if (eventType != EventType.MODIFIED)
+				pendingEvents.add(new PendingEvent(targetFile, eventType));
+			listener.handleEvent(targetFile, eventType);
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.HybridFolderWatch.ChangeListener;
+import net.sourceforge.docfetcher.model.HybridFolderWatch.WatchBudget;
+import net.sourceforge.docfetcher.model.SimpleJNotifyListener.EventType;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class HybridFolderWatchTest {
+
+	@Test
+	public void testPolling() throws Exception {
+		File rootDir = Util.createTempDir();
+		try {
+			File subDir = new File(rootDir, "a/b");
+			assertTrue(subDir.mkdirs());
+			long past = System.currentTimeMillis() - 60 * 1000;
+			for (File dir : new File[] { rootDir, subDir.getParentFile(), subDir })
+				dir.setLastModified(past);
+
+			final List<File> changes = new ArrayList<File>();
+			ChangeListener listener = new ChangeListener() {
+				public void handleEvent(File target, EventType eventType) {
+					throw new IllegalStateException();
+				}
+				public void handleFolderChange(File folder) {
+					changes.add(folder);
+				}
+			};
+
+			// Without watch budget, all folders are polled
+			HybridFolderWatch watch = new HybridFolderWatch(
+				rootDir, new WatchBudget(0), Integer.MAX_VALUE, listener);
+			watch.init();
+			assertEquals(3, watch.getFolderCount());
+			assertEquals(0, watch.getWatchCount());
+			assertFalse(watch.poll());
+			assertTrue(watch.isSweepComplete());
+
+			// New folder
+			assertTrue(new File(subDir, "c").mkdir());
+			assertTrue(watch.poll());
+			assertEquals(1, changes.size());
+			assertEquals(subDir.getAbsoluteFile(), changes.get(0));
+			assertEquals(4, watch.getFolderCount());
+			assertFalse(watch.poll());
+
+			// Deleted folders
+			changes.clear();
+			Util.deleteRecursively(subDir);
+			assertTrue(watch.poll());
+			assertEquals(2, watch.getFolderCount());
+			assertTrue(changes.contains(subDir.getParentFile().getAbsoluteFile()));
+
+			watch.dispose();
+			assertFalse(watch.poll());
+		}
+		finally {
+			Util.deleteRecursively(rootDir);
+		}
+	}
+
+	@Test
+	public void testPollingInSlices() throws Exception {
+		File rootDir = Util.createTempDir();
+		try {
+			File subDir = new File(rootDir, "a/b");
+			assertTrue(subDir.mkdirs());
+			long past = System.currentTimeMillis() - 60 * 1000;
+			for (File dir : new File[] { rootDir, subDir.getParentFile(), subDir })
+				dir.setLastModified(past);
+
+			final List<File> changes = new ArrayList<File>();
+			ChangeListener listener = new ChangeListener() {
+				public void handleEvent(File target, EventType eventType) {
+					throw new IllegalStateException();
+				}
+				public void handleFolderChange(File folder) {
+					changes.add(folder);
+				}
+			};
+
+			// One folder per poll, from the root downwards
+			HybridFolderWatch watch = new HybridFolderWatch(
+				rootDir, new WatchBudget(0), 1, listener);
+			watch.init();
+			assertTrue(new File(subDir, "c").mkdir());
+			assertFalse(watch.poll());
+			assertFalse(watch.isSweepComplete());
+			assertFalse(watch.poll());
+			assertTrue(changes.isEmpty());
+			assertTrue(watch.poll());
+			assertEquals(subDir.getAbsoluteFile(), changes.get(0));
+			assertEquals(4, watch.getFolderCount());
+			assertTrue(watch.isSweepComplete());
+			
+			// The next poll starts a new sweep
+			assertFalse(watch.poll());
+			assertFalse(watch.isSweepComplete());
+			watch.dispose();
+		}
+		finally {
+			Util.deleteRecursively(rootDir);
+		}
+	}
+
+}
@@ -11,12 +11,15 @@
 
 package net.sourceforge.docfetcher.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.nio.channels.FileLock;
 import java.util.ArrayList;
@@ -25,6 +28,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -62,6 +72,7 @@ import org.apache.lucene.analysis.standard.StandardFilter;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.util.Version;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
@@ -114,10 +125,11 @@ public final class IndexRegistry {
 
 	/*
 	 * This read-write lock is used for the index registry, the indexing queue,
-	 * the searcher and the folder watcher. With the exception of the searcher,
-	 * a read-write lock might not be the best choice for these classes in terms
-	 * of efficiency. However, by using the same lock for all classes, we can
-	 * avoid potential lock-ordering deadlocks.
+	 * the searcher and the folder watcher. A read-write lock might not be the
+	 * best choice for these classes in terms of efficiency. However, by using
+	 * the same lock for all classes, we can avoid potential lock-ordering
+	 * deadlocks. Note that searches don't acquire this lock; the searcher only
+	 * uses it for replacing its snapshot of the index readers.
 	 */
 	private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
 	private final Lock readLock = lock.readLock();
@@ -319,7 +331,7 @@ public final class IndexRegistry {
 
 	@CallOnce
 	@ThreadSafe
-	public IndexLoadingProblems load(@NotNull Cancelable cancelable) throws IOException {
+	public IndexLoadingProblems load(@NotNull final Cancelable cancelable) throws IOException {
 		/*
 		 * Note: To allow running this method in parallel with other operations,
 		 * it is important not to lock the entire method. Otherwise, if a client
@@ -332,22 +344,30 @@ public final class IndexRegistry {
 		Util.checkThat(searcher.isNull());
 
 		indexParentDir.mkdirs(); // Needed for the folder watching
-		IndexLoadingProblems loadingProblems = new IndexLoadingProblems();
+		final IndexLoadingProblems loadingProblems = new IndexLoadingProblems();
 		
+		/*
+		 * The searcher is made available before the indexes are loaded, so
+		 * that searches can run on the indexes loaded so far. The indexes are
+		 * loaded in parallel and added to the registry as they finish, see
+		 * loadIndexes.
+		 */
+		LazyList<CorruptedIndex> corruptedIndexes = new LazyList<CorruptedIndex>();
+		Searcher newSearcher = new Searcher(
+			this, fileFactory, outlookMailFactory, corruptedIndexes);
+		searcher.set(newSearcher);
+		
+		for (CorruptedIndex index : corruptedIndexes)
+			loadingProblems.addCorruptedIndex(index);
+		
+		List<File> serFiles = new ArrayList<File>();
 		for (File file : Util.listFiles(indexParentDir)) {
 			if (cancelable.isCanceled())
 				break;
 			if (file.isDirectory()) {
 				File serFile = new File(file, SER_FILENAME);
 				if (serFile.isFile()) {
-					/*
-					 * Try to load the tree-index.ser. If this fails, we're
-					 * probably dealing with a tree-index.ser from DocFetcher
-					 * 1.1 beta 1 through DocFetcher 1.1 beta 6, because the
-					 * serialization version UID was changed after 1.1 beta 6.
-					 */
-					if (!loadIndex(serFile))
-						loadingProblems.addObsoleteFile(file);
+					serFiles.add(serFile);
 				}
 				else if (!serFile.exists()) {
 					/*
@@ -369,13 +389,8 @@ public final class IndexRegistry {
 					loadingProblems.addObsoleteFile(file);
 			}
 		}
-
-		LazyList<CorruptedIndex> corruptedIndexes = new LazyList<CorruptedIndex>();
-		searcher.set(new Searcher(
-			this, fileFactory, outlookMailFactory, corruptedIndexes));
 		
-		for (CorruptedIndex index : corruptedIndexes)
-			loadingProblems.addCorruptedIndex(index);
+		loadIndexes(serFiles, newSearcher, loadingProblems, cancelable);
 
 		// Watch index directory for changes
 		try {
@@ -412,93 +427,346 @@ public final class IndexRegistry {
 	}
 
 	/**
-	 * Load the given tree index file. Returns whether the file was successfully
-	 * loaded.
+	 * Loads the given tree index files in parallel during startup, opens the
+	 * Lucene searchers of the loaded indexes and adds the indexes to the
+	 * registry as they finish loading. Problems are recorded in the given
+	 * loading problems object.
+	 */
+	private void loadIndexes(	@NotNull List<File> serFiles,
+								@NotNull final Searcher searcher,
+								@NotNull IndexLoadingProblems loadingProblems,
+								@NotNull final Cancelable cancelable) {
+		if (serFiles.isEmpty())
+			return;
+		int threadCount = Math.min(
+			ProgramConf.Int.IndexLoadingThreads.get(), serFiles.size());
+		ExecutorService loadingExecutor = Executors.newFixedThreadPool(threadCount);
+		CompletionService<LoadedIndex> completionService =
+			new ExecutorCompletionService<LoadedIndex>(loadingExecutor);
+		
+		/*
+		 * The tasks don't touch the loading problems object, which is not
+		 * thread-safe. Instead, the problems are collected from the results
+		 * of the tasks.
+		 */
+		Map<Future<LoadedIndex>, File> futures = Maps.newHashMap();
+		for (final File serFile : serFiles) {
+			Future<LoadedIndex> future = completionService.submit(new Callable<LoadedIndex>() {
+				public LoadedIndex call() {
+					if (cancelable.isCanceled())
+						return null;
+					long lastModified = serFile.lastModified();
+					LuceneIndex index = readIndex(serFile);
+					if (index == null)
+						return null;
+					LoadedIndex loadedIndex = new LoadedIndex(serFile, index, lastModified);
+					try {
+						searcher.openIndex(index);
+					}
+					catch (IOException e) {
+						Util.printErr(e);
+						loadedIndex.corruptedIndex = new CorruptedIndex(index, e);
+					}
+					return loadedIndex;
+				}
+			});
+			futures.put(future, serFile);
+		}
+		
+		try {
+			int remaining = futures.size();
+			while (remaining > 0) {
+				/*
+				 * Indexes that finished loading at about the same time are
+				 * added in one batch, so that the searcher doesn't have to be
+				 * replaced for each of them.
+				 */
+				List<LoadedIndex> batch = new ArrayList<LoadedIndex>();
+				Future<LoadedIndex> future = completionService.take();
+				do {
+					remaining--;
+					LoadedIndex loadedIndex = future.get();
+					/*
+					 * If loading the tree-index.ser failed, we're probably
+					 * dealing with a tree-index.ser from DocFetcher 1.1 beta 1
+					 * through DocFetcher 1.1 beta 6, because the serialization
+					 * version UID was changed after 1.1 beta 6.
+					 */
+					if (loadedIndex == null) {
+						if (!cancelable.isCanceled())
+							loadingProblems.addObsoleteFile(Util.getParentFile(futures.get(future)));
+					}
+					else {
+						if (loadedIndex.corruptedIndex != null)
+							loadingProblems.addCorruptedIndex(loadedIndex.corruptedIndex);
+						batch.add(loadedIndex);
+					}
+					future = remaining > 0 ? completionService.poll() : null;
+				}
+				while (future != null);
+				addIndexes(batch, searcher);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			Util.printErr(e);
+		}
+		finally {
+			loadingExecutor.shutdownNow();
+		}
+	}
+	
+	/*
+	 * Adds the given loaded indexes to the registry and replaces the Lucene
+	 * searcher of the given searcher once for all of them.
+	 */
+	private void addIndexes(@NotNull List<LoadedIndex> loadedIndexes,
+							@NotNull Searcher searcher) {
+		if (loadedIndexes.isEmpty())
+			return;
+		List<LuceneIndex> added = new ArrayList<LuceneIndex>(loadedIndexes.size());
+		writeLock.lock();
+		try {
+			for (LoadedIndex loaded : loadedIndexes) {
+				if (indexes.containsKey(loaded.index))
+					continue;
+				indexes.put(loaded.index, loaded.lastModified);
+				added.add(loaded.index);
+			}
+			searcher.replaceLuceneSearcher();
+		}
+		finally {
+			writeLock.unlock();
+		}
+		for (LuceneIndex index : added)
+			evtAdded.fire(index);
+	}
+
+	/**
+	 * Deserializes the given tree index file. Returns null if the file could
+	 * not be loaded.
 	 */
+	@Nullable
 	@ThreadSafe
-	private boolean loadIndex(@NotNull File serFile) {
+	private static LuceneIndex readIndex(@NotNull File serFile) {
 		ObjectInputStream in = null;
 		try {
 			FileInputStream fin = new FileInputStream(serFile);
 			FileLock lock = fin.getChannel().lock(0, Long.MAX_VALUE, true);
 			LuceneIndex index;
 			try {
-				in = new ObjectInputStream(fin);
+				in = new ObjectInputStream(new BufferedInputStream(fin));
 				index = (LuceneIndex) in.readObject();
 			}
 			finally {
 				lock.release();
 			}
-			addIndex(index, serFile.lastModified());
-			return true;
+			index.markSaved(index.getModCount());
+			return index;
 		}
 		catch (Exception e) {
-			return false;
+			return null;
 		}
 		finally {
 			Closeables.closeQuietly(in);
 		}
 	}
 
+	/**
+	 * Brings the registry in sync with the index folders on disk after other
+	 * processes have added, modified or removed indexes. The ser files of new
+	 * and modified indexes are deserialized in parallel without holding the
+	 * lock. Afterwards, all changes are applied to the registry in one atomic
+	 * operation, followed by a single update of the searcher.
+	 */
 	private void reload() {
+		Map<LuceneIndex, Long> oldIndexes;
+		readLock.lock();
+		try {
+			oldIndexes = Maps.newHashMap(indexes);
+		}
+		finally {
+			readLock.unlock();
+		}
+		
+		Map<File, LuceneIndex> indexDirMap = Maps.newHashMap();
+		for (LuceneIndex index : oldIndexes.keySet())
+			indexDirMap.put(index.getIndexDirPath().getCanonicalFile(), index);
+		
+		// Find new and modified indexes
+		List<File> serFiles = new ArrayList<File>();
+		Map<File, LuceneIndex> modifiedIndexes = Maps.newHashMap();
+		for (File indexDir : Util.listFiles(indexParentDir)) {
+			if (!indexDir.isDirectory())
+				continue;
+			File serFile = new File(indexDir, SER_FILENAME);
+			if (!serFile.isFile())
+				continue;
+			
+			LuceneIndex index = indexDirMap.remove(Util.getAbsFile(indexDir));
+			if (index == null) {
+				serFiles.add(serFile);
+			}
+			else {
+				Long oldLM = oldIndexes.get(index);
+				if (oldLM != null && oldLM.longValue() != serFile.lastModified()) {
+					serFiles.add(serFile);
+					modifiedIndexes.put(serFile, index);
+				}
+			}
+		}
+		Collection<LuceneIndex> missingIndexes = indexDirMap.values();
+		if (serFiles.isEmpty() && missingIndexes.isEmpty())
+			return;
+		
+		List<LoadedIndex> loadedIndexes = readIndexes(serFiles);
+		
+		List<LuceneIndex> removed = new ArrayList<LuceneIndex>();
+		List<LuceneIndex> added = new ArrayList<LuceneIndex>();
 		writeLock.lock();
 		try {
-			Map<File, LuceneIndex> indexDirMap = Maps.newHashMap();
-			for (LuceneIndex index : indexes.keySet())
-				indexDirMap.put(index.getIndexDirPath().getCanonicalFile(), index);
-
-			/*
-			 * The code below is pretty inefficient if many indexes are added,
-			 * modified and/or removed. However, we can assume that these operations
-			 * are usually performed one index at a time, so the inefficiency
-			 * doesn't really matter.
-			 */
-
-			for (File indexDir : Util.listFiles(indexParentDir)) {
-				if (!indexDir.isDirectory())
-					continue;
-				File serFile = new File(indexDir, SER_FILENAME);
-				if (!serFile.isFile())
+			for (LuceneIndex index : missingIndexes) {
+				if (!indexes.containsKey(index))
 					continue;
-
-				LuceneIndex index = indexDirMap.remove(Util.getAbsFile(indexDir));
-
-				// New index found
-				if (index == null) {
-					loadIndex(serFile);
+				indexes.remove(index);
+				removed.add(index);
+			}
+			for (LoadedIndex loaded : loadedIndexes) {
+				LuceneIndex oldIndex = modifiedIndexes.get(loaded.serFile);
+				if (oldIndex != null) {
+					/*
+					 * Skip the index if it was removed or saved by this
+					 * program in the meantime. Otherwise, replace the old
+					 * version of the index with the new one. Let's just hope
+					 * the old version isn't in the queue right now.
+					 */
+					if (!indexes.containsKey(oldIndex))
+						continue;
+					Long currentLM = indexes.get(oldIndex);
+					if (!Objects.equal(currentLM, oldIndexes.get(oldIndex)))
+						continue;
+					indexes.remove(oldIndex);
+					removed.add(oldIndex);
 				}
-				// Existing index; may have been modified
-				else {
-					Long oldLM = indexes.get(index);
-					long newLM = serFile.lastModified();
-					if (oldLM != null && oldLM.longValue() != newLM) {
-						/*
-						 * Remove the old version of the index and add the new
-						 * version. Let's just hope it isn't in the queue or being
-						 * searched in right now.
-						 */
-						removeIndexes(Collections.singletonList(index), false);
-						loadIndex(serFile);
-					}
+				else if (indexes.containsKey(loaded.index)) {
+					continue;
 				}
+				indexes.put(loaded.index, loaded.lastModified);
+				added.add(loaded.index);
 			}
-
-			// Handle missing indexes
-			removeIndexes(indexDirMap.values(), false);
+			
+			/*
+			 * Updating the searcher here, rather than letting it react to
+			 * each of the events below, avoids replacing the Lucene searcher
+			 * once for every added index.
+			 */
+			if (!removed.isEmpty() || !added.isEmpty())
+				searcher.get().replaceLuceneSearcher();
 		}
 		finally {
 			writeLock.unlock();
 		}
+		
+		if (!removed.isEmpty())
+			evtRemoved.fire(removed);
+		for (LuceneIndex index : added)
+			evtAdded.fire(index);
+	}
+	
+	private static final class LoadedIndex {
+		private final File serFile;
+		private final LuceneIndex index;
+		private final long lastModified;
+		
+		// Only set during startup, if the Lucene searcher couldn't be opened
+		@Nullable private CorruptedIndex corruptedIndex;
+		
+		private LoadedIndex(@NotNull File serFile,
+		                    @NotNull LuceneIndex index,
+		                    long lastModified) {
+			this.serFile = serFile;
+			this.index = index;
+			this.lastModified = lastModified;
+		}
+	}
+	
+	/**
+	 * Deserializes the given tree index files in parallel. Files that could
+	 * not be loaded are omitted from the returned list.
+	 */
+	@NotNull
+	@ThreadSafe
+	private static List<LoadedIndex> readIndexes(@NotNull List<File> serFiles) {
+		List<LoadedIndex> loadedIndexes = new ArrayList<LoadedIndex>(serFiles.size());
+		if (serFiles.isEmpty())
+			return loadedIndexes;
+		
+		List<Callable<LoadedIndex>> tasks = new ArrayList<Callable<LoadedIndex>>(serFiles.size());
+		for (final File serFile : serFiles) {
+			tasks.add(new Callable<LoadedIndex>() {
+				public LoadedIndex call() {
+					long lastModified = serFile.lastModified();
+					LuceneIndex index = readIndex(serFile);
+					if (index == null)
+						return null;
+					return new LoadedIndex(serFile, index, lastModified);
+				}
+			});
+		}
+		
+		int threadCount = Math.min(
+			ProgramConf.Int.IndexLoadingThreads.get(), serFiles.size());
+		ExecutorService loadingExecutor = Executors.newFixedThreadPool(threadCount);
+		try {
+			for (Future<LoadedIndex> future : loadingExecutor.invokeAll(tasks)) {
+				LoadedIndex loadedIndex = future.get();
+				if (loadedIndex != null)
+					loadedIndexes.add(loadedIndex);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			Util.printErr(e);
+		}
+		finally {
+			loadingExecutor.shutdownNow();
+		}
+		return loadedIndexes;
 	}
 
+	/**
+	 * Saves the tree of the given index to disk, unless the index is no longer
+	 * in the registry or has no unsaved changes.
+	 * <p>
+	 * The tree is written to a temporary file, which then replaces the old ser
+	 * file, so that other processes never see a partially written file. This
+	 * is done while holding only the read lock, so that searches can proceed.
+	 * The structure of the trees is only modified by the indexing queue's
+	 * worker thread, which is also the thread that calls this method. Other
+	 * threads may concurrently change check states and indexing configs, e.g.
+	 * the GUI thread. Such changes may or may not be written, but since the
+	 * modification counter of the index is read before writing, they leave
+	 * the index marked as unsaved, so that it is saved again later. The
+	 * caller must not hold the read lock, but may hold the write lock.
+	 */
 	@VisibleForPackageGroup
 	public void save(@NotNull LuceneIndex index) {
 		Util.checkNotNull(index);
-		writeLock.lock();
+		File serFile;
+		readLock.lock();
 		try {
+			if (!indexes.containsKey(index))
+				return;
+			if (indexes.get(index) != null && !index.hasUnsavedChanges())
+				return;
+			
 			File indexDir = index.getIndexDirPath().getCanonicalFile();
 			indexDir.mkdirs();
-			File serFile = new File(indexDir, SER_FILENAME);
+			serFile = new File(indexDir, SER_FILENAME);
 
 			/*
 			 * DocFetcher might have been burned onto a CD-ROM; if so, then just
@@ -507,34 +775,86 @@ public final class IndexRegistry {
 			if (serFile.exists() && !serFile.canWrite())
 				return;
 
+			long modCount = index.getModCount();
+			File tempFile = new File(indexDir, SER_FILENAME + ".tmp");
 			ObjectOutputStream out = null;
 			try {
-				serFile.createNewFile();
-				FileOutputStream fout = new FileOutputStream(serFile);
-				FileLock lock = fout.getChannel().lock();
-				try {
-					out = new ObjectOutputStream(fout);
-					out.writeObject(index);
-				}
-				finally {
-					lock.release();
-				}
+				out = new ObjectOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tempFile)));
+				out.writeObject(index);
+				out.close();
+				replaceFile(tempFile, serFile);
+				index.markSaved(modCount);
 			}
 			catch (IOException e) {
 				Util.printErr(e); // The average user doesn't need to know
+				tempFile.delete();
 			}
 			finally {
 				Closeables.closeQuietly(out);
 			}
+		}
+		finally {
+			readLock.unlock();
+		}
 
-			// Update cached last-modified value of index
-			indexes.put(index, serFile.lastModified());
+		// Update cached last-modified value of index
+		writeLock.lock();
+		try {
+			if (indexes.containsKey(index))
+				indexes.put(index, serFile.lastModified());
 		}
 		finally {
 			writeLock.unlock();
 		}
 	}
 
+	/**
+	 * Replaces the given ser file with the given temporary file. The ser file
+	 * is locked while it is replaced, so that other processes reading it with
+	 * a shared lock can finish first. If the replacement fails, the old ser
+	 * file is kept.
+	 */
+	private static void replaceFile(@NotNull File tempFile,
+									@NotNull File serFile)
+			throws IOException {
+		if (serFile.exists()) {
+			RandomAccessFile raf = new RandomAccessFile(serFile, "rw");
+			try {
+				FileLock lock = raf.getChannel().lock();
+				try {
+					if (tempFile.renameTo(serFile))
+						return;
+				}
+				finally {
+					lock.release();
+				}
+			}
+			finally {
+				Closeables.closeQuietly(raf);
+			}
+		}
+		else if (tempFile.renameTo(serFile)) {
+			return;
+		}
+		
+		/*
+		 * On Windows, renaming fails if the target file exists or is open, so
+		 * we have to fall back to a non-atomic replacement. The old ser file is
+		 * moved aside rather than deleted, and restored if the temporary file
+		 * can't be renamed.
+		 */
+		File oldFile = new File(serFile.getPath() + ".old");
+		oldFile.delete();
+		if (serFile.exists() && !serFile.renameTo(oldFile))
+			throw new IOException("Failed to rename " + serFile);
+		if (!tempFile.renameTo(serFile)) {
+			oldFile.renameTo(serFile);
+			throw new IOException("Failed to rename " + tempFile);
+		}
+		oldFile.delete();
+	}
+
 	@NotNull
 	@ThreadSafe
 	public TreeCheckState getTreeCheckState() {
@@ -34,6 +34,13 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	
 	public static final Event<LuceneIndex> evtWatchFoldersChanged = new Event<LuceneIndex>();
 	
+	/**
+	 * Fired after the folder tree of a deserialized index has been loaded,
+	 * which happens on the first call to {@link #getRootFolder()}. The event
+	 * is fired on the thread that called {@link #getRootFolder()}.
+	 */
+	public static final Event<LuceneIndex> evtTreeLoaded = new Event<LuceneIndex>();
+	
 	/**
 	 * Returns the directory where the Lucene index files are kept. Returns null
 	 * if the Lucene index was created in memory.
@@ -50,6 +57,13 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	@NotNull
 	public Folder<?, ?> getRootFolder();
 	
+	/**
+	 * Returns whether the folder tree of the receiver is in memory. If not,
+	 * the next call to {@link #getRootFolder()} will load it, which may take a
+	 * while for large trees.
+	 */
+	public boolean isTreeLoaded();
+	
 	/**
 	 * Returns the file or directory containing the user's files (i.e. the
 	 * document repository that was indexed), in canonical form.
@@ -57,6 +71,13 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	@NotNull
 	public File getCanonicalRootFile();
 	
+	/**
+	 * Returns the path of the root folder. Unlike {@link #getRootFolder()},
+	 * this doesn't load the folder tree.
+	 */
+	@NotNull
+	public Path getRootPath();
+	
 	@NotNull
 	public IndexingResult update(	@Nullable IndexingReporter reporter,
 	                             	@Nullable Cancelable cancelable);
@@ -73,6 +94,13 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	
 	public void delete();
 	
+	/**
+	 * Sets the check state of the root folder and all its subfolders. Unlike
+	 * calling {@link #setChecked(boolean)} on all folders, this doesn't load
+	 * the folder tree.
+	 */
+	public void setCheckedDeep(boolean isChecked);
+	
 	@NotNull
 	public TreeCheckState getTreeCheckState();
 	
@@ -85,4 +113,21 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	
 	public long getCreated();
 	
+	/**
+	 * Returns a value that increases whenever the receiver is modified.
+	 */
+	public long getModCount();
+	
+	/**
+	 * Returns whether the receiver has been modified since it was last saved
+	 * or loaded.
+	 */
+	public boolean hasUnsavedChanges();
+	
+	/**
+	 * Marks the receiver as saved. The given value must be the value of
+	 * {@link #getModCount()} before the receiver was saved or loaded.
+	 */
+	public void markSaved(long modCount);
+	
 }
@@ -81,6 +81,12 @@ public final class Path implements Serializable {
 		this.name = getDisplayName(canonicalFile);
 	}
 	
+	// For paths with a single path part appended to an already normalized path
+	private Path(@NotNull String path, @NotNull String name) {
+		this.path = path;
+		this.name = name;
+	}
+	
 	@NotNull
 	@SuppressAjWarnings
 	private static String getDisplayName(@NotNull File canonicalFile) {
@@ -118,9 +124,60 @@ public final class Path implements Serializable {
 		return new File(path).isAbsolute();
 	}
 	
+	/**
+	 * Returns a new path consisting of the receiver and the given path part.
+	 * This is frequently called on the paths of tree nodes, so there's a fast
+	 * path for the common case that the given path part is a single file
+	 * name: The new path string is derived from the receiver's already
+	 * normalized path string, and the canonical file is only computed on
+	 * demand.
+	 */
 	@NotNull
 	public Path createSubPath(@NotNull String pathPart) {
-		return new Path(Util.joinPath(path, pathPart));
+		StringBuilder sb = new StringBuilder(path.length() + pathPart.length() + 1);
+		sb.append(path);
+		appendPathPart(sb, 0, pathPart);
+		return createSubPath(sb.toString(), pathPart);
+	}
+	
+	/**
+	 * Returns a new path for the given path string, which must have been
+	 * built with {@link #appendPathPart(StringBuilder, int, String)}, the
+	 * given path part being the last one appended.
+	 */
+	@NotNull
+	static Path createSubPath(@NotNull String path, @NotNull String lastPathPart) {
+		if (!isFileName(lastPathPart))
+			return new Path(path);
+		String name = Util.IS_MAC_OS_X
+			? normalizeUnicode(lastPathPart, false)
+			: normalizeUnicode(lastPathPart, true);
+		return new Path(path, name);
+	}
+	
+	/**
+	 * Appends the given path part to the normalized path string that the
+	 * given string builder holds from the given start index on. This allows
+	 * building the paths of tree nodes from the names of their ancestors in a
+	 * single string builder, without creating a path object for each ancestor.
+	 */
+	static void appendPathPart(	@NotNull StringBuilder sb,
+								int start,
+								@NotNull String pathPart) {
+		if (isFileName(pathPart) && sb.length() > start
+				&& !Util.fileSepMatcher.matches(sb.charAt(sb.length() - 1))) {
+			sb.append('/').append(normalizeUnicode(pathPart, true));
+		}
+		else {
+			String path = normalizePath(Util.joinPath(sb.substring(start), pathPart));
+			sb.setLength(start);
+			sb.append(path);
+		}
+	}
+	
+	private static boolean isFileName(@NotNull String pathPart) {
+		return !pathPart.isEmpty()
+				&& Util.fileSepMatcher.matchesNoneOf(pathPart);
 	}
 	
 	public boolean contains(@NotNull Path subPath) {
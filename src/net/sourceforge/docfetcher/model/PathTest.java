@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.sourceforge.docfetcher.model.Path.PathParts;
+import net.sourceforge.docfetcher.util.Util;
 
 import org.junit.Test;
 
@@ -42,6 +43,33 @@ public final class PathTest {
 		}
 	}
 	
+	@Test
+	public void testCreateSubPath() {
+		String[][] samples = {
+			{ "path/to", "file" },
+			{ "/path/to", "file.txt" },
+			{ "path/to/", "file" },
+			{ "", "file" },
+			{ "path", "sub/file" },
+			{ "path", "/file/" },
+			{ "path", "Fu\u0308\u00df.txt" }, // decomposed umlaut
+		};
+		for (String[] sample : samples) {
+			Path parent = new Path(sample[0]);
+			Path expected = new Path(Util.joinPath(parent.getPath(), sample[1]));
+			Path actual = parent.createSubPath(sample[1]);
+			assertEquals(expected, actual);
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getCanonicalFile(), actual.getCanonicalFile());
+			
+			// Same path when appended after a prefix, as in unique IDs
+			StringBuilder sb = new StringBuilder("file://");
+			sb.append(parent.getPath());
+			Path.appendPathPart(sb, 7, sample[1]);
+			assertEquals("file://" + expected.getPath(), sb.toString());
+		}
+	}
+	
 	private static void add(List<Sample> samples, String input, String... expectedOutput) {
 		Sample sample = new Sample();
 		sample.input = input;
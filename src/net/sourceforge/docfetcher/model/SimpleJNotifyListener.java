@@ -64,9 +64,20 @@ abstract class SimpleJNotifyListener {
 	
 	@CallOnce
 	public final int addWatch(@NotNull File watchFile) throws JNotifyException {
+		return addWatch(watchFile, true);
+	}
+	
+	/**
+	 * Adds a watch on the given file. If <tt>watchSubtree</tt> is false, only
+	 * the direct children of the given folder are watched, which on Linux
+	 * takes a single inotify watch instead of one watch per subfolder.
+	 */
+	@CallOnce
+	public final int addWatch(@NotNull File watchFile, boolean watchSubtree)
+			throws JNotifyException {
 		Util.checkNotNull(listener, watchFile);
 		String absPath = Util.getSystemAbsPath(watchFile);
-		int id = JNotify.addWatch(absPath, JNotify.FILE_ANY, true, listener);
+		int id = JNotify.addWatch(absPath, JNotify.FILE_ANY, watchSubtree, listener);
 		listener = null; // ensure this method can only be called once
 		return id;
 	}
@@ -11,211 +11,77 @@
 
 package net.sourceforge.docfetcher.model;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.NoSuchElementException;
+import java.util.List;
 import java.util.Set;
 
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 
 /**
+ * A snapshot of the check states of the folders in one or more folder trees.
+ * Only the root paths and the paths of the unchecked folders are stored, since
+ * usually most folders are checked. The unchecked folders are tracked by the
+ * root folders as the check states change, so creating a snapshot doesn't
+ * require traversing the trees, see {@link Folder#getTreeCheckState()}.
+ *
  * @author Tran Nam Quang
  */
 public final class TreeCheckState {
 	
-	/*
-	 * TODO post-release-1.1: Check for multi-threading issues in this class,
-	 * especially check-then-act operations on Folder objects and the likes.
-	 */
-	
-	private final Set<FolderWrapper> checkedSet = new HashSet<FolderWrapper>();
-	private int folderCount = 0; // includes unchecked and checked folders
+	private final List<String> rootPaths = new ArrayList<String>(1);
+	private final Set<String> uncheckedPaths = new HashSet<String>();
 	
-	void add(@NotNull Folder<?, ?> folder, boolean isChecked) {
-		Util.checkNotNull(folder);
-		if (isChecked)
-			checkedSet.add(new FolderWrapper(folder));
-		folderCount++;
+	/**
+	 * Adds a tree with the given root path and the given unchecked folders.
+	 */
+	void addTree(@NotNull Path rootPath, @NotNull Collection<Path> uncheckedFolders) {
+		Util.checkNotNull(rootPath, uncheckedFolders);
+		rootPaths.add(rootPath.getPath());
+		for (Path path : uncheckedFolders)
+			uncheckedPaths.add(path.getPath());
 	}
 	
 	void add(@NotNull TreeCheckState other) {
 		Util.checkNotNull(other);
-		checkedSet.addAll(other.checkedSet);
-		folderCount += other.folderCount;
-	}
-	
-	public boolean isChecked(@NotNull Path path) {
-		Util.checkNotNull(path);
-		if (checkedSet.isEmpty())
-			return false;
-		if (folderCount == checkedSet.size())
-			return true;
-		return checkedSet.contains(new PathWrapper(path));
+		rootPaths.addAll(other.rootPaths);
+		uncheckedPaths.addAll(other.uncheckedPaths);
 	}
 	
-	private static final class PathWrapper {
-		private final Path path;
-
-		public PathWrapper(@NotNull Path path) {
-			this.path = path;
-		}
-		
-		public boolean equals(Object obj) {
-			/*
-			 * The hash map implementation will call this equals method rather
-			 * than the one on the FolderWrapper, so we'll override this equal
-			 * method and redirect to the equals method of the FolderWrapper.
-			 */
-			return ((FolderWrapper) obj).equals(this);
-		}
-		
-		public int hashCode() {
-			return path.getPath().hashCode();
-		}
-	}
-	
-	private static final class FolderWrapper {
-		private final Folder<?, ?> folder;
-
-		private FolderWrapper(@NotNull Folder<?, ?> folder) {
-			this.folder = folder;
-		}
-		
-		public boolean equals(Object obj) {
-			/*
-			 * This equals method is called either as a result of adding
-			 * FolderWrapper instances to the checked set, or as a result of
-			 * determining whether the checked set "contains" a particular
-			 * PathWrapper.
-			 */
-			if (obj instanceof FolderWrapper) {
-				FolderWrapper other = (FolderWrapper) obj;
-				return folder.equals(other.folder);
-			}
-			
-			String targetPath = ((PathWrapper) obj).path.getPath();
-			if (targetPath.length() != getPathLength(folder))
-				return false;
-			PathReverseIterator it1 = new PathReverseIterator(folder);
-			StringReverseIterator it2 = new StringReverseIterator(targetPath);
-			while (true) {
-				if (it1.hasNext()) {
-					if (it2.hasNext()) {
-						if (it1.next() != it2.next())
-							return false;
-					}
-					else {
-						return false;
-					}
-				}
-				else {
-					if (it2.hasNext())
-						return false;
-					else
-						break;
-				}
-			}
-			return true;
-		}
-		
-		/*
-		 * TODO post-release-1.1: Compute and store the path length as an int
-		 * field in Folder during indexing, instead of computing it here.
-		 */
-		private int getPathLength(@NotNull Folder<?, ?> folder) {
-			int count = 0;
-			Folder<?, ?> current = folder;
-			while (true) {
-				Folder<?, ?> parent = current.getParent();
-				if (parent == null) {
-					count += current.getPath().getPath().length();
-					break;
-				}
-				count += current.getName().length() + 1; // +1 for path separator
-				current = parent;
-			}
-			return count;
-		}
-		
-		public int hashCode() {
-			return folder.getPathHashCode();
-		}
+	/**
+	 * Returns whether all folders added to the receiver are checked.
+	 */
+	boolean isAllChecked() {
+		return uncheckedPaths.isEmpty();
 	}
 	
-	private static final class PathReverseIterator {
-		private enum State {
-			PART, SEP, END
-		}
-		
-		private final StringReverseIterator it = new StringReverseIterator();
-		private Folder<?, ?> currentFolder;
-		private State state = State.PART;
-
-		public PathReverseIterator(@NotNull Folder<?, ?> folder) {
-			setCurrentFolder(folder);
-			assert it.hasNext();
-		}
-		
-		public char next() {
-			if (state == State.PART) {
-				char r = it.next();
-				if (!it.hasNext()) {
-					Folder<?, ?> parent = currentFolder.getParent();
-					if (parent == null) {
-						state = State.END;
-					}
-					else {
-						state = State.SEP;
-						setCurrentFolder(parent);
-					}
-				}
-				return r;
-			}
-			else if (state == State.SEP) {
-				state = State.PART;
-				return '/';
-			}
-			throw new NoSuchElementException();
-		}
-		
-		public boolean hasNext() {
-			return state != State.END;
-		}
-		
-		private void setCurrentFolder(@NotNull Folder<?, ?> currentFolder) {
-			this.currentFolder = currentFolder;
-			if (currentFolder.getParent() == null)
-				it.setString(currentFolder.getPath().getPath());
-			else
-				it.setString(currentFolder.getName());
-		}
+	/**
+	 * Returns the number of unchecked folders added to the receiver.
+	 */
+	int getUncheckedCount() {
+		return uncheckedPaths.size();
 	}
 	
-	private static final class StringReverseIterator {
-		private String string;
-		private int i = -1;
-		
-		public StringReverseIterator() {
-		}
-		
-		public StringReverseIterator(@NotNull String string) {
-			setString(string);
-		}
-		
-		public void setString(@NotNull String string) {
-			this.string = string;
-			i = string.length() - 1;
-		}
-		
-		public char next() {
-			if (i < 0)
-				throw new NoSuchElementException();
-			return string.charAt(i--);
-		}
-		
-		public boolean hasNext() {
-			return i >= 0;
-		}
+	/**
+	 * Returns whether the folder with the given path is checked. Paths outside
+	 * of the added trees are considered unchecked.
+	 */
+	public boolean isChecked(@NotNull Path path) {
+		Util.checkNotNull(path);
+		String pathString = path.getPath();
+		if (uncheckedPaths.contains(pathString))
+			return false;
+		for (String rootPath : rootPaths) {
+			if (!pathString.startsWith(rootPath))
+				continue;
+			if (pathString.length() == rootPath.length()
+					|| rootPath.isEmpty() || rootPath.endsWith("/")
+					|| pathString.charAt(rootPath.length()) == '/')
+				return true;
+		}
+		return false;
 	}
 
 }
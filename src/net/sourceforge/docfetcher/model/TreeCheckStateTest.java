@@ -12,6 +12,8 @@
 package net.sourceforge.docfetcher.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.List;
@@ -44,5 +46,35 @@ public final class TreeCheckStateTest {
 			assertEquals(f.isChecked(), actualOutput);
 		}
 	}
+	
+	@Test
+	public void testIncrementalUpdate() {
+		FileFolder root = new FileFolder(new Path("Root"), null);
+		FileFolder f1 = new FileFolder(root, "Folder1", null);
+		FileFolder sf = new FileFolder(f1, "SubFolder", null);
+		
+		assertTrue(root.getTreeCheckState().isChecked(sf.getPath()));
+		
+		sf.setChecked(false);
+		assertFalse(root.getTreeCheckState().isChecked(sf.getPath()));
+		assertTrue(root.getTreeCheckState().isChecked(f1.getPath()));
+		
+		sf.setChecked(true);
+		assertTrue(root.getTreeCheckState().isChecked(sf.getPath()));
+		
+		// Unchecked folders moved into the tree
+		FileFolder other = new FileFolder(new Path("Other"), null);
+		FileFolder moved = new FileFolder(other, "Moved", null);
+		FileFolder movedSub = new FileFolder(moved, "Sub", null);
+		movedSub.setChecked(false);
+		f1.putSubFolder(moved);
+		assertFalse(root.getTreeCheckState().isChecked(movedSub.getPath()));
+		
+		// Unchecked folders removed from the tree
+		f1.removeSubFolder(moved);
+		assertTrue(root.getTreeCheckState().isAllChecked());
+		
+		assertFalse(root.getTreeCheckState().isChecked(new Path("Root2/Folder1")));
+	}
 
 }
@@ -11,9 +11,21 @@
 
 package net.sourceforge.docfetcher.model;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
@@ -28,6 +40,8 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
 
+import com.google.common.io.Closeables;
+
 @VisibleForPackageGroup
 public abstract class TreeIndex <
 	D extends Document<D, F>,
@@ -45,15 +59,72 @@ public abstract class TreeIndex <
 	 * non-normalized file paths.
 	 */
 	
+	/*
+	 * Since the tree of an index can be very large, it is serialized as a
+	 * separate sequence of data chunks, preceded by a small header containing
+	 * the root path, display name and check states, and followed by a
+	 * checksum of the tree data. The tree is streamed into the chunks rather
+	 * than into a byte array, so that saving the tree doesn't require a copy
+	 * of the serialized tree in memory. After deserialization, only the header
+	 * and the tree data are available, and the tree is deserialized on the
+	 * first call to getRootFolder(), i.e. on the first index update or tree
+	 * expansion. This way, the indexes can be loaded and searched at program
+	 * startup without waiting for the trees. Check state changes and clearing
+	 * the index don't require the tree either, and an unloaded tree is saved
+	 * by writing back its tree data as is. See writeObject and readObject.
+	 * 
+	 * A loaded tree is always saved as a whole. Writing only the modified
+	 * subtrees or a log of the modifications would require a serialization
+	 * format in which each tree modification can be recorded and replayed on
+	 * its own, which the Java serialization of the folder and document classes
+	 * doesn't provide. Instead, saving is skipped for unmodified trees (see
+	 * getModCount()), and trees are saved without holding the registry's write
+	 * lock.
+	 */
+	
+	// Size of the data chunks the tree is serialized into
+	private static final int TREE_CHUNK_SIZE = 64 * 1024;
+	
 	private static final long serialVersionUID = 1L;
 	
-	private final IndexingConfig config;
-	private final F rootFolder;
-	private final long created;
-	@Nullable private final Path fileIndexDirPath;
+	// The fields below are only non-final because of readObject
+	private IndexingConfig config;
+	@Nullable private volatile F rootFolder; // null while the tree hasn't been loaded yet
+	private long created;
+	@Nullable private Path fileIndexDirPath;
+	
+	/*
+	 * Header of the serialized tree; only used while the tree hasn't been
+	 * loaded. The check states are guarded by the 'this' lock. If
+	 * subFoldersChecked is not null, it overrides the check states of all
+	 * subfolders in the tree data, and if rootChecked differs from the check
+	 * state of the root folder in the tree data, it overrides the latter. This
+	 * allows changing the check states without loading the tree.
+	 */
+	@Nullable private transient Path rootPath;
+	@Nullable private transient String rootDisplayName;
+	private transient boolean rootChecked;
+	@Nullable private transient Boolean subFoldersChecked;
+	@Nullable private transient byte[] treeData;
+	
 	@Nullable private transient RAMDirectory ramIndexDir;
 	@Nullable private transient File indexParentDir;
 	
+	/*
+	 * Counts the modifications of the tree and of the tree header. It's shared
+	 * with the root folder, which increments it on behalf of all nodes in the
+	 * tree. Modifications of the config are counted by the config itself. See
+	 * getModCount().
+	 */
+	@NotNull private transient AtomicLong modCount = new AtomicLong();
+	
+	/**
+	 * The value of {@link #getModCount()} at the time the receiver was last
+	 * saved or loaded. Will be zero after deserialization, see
+	 * {@link #markSaved(long)}.
+	 */
+	private transient volatile long savedModCount = -1;
+	
 	// if indexDir is null, all content is written to a RAM index, which
 	// can be retrieved via getLuceneDir
 	protected TreeIndex(@Nullable File indexParentDir,
@@ -65,9 +136,10 @@ public abstract class TreeIndex <
 		this.config = new IndexingConfig() {
 			@Override
 			protected void onStoreRelativePathsChanged() {
-				File oldFile = rootFolder.getPath().getCanonicalFile();
+				F root = getRootFolder();
+				File oldFile = root.getPath().getCanonicalFile();
 				Path newPath = config.getStorablePath(oldFile);
-				rootFolder.setPath(newPath);
+				root.setPath(newPath);
 			}
 			protected void onWatchFoldersChanged() {
 				LuceneIndex.evtWatchFoldersChanged.fire(TreeIndex.this);
@@ -79,6 +151,7 @@ public abstract class TreeIndex <
 		Path newPath = config.getStorablePath(rootFile);
 		rootFolder = createRootFolder(newPath);
 		Util.checkNotNull(rootFolder);
+		rootFolder.setModCount(modCount);
 		
 		// Create index directory or RAM directory
 		created = Util.getTimestamp();
@@ -102,7 +175,13 @@ public abstract class TreeIndex <
 	
 	@NotNull
 	public final File getCanonicalRootFile() {
-		return rootFolder.getPath().getCanonicalFile();
+		return getRootPath().getCanonicalFile();
+	}
+	
+	@NotNull
+	public final Path getRootPath() {
+		F root = rootFolder;
+		return root == null ? rootPath : root.getPath();
 	}
 	
 	@NotNull
@@ -165,17 +244,182 @@ public abstract class TreeIndex <
 	
 	@NotNull
 	public final F getRootFolder() {
-		return rootFolder;
+		F root = rootFolder;
+		if (root != null)
+			return root;
+		synchronized (this) {
+			if (rootFolder != null)
+				return rootFolder;
+			root = readTree();
+			root.setModCount(modCount);
+			treeData = null;
+			rootFolder = root;
+		}
+		evtTreeLoaded.fire(this);
+		return root;
+	}
+	
+	public final boolean isTreeLoaded() {
+		return rootFolder != null;
+	}
+	
+	@NotNull
+	@SuppressWarnings("unchecked")
+	private F readTree() {
+		assert Thread.holdsLock(this);
+		final F root;
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new ByteArrayInputStream(treeData));
+			root = (F) in.readObject();
+		}
+		catch (Exception e) {
+			/*
+			 * The checksum of the tree data was verified when the index was
+			 * loaded, so if we get here, the tree data is incompatible with
+			 * this program version rather than corrupted. The Lucene index is
+			 * left untouched.
+			 */
+			throw new IllegalStateException(e);
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+		
+		// Apply check state changes made while the tree wasn't loaded
+		if (subFoldersChecked != null) {
+			final boolean checked = subFoldersChecked;
+			new FolderVisitor<D, F, Throwable>(root) {
+				protected void visitFolder(F parent, F folder) {
+					folder.setChecked(checked);
+				}
+			}.runSilently();
+		}
+		root.setChecked(rootChecked);
+		return root;
+	}
+	
+	private void writeObject(@NotNull ObjectOutputStream out)
+			throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("config", config);
+		fields.put("rootFolder", null);
+		fields.put("created", created);
+		fields.put("fileIndexDirPath", fileIndexDirPath);
+		out.writeFields();
+		
+		synchronized (this) {
+			F root = rootFolder;
+			CRC32 crc = new CRC32();
+			OutputStream treeOut = new CheckedOutputStream(
+				new BufferedOutputStream(
+					new ChunkOutputStream(out), TREE_CHUNK_SIZE), crc);
+			if (root == null) {
+				// Write back the unloaded tree as is
+				out.writeObject(rootPath);
+				out.writeObject(rootDisplayName);
+				out.writeBoolean(rootChecked);
+				out.writeObject(subFoldersChecked);
+				treeOut.write(treeData);
+				treeOut.flush();
+			}
+			else {
+				boolean checked = root.isChecked();
+				int uncheckedCount = root.getTreeCheckState().getUncheckedCount();
+				out.writeObject(root.getPath());
+				out.writeObject(root.getDisplayName());
+				out.writeBoolean(checked);
+				out.writeObject(uncheckedCount == (checked ? 0 : 1) ? Boolean.TRUE : null);
+				ObjectOutputStream treeObjectOut = new ObjectOutputStream(treeOut);
+				treeObjectOut.writeObject(root);
+				treeObjectOut.flush(); // not closed, since that would close the given stream
+			}
+			out.writeInt(0); // end of tree data
+			out.writeLong(crc.getValue());
+		}
+	}
+	
+	/*
+	 * Writes the data written to it as chunks of at most TREE_CHUNK_SIZE bytes
+	 * into the given object stream, each chunk preceded by its length. The end
+	 * of the chunks must be marked by writing a zero length. Closing this
+	 * stream does not close the object stream.
+	 */
+	private static final class ChunkOutputStream extends OutputStream {
+		private final ObjectOutputStream out;
+		
+		public ChunkOutputStream(@NotNull ObjectOutputStream out) {
+			this.out = out;
+		}
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int chunkLength = Math.min(len, TREE_CHUNK_SIZE);
+				out.writeInt(chunkLength);
+				out.write(b, off, chunkLength);
+				off += chunkLength;
+				len -= chunkLength;
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void readObject(@NotNull ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		config = (IndexingConfig) fields.get("config", null);
+		rootFolder = (F) fields.get("rootFolder", null);
+		created = fields.get("created", 0L);
+		fileIndexDirPath = (Path) fields.get("fileIndexDirPath", null);
+		modCount = new AtomicLong();
+		
+		// Indexes saved by older program versions contain the tree directly
+		if (rootFolder != null) {
+			rootFolder.setModCount(modCount);
+			return;
+		}
+		
+		rootPath = (Path) in.readObject();
+		rootDisplayName = (String) in.readObject();
+		rootChecked = in.readBoolean();
+		subFoldersChecked = (Boolean) in.readObject();
+		
+		/*
+		 * Since the tree is deserialized later, corrupted tree data must be
+		 * detected here, so that the index is reported as unreadable when it
+		 * is loaded, like any other index that can't be deserialized.
+		 */
+		CRC32 crc = new CRC32();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[TREE_CHUNK_SIZE];
+		try {
+			for (int length; (length = in.readInt()) != 0;) {
+				if (length < 0 || length > TREE_CHUNK_SIZE)
+					throw new InvalidObjectException("Corrupted folder tree.");
+				in.readFully(chunk, 0, length);
+				crc.update(chunk, 0, length);
+				bytes.write(chunk, 0, length);
+			}
+			if (crc.getValue() != in.readLong())
+				throw new InvalidObjectException("Corrupted folder tree.");
+		}
+		catch (EOFException e) {
+			throw new InvalidObjectException("Corrupted folder tree.");
+		}
+		treeData = bytes.toByteArray();
 	}
 	
 	@NotNull
 	public final String getDisplayName() {
-		return rootFolder.getDisplayName();
+		F root = rootFolder;
+		return root == null ? rootDisplayName : root.getDisplayName();
 	}
 	
 	@NotNull
 	public final Iterable<ViewNode> getChildren() {
-		return rootFolder.getChildren();
+		return getRootFolder().getChildren();
 	}
 	
 	public final void clear() {
@@ -202,29 +446,118 @@ public abstract class TreeIndex <
 			}
 		}
 		else {
-			assert ramIndexDir != null;
-			ramIndexDir = new RAMDirectory();
+			ramIndexDir = new RAMDirectory(); // may be null after deserialization
+		}
+		
+		/*
+		 * If the tree hasn't been loaded yet, there's no need to load it just
+		 * to remove its contents. Instead, it is replaced with an empty root
+		 * folder.
+		 */
+		F root;
+		boolean treeReplaced = false;
+		synchronized (this) {
+			root = rootFolder;
+			if (root == null) {
+				root = createRootFolder(rootPath);
+				root.setModCount(modCount);
+				root.setChecked(rootChecked);
+				treeData = null;
+				rootFolder = root;
+				treeReplaced = true;
+				modCount.incrementAndGet();
+			}
 		}
 		
 		/*
 		 * The last-modified field of the root folder must be cleared so that
 		 * the next index update will detect the root folder as modified.
 		 */
-		rootFolder.setLastModified(null);
-		rootFolder.removeChildren();
+		root.setLastModified(null);
+		root.removeChildren();
+		
+		if (treeReplaced)
+			evtTreeLoaded.fire(this);
+	}
+	
+	/**
+	 * Returns a value that increases whenever the tree, the tree header or the
+	 * config of the receiver is modified.
+	 */
+	public final long getModCount() {
+		return modCount.get() + config.getModCount();
+	}
+	
+	public final boolean hasUnsavedChanges() {
+		return savedModCount != getModCount();
+	}
+	
+	public final void markSaved(long modCount) {
+		savedModCount = modCount;
 	}
 	
 	public final boolean isChecked() {
+		synchronized (this) {
+			if (rootFolder == null)
+				return rootChecked;
+		}
 		return rootFolder.isChecked();
 	}
 	
 	public final void setChecked(boolean isChecked) {
+		synchronized (this) {
+			if (rootFolder == null) {
+				if (rootChecked != isChecked) {
+					rootChecked = isChecked;
+					modCount.incrementAndGet();
+				}
+				return;
+			}
+		}
 		rootFolder.setChecked(isChecked);
 	}
 	
+	public final void setCheckedDeep(boolean isChecked) {
+		synchronized (this) {
+			if (rootFolder == null) {
+				rootChecked = isChecked;
+				subFoldersChecked = isChecked;
+				modCount.incrementAndGet();
+				return;
+			}
+		}
+		final boolean checked = isChecked;
+		F root = rootFolder;
+		root.setChecked(checked);
+		new FolderVisitor<D, F, Throwable>(root) {
+			protected void visitFolder(F parent, F folder) {
+				folder.setChecked(checked);
+			}
+		}.runSilently();
+	}
+	
 	@NotNull
 	public final TreeCheckState getTreeCheckState() {
-		return rootFolder.getTreeCheckState();
+		/*
+		 * If all subfolders are checked or all folders are unchecked, the
+		 * search doesn't need the tree. The former is the usual case when
+		 * searching right after program startup.
+		 */
+		synchronized (this) {
+			if (rootFolder == null && subFoldersChecked != null) {
+				TreeCheckState state = new TreeCheckState();
+				if (subFoldersChecked) {
+					List<Path> unchecked = rootChecked
+						? Collections.<Path>emptyList()
+						: Collections.singletonList(rootPath);
+					state.addTree(rootPath, unchecked);
+					return state;
+				}
+				if (!rootChecked)
+					return state;
+			}
+		}
+		return getRootFolder().getTreeCheckState();
 	}
 	
 	public final boolean isIndex() {
@@ -234,7 +567,7 @@ public abstract class TreeIndex <
 	@ImmutableCopy
 	@NotNull
 	public final List<String> getDocumentIds() {
-		return rootFolder.getDocumentIds();
+		return getRootFolder().getDocumentIds();
 	}
 	
 	public final boolean isWatchFolders() {
@@ -242,7 +575,7 @@ public abstract class TreeIndex <
 	}
 	
 	public final boolean hasErrorsDeep() {
-		return rootFolder.hasErrorsDeep();
+		return getRootFolder().hasErrorsDeep();
 	}
 	
 }
@@ -23,6 +23,8 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 /**
  * @author Tran Nam Quang
@@ -32,6 +34,15 @@ public abstract class TreeNode implements Serializable {
 	
 	private static final long serialVersionUID = 1L;
 	
+	/*
+	 * The names of tree nodes are interned, since the same file and folder
+	 * names tend to occur many times in a tree. Paths are built from these
+	 * names, see Folder.getPath(). Interning also lets the serialization of
+	 * a tree write each distinct name only once, so the names stay shared
+	 * after deserialization.
+	 */
+	private static final Interner<String> nameInterner = Interners.newWeakInterner();
+	
 	private final String name;
 	
 	/*
@@ -54,10 +65,19 @@ public abstract class TreeNode implements Serializable {
 	
 	public TreeNode(@NotNull String name, @Nullable String displayName) {
 		Util.checkNotNull(name);
-		this.name = name;
+		this.name = nameInterner.intern(name);
 		this.displayName = displayName;
 	}
 	
+	/**
+	 * Returns the canonical instance of the given name, which is shared with
+	 * the names of all tree nodes.
+	 */
+	@NotNull
+	static String internName(@NotNull String name) {
+		return nameInterner.intern(name);
+	}
+	
 	@NotNull
 	public final String getName() {
 		return name;
@@ -89,11 +109,28 @@ public abstract class TreeNode implements Serializable {
 	}
 	
 	public synchronized final void setError(@Nullable IndexingError error) {
+		if (error == null && errors == null)
+			return;
 		this.errors = error == null ? null : Collections.singletonList(error);
+		incrementModCount();
 	}
 
 	public synchronized final void setErrors(@Nullable List<IndexingError> errors) {
+		if (errors == null && this.errors == null)
+			return;
 		this.errors = errors == null ? null : ImmutableList.copyOf(errors);
+		incrementModCount();
+	}
+	
+	/**
+	 * Signals that a tree node was modified. Subclasses must call this method
+	 * from all methods that modify serialized state. The default
+	 * implementation does nothing, which is suitable for tree nodes that
+	 * aren't part of a tree.
+	 * 
+	 * @see TreeIndex#hasUnsavedChanges()
+	 */
+	protected void incrementModCount() {
 	}
 	
 }
\ No newline at end of file
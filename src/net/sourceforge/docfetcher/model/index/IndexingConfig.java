@@ -74,12 +74,48 @@ public class IndexingConfig implements Serializable {
 	private boolean storeRelativePaths = false;
 	private boolean watchFolders = true;
 	
+	// Incremented whenever a setter changes the receiver; not serialized
+	private transient long modCount; // guarded by 'this' lock
+	
+	/**
+	 * Returns a copy of the receiver that is an instance of this class rather
+	 * than of a subclass, so that it can be serialized on its own, without any
+	 * objects referenced by the subclass.
+	 */
+	@NotNull
+	public final IndexingConfig copy() {
+		IndexingConfig copy = new IndexingConfig();
+		copy.tempDir = tempDir;
+		copy.zipExtensions = zipExtensions;
+		copy.textExtensions = textExtensions;
+		copy.patternActions = patternActions;
+		copy.htmlPairing = htmlPairing;
+		copy.detectExecutableArchives = detectExecutableArchives;
+		copy.indexFilenames = indexFilenames;
+		copy.storeRelativePaths = storeRelativePaths;
+		copy.watchFolders = watchFolders;
+		return copy;
+	}
+	
+	/**
+	 * Returns a counter that is incremented whenever the receiver is
+	 * modified. The counter starts from zero after deserialization.
+	 */
+	public final synchronized long getModCount() {
+		return modCount;
+	}
+	
+	private synchronized void incrementModCount() {
+		modCount++;
+	}
+	
 	public final boolean isDetectExecutableArchives() {
 		return detectExecutableArchives;
 	}
 
 	public final void setDetectExecutableArchives(boolean detectExecutableArchives) {
 		this.detectExecutableArchives = detectExecutableArchives;
+		incrementModCount();
 	}
 	
 	public final boolean isIndexFilenames() {
@@ -88,6 +124,7 @@ public class IndexingConfig implements Serializable {
 
 	public final void setIndexFilenames(boolean indexFilenames) {
 		this.indexFilenames = indexFilenames;
+		incrementModCount();
 	}
 
 	@NotNull
@@ -104,6 +141,7 @@ public class IndexingConfig implements Serializable {
 	 */
 	public final void setTempDir(@Nullable File tempDir) {
 		this.tempDir = tempDir;
+		incrementModCount();
 	}
 
 	public final boolean isStoreRelativePaths() {
@@ -114,6 +152,7 @@ public class IndexingConfig implements Serializable {
 		if (this.storeRelativePaths == storeRelativePaths)
 			return;
 		this.storeRelativePaths = storeRelativePaths;
+		incrementModCount();
 		onStoreRelativePathsChanged();
 	}
 	
@@ -194,6 +233,7 @@ public class IndexingConfig implements Serializable {
 
 	public final void setHtmlPairing(boolean htmlPairing) {
 		this.htmlPairing = htmlPairing;
+		incrementModCount();
 	}
 	
 	@Immutable
@@ -204,6 +244,7 @@ public class IndexingConfig implements Serializable {
 	
 	public final void setTextExtensions(@NotNull Collection<String> textExtensions) {
 		this.textExtensions = immutableUniqueLowerCase(textExtensions);
+		incrementModCount();
 	}
 	
 	// Returned collection does not contain 'exe'
@@ -215,6 +256,7 @@ public class IndexingConfig implements Serializable {
 
 	public final void setZipExtensions(@NotNull Collection<String> zipExtensions) {
 		this.zipExtensions = immutableUniqueLowerCase(zipExtensions);
+		incrementModCount();
 	}
 	
 	@NotNull
@@ -234,6 +276,7 @@ public class IndexingConfig implements Serializable {
 
 	public final void setPatternActions(@NotNull List<PatternAction> patternActions) {
 		this.patternActions = Collections.unmodifiableList(patternActions);
+		incrementModCount();
 	}
 
 	// Returned detector takes 'detect executable archives' setting into account
@@ -310,6 +353,7 @@ public class IndexingConfig implements Serializable {
 		if (this.watchFolders == watchFolders)
 			return;
 		this.watchFolders = watchFolders;
+		incrementModCount();
 		onWatchFoldersChanged();
 	}
 	
@@ -27,6 +27,7 @@ import net.sourceforge.docfetcher.model.index.Task.IndexAction;
 import net.sourceforge.docfetcher.model.index.Task.TaskState;
 import net.sourceforge.docfetcher.model.index.file.FileIndex;
 import net.sourceforge.docfetcher.model.index.outlook.OutlookIndex;
+import net.sourceforge.docfetcher.model.parse.ParserProcessPool;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -114,6 +115,7 @@ public final class IndexingQueue {
 		thread = new Thread(IndexingQueue.class.getName()) {
 			public void run() {
 				while (threadLoop());
+				ParserProcessPool.getInstance().shutdown();
 				evtWorkerThreadTerminated.fire(null);
 			}
 		};
@@ -153,15 +155,17 @@ public final class IndexingQueue {
 			 * underlying index at this point, since it doesn't care whether the
 			 * index was removed from the registry or not. Therefore, before
 			 * clearing the index, we must signal the searcher to let go of it
-			 * by refreshing the searcher's internal Lucene searcher.
+			 * by refreshing the searcher's internal Lucene searcher, and wait
+			 * for searches still running on the index to finish.
 			 */
-			indexRegistry.getSearcher().replaceLuceneSearcher();
+			indexRegistry.getSearcher().releaseRemovedIndexes();
 			luceneIndex.clear();
 		}
 		IndexingResult result = task.update(); // Long-running process
 		boolean hasErrors = luceneIndex.hasErrorsDeep();
 
 		boolean doDelete = false;
+		boolean doSave = false;
 		boolean fireRemoved = false;
 		
 		// Post-processing
@@ -193,7 +197,7 @@ public final class IndexingQueue {
 					 * fails and crashes the program.
 					 */
 					if (indexRegistry.getIndexes().contains(luceneIndex)) {
-						indexRegistry.save(luceneIndex);
+						doSave = true;
 						indexRegistry.getSearcher().replaceLuceneSearcher();
 					}
 					
@@ -215,8 +219,7 @@ public final class IndexingQueue {
 			}
 			else {
 				indexRegistry.addIndex(luceneIndex);
-				if (result == IndexingResult.SUCCESS_CHANGED)
-					indexRegistry.save(luceneIndex);
+				doSave = result == IndexingResult.SUCCESS_CHANGED;
 				boolean keep = task.is(CancelAction.KEEP);
 				if (keep || shutdown || !hasErrors)
 					fireRemoved = tasks.remove(task);
@@ -227,6 +230,15 @@ public final class IndexingQueue {
 			writeLock.unlock();
 		}
 		
+		/*
+		 * Save the index without holding the write lock, so that searches
+		 * aren't blocked while the tree is being written to disk. The save
+		 * method will do nothing if the index was removed from the registry in
+		 * the meantime, or if the tree wasn't modified.
+		 */
+		if (doSave)
+			indexRegistry.save(luceneIndex);
+		
 		if (fireRemoved)
 			evtRemoved.fire(task);
 		
@@ -14,6 +14,8 @@ package net.sourceforge.docfetcher.model.index.file;
 import java.io.File;
 import java.io.IOException;
 
+import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.TreeNode;
@@ -26,13 +28,20 @@ import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
 import net.sourceforge.docfetcher.model.index.PatternAction;
+import net.sourceforge.docfetcher.model.parse.ContentFingerprint;
+import net.sourceforge.docfetcher.model.parse.DedupCache;
+import net.sourceforge.docfetcher.model.parse.ParseDeadline;
 import net.sourceforge.docfetcher.model.parse.ParseException;
+import net.sourceforge.docfetcher.model.parse.ParseQuarantine;
 import net.sourceforge.docfetcher.model.parse.ParseResult;
 import net.sourceforge.docfetcher.model.parse.ParseService;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.document.Document;
+
 import de.schlichtherle.truezip.file.TArchiveDetector;
 import de.schlichtherle.truezip.file.TFile;
 
@@ -49,6 +58,7 @@ class FileContext {
 	private final Cancelable cancelable;
 	private final MutableInt fileCount;
 	@Nullable private final File indexParentDir; // null if index only exists in RAM
+	@Nullable private MoveDetector moveDetector;
 
 	protected FileContext(	@NotNull IndexingConfig config,
 							@NotNull TArchiveDetector zipDetector,
@@ -81,6 +91,7 @@ class FileContext {
 				superContext.fileCount,
 				superContext.indexParentDir
 		);
+		this.moveDetector = superContext.moveDetector;
 	}
 	
 	@NotNull
@@ -134,6 +145,38 @@ class FileContext {
 		return indexParentDir;
 	}
 	
+	public final void setMoveDetector(@Nullable MoveDetector moveDetector) {
+		this.moveDetector = moveDetector;
+	}
+	
+	/**
+	 * Adds the given new document to the index by reusing the Lucene document
+	 * of a file that was moved or renamed to the given file. Returns whether
+	 * this succeeded; if not, the caller should index the file as usual.
+	 */
+	public final boolean indexMoved(@NotNull FileDocument doc,
+									@NotNull File file)
+			throws IndexingException {
+		if (moveDetector == null)
+			return false;
+		try {
+			Document oldLuceneDoc = moveDetector.claim(doc, file);
+			if (oldLuceneDoc == null)
+				return false;
+			info(InfoType.EXTRACTING, doc);
+			doc.setSize(file.length());
+			writer.addMoved(doc, file, oldLuceneDoc);
+			doc.setError(null);
+			return true;
+		}
+		catch (IOException e) {
+			throw new IndexingException(e);
+		}
+		catch (CheckedOutOfMemoryError e) {
+			return false;
+		}
+	}
+	
 	// returns success
 	// if the indexing is canceled before or during the execution of this method,
 	// the last-modified value of the given document will be set to -1.
@@ -141,10 +184,10 @@ class FileContext {
 								@NotNull File file,
 								boolean isAdded) throws IndexingException {
 		info(InfoType.EXTRACTING, doc);
+		doc.setSize(file.length());
 		try {
 			// Text extraction; may throw OutOfMemoryErrors
-			ParseResult parseResult = ParseService.parse(
-				config, file, doc.getName(), doc.getPath(), reporter, cancelable);
+			ParseResult parseResult = parse(doc, file);
 			
 			/*
 			 * If we detect a cancel request at this point, the request probably
@@ -179,6 +222,82 @@ class FileContext {
 		return false;
 	}
 	
+	/**
+	 * Extracts the text of the given file. If content deduplication is
+	 * enabled, the text is taken from the deduplication cache if an identical
+	 * file was parsed recently, and the fingerprint of the file is stored in
+	 * the given document.
+	 * <p>
+	 * Parsing is subject to the time budget given by {@link ParseDeadline}.
+	 * Files whose parsing was stopped because they exceeded it, or that run
+	 * out of memory while a time budget applies, are put into the
+	 * {@link ParseQuarantine} and skipped until they are modified.
+	 */
+	@NotNull
+	private ParseResult parse(@NotNull FileDocument doc, @NotNull File file)
+			throws ParseException, CheckedOutOfMemoryError {
+		String filename = doc.getName();
+		String fingerprint = null;
+		if (ProgramConf.Bool.DeduplicateContent.get()) {
+			try {
+				fingerprint = ContentFingerprint.compute(file);
+			}
+			catch (IOException e) {
+				/*
+				 * The file is probably unreadable, so leave it to the parser
+				 * to report the problem.
+				 */
+			}
+		}
+		doc.setFingerprint(fingerprint);
+		
+		DedupCache dedupCache = DedupCache.getInstance();
+		if (fingerprint != null) {
+			ParseResult cachedResult = dedupCache.get(fingerprint, filename);
+			if (cachedResult != null)
+				return cachedResult;
+		}
+		
+		/*
+		 * Skip files that exceeded their time budget or ran out of memory
+		 * during an earlier attempt, unless they were modified since then.
+		 */
+		String path = doc.getPath().getPath();
+		long lastModified = doc.getLastModified();
+		ParseQuarantine quarantine = ParseQuarantine.getInstance(indexParentDir);
+		if (quarantine.contains(path, lastModified))
+			throw new ParseException(Msg.parse_quarantined.get());
+		
+		ParseDeadline deadline = ParseDeadline.forFile(filename, cancelable);
+		ParseResult parseResult;
+		try {
+			parseResult = ParseService.parse(
+				config, file, filename, doc.getPath(), reporter, deadline);
+		}
+		catch (CheckedOutOfMemoryError e) {
+			if (deadline.getTimeout() > 0)
+				quarantine.add(path, lastModified);
+			throw e;
+		}
+		
+		/*
+		 * If the parser was told to stop because the time budget was used up,
+		 * the text may be incomplete, so discard it. Parsers that don't
+		 * support cancellation are never told to stop, so their text is kept
+		 * even if they returned after the time budget was used up.
+		 */
+		if (deadline.isCutShort() && !cancelable.isCanceled()) {
+			quarantine.add(path, lastModified);
+			throw new ParseException(Msg.parse_timeout.format(deadline.getTimeout()));
+		}
+		quarantine.remove(path);
+		
+		// Don't cache text that might be incomplete due to cancellation
+		if (fingerprint != null && !cancelable.isCanceled())
+			dedupCache.put(fingerprint, filename, parseResult);
+		return parseResult;
+	}
+	
 	public final boolean indexAndDeleteFile(@NotNull FileDocument doc,
 											@NotNull File file,
 											boolean added)
@@ -35,6 +35,15 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 	
 	@Nullable private FileFolder htmlFolder;
 	
+	/*
+	 * Fingerprint of the file contents; only computed if content deduplication
+	 * is enabled. See ContentFingerprint.
+	 */
+	@Nullable private String fingerprint;
+	
+	// The file size at the time of indexing; zero for older indexes
+	private long size;
+	
 	public FileDocument(@NotNull FileFolder parent,
 	                    @NotNull String name,
 						long lastModified) {
@@ -52,7 +61,33 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 	}
 	
 	public void setHtmlFolder(@Nullable FileFolder htmlFolder) {
+		if (this.htmlFolder == htmlFolder)
+			return;
 		this.htmlFolder = htmlFolder;
+		incrementModCount();
+	}
+	
+	@Nullable
+	public String getFingerprint() {
+		return fingerprint;
+	}
+	
+	public void setFingerprint(@Nullable String fingerprint) {
+		if (Objects.equal(this.fingerprint, fingerprint))
+			return;
+		this.fingerprint = fingerprint;
+		incrementModCount();
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	public void setSize(long size) {
+		if (this.size == size)
+			return;
+		this.size = size;
+		incrementModCount();
 	}
 	
 	public boolean isModified(	@NotNull FileContext context,
@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.DocumentType;
 import net.sourceforge.docfetcher.model.Path;
@@ -124,6 +125,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		FileFolder rootFolder = getRootFolder();
 		rootFolder.setError(null);
 		SimpleDocWriter writer = null;
+		MoveDetector moveDetector = null;
 
 		/*
 		 * Wrap the stored root file in a TFile to enable zip archive support.
@@ -152,10 +154,27 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					return IndexingResult.SUCCESS_UNCHANGED;
 				rootFolder.setLastModified(newLastModified);
 				
+				/*
+				 * Move detection requires checking whether the old locations
+				 * of the moved files still exist, so it is limited to regular
+				 * folders.
+				 */
+				if (ProgramConf.Bool.DetectMovedFiles.get()
+						&& newLastModified == null
+						&& rootFolder.getChildCount() > 0) {
+					try {
+						moveDetector = new MoveDetector(rootFolder, getLuceneDir());
+					}
+					catch (IOException e) {
+						Util.printErr(e); // Continue without move detection
+					}
+				}
+				
 				writer = new SimpleDocWriter(getLuceneDir());
 				FileContext context = new FileContext(
 					config, zipDetector, writer, reporter, null, cancelable,
 					new MutableInt(0), getIndexParentDir());
+				context.setMoveDetector(moveDetector);
 				visitDirOrZip(context, rootFolder, rootFile);
 			}
 			else {
@@ -206,6 +225,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 			report(ErrorType.STACK_OVERFLOW, reporter, e);
 		}
 		finally {
+			Closeables.closeQuietly(moveDetector);
 			Closeables.closeQuietly(writer);
 			reporter.setEndTime(System.currentTimeMillis());
 		}
@@ -282,10 +302,11 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 						return;
 					}
 					FileDocument doc = unseenDocs.remove(file.getName());
-					// File added
+					// File added or moved
 					if (doc == null) {
 						doc = createFileDoc(folder, file);
-						context.index(doc, file, true);
+						if (!context.indexMoved(doc, file))
+							context.index(doc, file, true);
 					}
 					// File modified
 					else if (doc.isModified(context, file, null)) {
@@ -12,15 +12,25 @@
 package net.sourceforge.docfetcher.model.index.file;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.TreeCheckState;
 import net.sourceforge.docfetcher.model.UtilModel;
 import net.sourceforge.docfetcher.model.index.IndexingError;
 import net.sourceforge.docfetcher.model.index.IndexingInfo;
@@ -246,6 +256,96 @@ public final class FileIndexTest {
 		Util.deleteRecursively(tempDir);
 	}
 	
+	/**
+	 * Checks that index updates that don't find any changes leave the tree
+	 * unmodified, so that it doesn't need to be saved.
+	 */
+	@Test
+	public void testUnsavedChanges() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File subDir = new File(tempDir, "Test");
+			subDir.mkdir();
+			Files.write("Hello World", new File(subDir, "test.txt"), Charsets.UTF_8);
+			Files.copy(TestFiles.html.get(), new File(tempDir, "test.html"));
+			
+			FileIndex index = new FileIndex(null, tempDir);
+			assertTrue(index.hasUnsavedChanges());
+			index.update(null, null);
+			index.markSaved(index.getModCount());
+			assertFalse(index.hasUnsavedChanges());
+			
+			index.update(null, null);
+			assertFalse(index.hasUnsavedChanges());
+			
+			// Modifications of other indexes don't count
+			FileIndex otherIndex = new FileIndex(null, subDir);
+			otherIndex.update(null, null);
+			assertFalse(index.hasUnsavedChanges());
+			
+			Files.write("Hello World", new File(subDir, "test2.txt"), Charsets.UTF_8);
+			index.update(null, null);
+			assertTrue(index.hasUnsavedChanges());
+			
+			// Config changes
+			index.markSaved(index.getModCount());
+			index.getConfig().setIndexFilenames(false);
+			assertTrue(index.hasUnsavedChanges());
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	/**
+	 * Checks that moved and renamed files are not parsed again if move
+	 * detection is enabled.
+	 */
+	@Test
+	public void testMoveDetection() throws Exception {
+		File tempDir = Util.createTempDir();
+		ProgramConf.Bool.DetectMovedFiles.load("true");
+		try {
+			File subDir1 = new File(tempDir, "Test1");
+			subDir1.mkdir();
+			File textFile = new File(subDir1, "test.txt");
+			Files.write("Hello World", textFile, Charsets.UTF_8);
+			
+			FileIndex index = new FileIndex(null, tempDir);
+			index.update(null, null);
+			UtilModel.assertDocCount(index.getLuceneDir(), 1);
+			
+			/*
+			 * Move file into another folder, then change its contents without
+			 * changing size and last-modified value. If the moved file is
+			 * recognized, the stored text is reused rather than parsing the
+			 * file again.
+			 */
+			long lastModified = textFile.lastModified();
+			File subDir2 = new File(tempDir, "Test2");
+			subDir1.renameTo(subDir2);
+			File textFile2 = new File(subDir2, "test.txt");
+			Files.write("Jello World", textFile2, Charsets.UTF_8);
+			textFile2.setLastModified(lastModified);
+			index.update(null, null);
+			UtilModel.assertDocCount(index.getLuceneDir(), 1);
+			UtilModel.assertResultCount(index.getLuceneDir(), "hello", 1);
+			UtilModel.assertResultCount(index.getLuceneDir(), "jello", 0);
+			
+			// A copy of the file must be parsed
+			File textFile3 = new File(subDir2, "test3.txt");
+			Files.copy(textFile2, textFile3);
+			textFile3.setLastModified(lastModified);
+			index.update(null, null);
+			UtilModel.assertDocCount(index.getLuceneDir(), 2);
+			UtilModel.assertResultCount(index.getLuceneDir(), "jello", 1);
+		}
+		finally {
+			ProgramConf.Bool.DetectMovedFiles.load("false");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
 	/**
 	 * Checks that the index update works correctly after an archive entry
 	 * (either a file or a folder) inside a 7z archive is renamed.
@@ -325,6 +425,93 @@ public final class FileIndexTest {
 		System.setErr(stdErr);
 	}
 	
+	/**
+	 * Checks that a deserialized index provides its root path, display name
+	 * and check state without loading its tree.
+	 */
+	@Test
+	public void testLazyTreeLoading() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File subDir = new File(tempDir, "Test");
+			subDir.mkdir();
+			Files.write("Hello World", new File(subDir, "test.txt"), Charsets.UTF_8);
+			
+			FileIndex index = new FileIndex(null, tempDir);
+			index.update(null, null);
+			Path rootPath = index.getRootFolder().getPath();
+			Path subPath = index.getRootFolder().getSubFolder("Test").getPath();
+			
+			FileIndex copy = serializeAndDeserialize(index);
+			assertFalse(copy.isTreeLoaded());
+			assertEquals(index.getCanonicalRootFile(), copy.getCanonicalRootFile());
+			assertEquals(index.getDisplayName(), copy.getDisplayName());
+			assertTrue(copy.isChecked());
+			TreeCheckState state = copy.getTreeCheckState();
+			assertTrue(state.isChecked(rootPath));
+			assertTrue(state.isChecked(subPath));
+			assertFalse(state.isChecked(new Path(rootPath.getPath() + "x")));
+			assertFalse(copy.isTreeLoaded());
+			
+			assertEquals(index.getDocumentIds(), copy.getDocumentIds());
+			assertTrue(copy.isTreeLoaded());
+			
+			// Unchecked folders require the tree
+			index.getRootFolder().getSubFolder("Test").setChecked(false);
+			copy = serializeAndDeserialize(index);
+			assertFalse(copy.getTreeCheckState().isChecked(subPath));
+			assertTrue(copy.isTreeLoaded());
+			
+			// Check state changes and clearing don't require the tree
+			copy = serializeAndDeserialize(index);
+			copy.setCheckedDeep(false);
+			assertFalse(copy.getTreeCheckState().isChecked(rootPath));
+			copy = serializeAndDeserialize(copy);
+			copy.setChecked(true);
+			copy.setCheckedDeep(true);
+			assertTrue(copy.getTreeCheckState().isChecked(subPath));
+			assertFalse(copy.isTreeLoaded());
+			assertTrue(copy.getRootFolder().getSubFolder("Test").isChecked());
+			copy = serializeAndDeserialize(index);
+			copy.clear();
+			assertTrue(copy.isTreeLoaded());
+			assertEquals(0, copy.getRootFolder().getSubFolderCount());
+			
+			// Corrupted tree data is detected on deserialization
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(index);
+			out.close();
+			byte[] data = bytes.toByteArray();
+			data[data.length - 10] ^= 0xFF;
+			try {
+				new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+				fail();
+			}
+			catch (InvalidObjectException e) {
+			}
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	private static FileIndex serializeAndDeserialize(FileIndex index)
+			throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(index);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(
+			new ByteArrayInputStream(bytes.toByteArray()));
+		try {
+			return (FileIndex) in.readObject();
+		}
+		finally {
+			in.close();
+		}
+	}
+	
 	// This test should not crash. See bug #3465544.
 	@Test
 	public void testFakeZipInsideSolid() {
@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.parse.ParseResult;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
@@ -44,6 +45,34 @@ abstract class LuceneDocWriter {
 		write(doc, luceneDoc, false);
 	}
 
+	/**
+	 * Adds a Lucene document for the given file, which was moved or renamed,
+	 * using the stored fields of the file's old Lucene document instead of
+	 * running the parser. The old Lucene document must contain the text field.
+	 */
+	public final void addMoved(	@NotNull FileDocument doc,
+								@NotNull File file,
+								@NotNull Document oldLuceneDoc)
+			throws IOException, CheckedOutOfMemoryError {
+		String[] text = Fields.getText(oldLuceneDoc);
+		Util.checkNotNull(text);
+		ParseResult parseResult = new ParseResult(text[0]);
+		
+		// Drop the title if it was derived from the old filename
+		String title = oldLuceneDoc.get(Fields.TITLE.key());
+		String oldFilename = oldLuceneDoc.get(Fields.FILENAME.key());
+		if (oldFilename == null
+				|| !Util.splitFilename(oldFilename)[0].equals(title))
+			parseResult.setTitle(title);
+		
+		for (String author : oldLuceneDoc.getValues(Fields.AUTHOR.key()))
+			parseResult.addAuthor(author);
+		if (text.length > 1 && !text[1].isEmpty())
+			parseResult.addMiscMetadata(text[1]);
+		parseResult.setParserName(oldLuceneDoc.get(Fields.PARSER.key()));
+		add(doc, file, parseResult);
+	}
+
 	@NotNull
 	private Document createLuceneDoc(	@NotNull FileDocument doc,
 										@NotNull File file,
@@ -63,15 +92,31 @@ abstract class LuceneDocWriter {
 			luceneDoc.add(Fields.PARSER.create(parseResult.getParserName()));
 			String title = parseResult.getTitle();
 			if (title == null || title.trim().isEmpty())
-				luceneDoc.add(Fields.TITLE.create(Util.splitFilename(filename)[0]));
-			else
-				luceneDoc.add(Fields.TITLE.create(title));
+				title = Util.splitFilename(filename)[0];
+			luceneDoc.add(Fields.TITLE.create(title));
+			luceneDoc.add(Fields.createSortTitle(title));
 			luceneDoc.add(Fields.SIZE.create(file.length()));
 			luceneDoc.add(Fields.LAST_MODIFIED.create(String.valueOf(doc.getLastModified())));
+			luceneDoc.add(Fields.SORT_DATE.create(doc.getLastModified()));
 			List<String> authors = parseResult.getAuthors();
 			if (authors != null)
 				for (String author : authors)
 					luceneDoc.add(Fields.AUTHOR.create(author));
+			
+			/*
+			 * Store the extracted text and the miscellaneous metadata, so that
+			 * the Lucene document can be rebuilt without parsing the file if
+			 * it is moved, see addMoved(...), and so that the result panel can
+			 * show snippets without parsing the file.
+			 */
+			if (ProgramConf.Bool.DetectMovedFiles.get()
+					|| ProgramConf.Bool.ShowSnippets.get()) {
+				List<String> miscMetadata = parseResult.getMiscMetadata();
+				luceneDoc.add(Fields.createText(parseResult.getContent().toString()));
+				luceneDoc.add(Fields.createText(miscMetadata == null
+					? ""
+					: Util.join(" ", miscMetadata)));
+			}
 		}
 		
 		/*
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import net.sourceforge.docfetcher.model.DocumentType;
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
+import net.sourceforge.docfetcher.model.parse.ContentFingerprint;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.store.Directory;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+/**
+ * Recognizes files that were moved or renamed since the last index update, so
+ * that their Lucene documents can be rebuilt from the stored text instead of
+ * parsing the files again.
+ * <p>
+ * Before the update, all documents in regular folders of the tree are
+ * registered as candidates, keyed by last-modified value and file size. When
+ * the update encounters a new file, it asks the receiver for a candidate that
+ * has the same last-modified value, the same size and either the same content
+ * fingerprint or, if no fingerprint is available, the same filename. A
+ * candidate is only accepted if its file no longer exists at the old location.
+ * <p>
+ * The receiver holds an index reader that was opened before the update, so
+ * the stored fields of a candidate can be retrieved even after the candidate
+ * has been deleted from the Lucene index during the update.
+ *
+ * @author Tran Nam Quang
+ */
+final class MoveDetector implements Closeable {
+
+	private static final class Candidate {
+		private final FileDocument doc;
+		private final FileFolder parent;
+
+		private Candidate(@NotNull FileDocument doc, @NotNull FileFolder parent) {
+			this.doc = doc;
+			this.parent = parent;
+		}
+
+		/*
+		 * The path is computed via the parent folder, since the document might
+		 * have been detached from the tree in the meantime. Detached folders
+		 * keep their paths.
+		 */
+		@NotNull
+		private Path getPath() {
+			return parent.getPath().createSubPath(doc.getName());
+		}
+	}
+
+	private final ListMultimap<String, Candidate> candidates = ArrayListMultimap.create();
+	private final IndexReader reader;
+
+	public MoveDetector(@NotNull FileFolder rootFolder,
+						@NotNull Directory luceneDir) throws IOException {
+		Util.checkNotNull(rootFolder, luceneDir);
+		collectCandidates(rootFolder);
+		reader = IndexReader.open(luceneDir, true);
+	}
+
+	private void collectCandidates(@NotNull FileFolder folder) {
+		for (FileDocument doc : folder.getDocuments()) {
+			// Skip HTML pairs, documents that failed and older documents
+			if (doc.getHtmlFolder() != null || doc.hasErrors() || doc.getSize() <= 0)
+				continue;
+			candidates.put(getKey(doc.getLastModified(), doc.getSize()), new Candidate(doc, folder));
+		}
+		for (FileFolder subFolder : folder.getSubFolders()) {
+			// Archive contents can't be checked for existence cheaply
+			if (!subFolder.isArchive())
+				collectCandidates(subFolder);
+		}
+	}
+
+	@NotNull
+	private static String getKey(long lastModified, long size) {
+		return lastModified + ":" + size;
+	}
+
+	/**
+	 * Returns the Lucene document of a vanished document that the given new
+	 * document was moved from, or null if there is no such document. On
+	 * success, the fingerprint of the old document is copied to the new one.
+	 */
+	@Nullable
+	public Document claim(@NotNull FileDocument newDoc, @NotNull File file)
+			throws IOException {
+		String newName = newDoc.getName();
+		String newExtension = Util.getExtension(newName);
+		String newFingerprint = null;
+
+		Iterator<Candidate> it = candidates.get(
+			getKey(file.lastModified(), file.length())).iterator();
+		while (it.hasNext()) {
+			Candidate candidate = it.next();
+			FileDocument oldDoc = candidate.doc;
+			String oldFingerprint = oldDoc.getFingerprint();
+			if (oldFingerprint == null) {
+				if (!oldDoc.getName().equals(newName))
+					continue;
+			}
+			else {
+				if (!Util.getExtension(oldDoc.getName()).equals(newExtension))
+					continue;
+				if (newFingerprint == null) {
+					try {
+						newFingerprint = ContentFingerprint.compute(file);
+					}
+					catch (IOException e) {
+						return null; // Let the parser report the problem
+					}
+				}
+				if (!oldFingerprint.equals(newFingerprint))
+					continue;
+			}
+
+			// A copy of the file was found, rather than a moved file
+			Path oldPath = candidate.getPath();
+			it.remove();
+			if (oldPath.getCanonicalFile().exists())
+				continue;
+
+			Document luceneDoc = getLuceneDoc(DocumentType.FILE.createUniqueId(oldPath));
+			if (luceneDoc == null || Fields.getText(luceneDoc) == null)
+				continue;
+			newDoc.setFingerprint(oldFingerprint);
+			return luceneDoc;
+		}
+		return null;
+	}
+
+	@Nullable
+	private Document getLuceneDoc(@NotNull String uid) throws IOException {
+		TermDocs termDocs = reader.termDocs(IndexWriterAdapter.idTerm.createTerm(uid));
+		try {
+			if (termDocs.next())
+				return reader.document(termDocs.doc());
+			return null;
+		}
+		finally {
+			termDocs.close();
+		}
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -37,7 +37,10 @@ final class MailFolder extends Folder<MailDocument, MailFolder> {
 	}
 	
 	public void setHasDeepContent(boolean hasDeepContent) {
+		if (this.hasDeepContent == hasDeepContent)
+			return;
 		this.hasDeepContent = hasDeepContent;
+		incrementModCount();
 	}
 	
 	public boolean hasDeepContent() {
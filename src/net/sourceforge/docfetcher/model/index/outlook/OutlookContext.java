@@ -100,6 +100,7 @@ final class OutlookContext {
 		
 		luceneDoc.add(Fields.UID.create(doc.getUniqueId()));
 		luceneDoc.add(Fields.SUBJECT.create(subject));
+		luceneDoc.add(Fields.createSortTitle(subject));
 		luceneDoc.add(Fields.TYPE.create("outlook")); //$NON-NLS-1$
 		luceneDoc.add(Fields.SENDER.create(sender));
 		luceneDoc.add(Fields.RECIPIENTS.create(recipients));
@@ -114,6 +115,7 @@ final class OutlookContext {
 		if (date != null) {
 			String timestamp = String.valueOf(date.getTime());
 			luceneDoc.add(Fields.DATE.create(timestamp));
+			luceneDoc.add(Fields.SORT_DATE.create(date.getTime()));
 		}
 		
 		StringBuilder contents = new StringBuilder();
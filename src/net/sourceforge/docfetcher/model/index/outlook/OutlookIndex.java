@@ -60,7 +60,7 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 	
 	private static final long serialVersionUID = 1L;
 	
-	private MailFolder simplifiedRootFolder;
+	private transient MailFolder simplifiedRootFolder;
 	
 	public OutlookIndex(@Nullable File indexParentDir, @NotNull File pstFile) {
 		super(indexParentDir, pstFile);
@@ -49,7 +49,6 @@ public final class OutlookMailFactory {
 	@NotNull
 	public MailResource createMail(	@NotNull IndexingConfig config,
 									@NotNull Query query,
-									boolean isPhraseQuery,
 									@NotNull Path emailPath)
 			throws ParseException, FileNotFoundException,
 			CheckedOutOfMemoryError {
@@ -67,7 +66,7 @@ public final class OutlookMailFactory {
 				absLeft, left_middle.getRight(), leftMiddle_right.getRight()));
 			
 			return new OutlookMailResource(
-				config, query, isPhraseQuery, unpackCache, emailId, email);
+				config, query, unpackCache, emailId, email);
 		}
 		catch (FileNotFoundException e) {
 			throw e; // should not be caught by IOException catch clause
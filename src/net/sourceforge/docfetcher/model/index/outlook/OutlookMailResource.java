@@ -49,7 +49,6 @@ public final class OutlookMailResource extends MailResource {
 	
 	OutlookMailResource(@NotNull IndexingConfig config,
 						@NotNull Query query,
-						boolean isPhraseQuery,
 						@NotNull final HotColdFileCache unpackCache,
 						@NotNull final Path emailId,
 						@NotNull PSTMessage email) throws ParseException,
@@ -57,7 +56,7 @@ public final class OutlookMailResource extends MailResource {
 		Util.checkNotNull(config, unpackCache, email);
 		
 		subject = email.getSubject();
-		body = HighlightService.highlight(query, isPhraseQuery, email.getBody());
+		body = HighlightService.highlight(query, email.getBody());
 		sender = OutlookContext.getSender(email);
 		recipients = OutlookContext.getRecipients(email);
 		
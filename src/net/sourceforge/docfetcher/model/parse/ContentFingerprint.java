@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+import de.schlichtherle.truezip.file.TFileInputStream;
+
+/**
+ * Computes fingerprints of file contents, which are used for recognizing
+ * identical copies of a file in different folders, archives or indexes.
+ * <p>
+ * A fingerprint is a hash over the file size and the file bytes. Small files
+ * are hashed completely. For files larger than the limit given by
+ * {@link ProgramConf.Int#FingerprintFullHashLimit}, only a few blocks at the
+ * beginning, in the middle and at the end of the file are hashed, so that
+ * computing the fingerprint of a huge file stays cheap compared to parsing it.
+ *
+ * @author Tran Nam Quang
+ */
+public final class ContentFingerprint {
+
+	@VisibleForTesting static final int SAMPLE_SIZE = 64 * 1024;
+
+	private ContentFingerprint() {}
+
+	// accepts TrueZIP files
+	@NotNull
+	public static String compute(@NotNull File file) throws IOException {
+		long fullHashLimit = ProgramConf.Int.FingerprintFullHashLimit.get() * 1024L * 1024L;
+		return compute(file, fullHashLimit);
+	}
+
+	// accepts TrueZIP files
+	@NotNull
+	@VisibleForTesting
+	static String compute(@NotNull File file, long fullHashLimit)
+			throws IOException {
+		Util.checkNotNull(file);
+		long size = file.length();
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putLong(size);
+
+		InputStream in = null;
+		try {
+			in = new TFileInputStream(file);
+			byte[] buffer = new byte[SAMPLE_SIZE];
+			if (size <= Math.max(fullHashLimit, 3L * SAMPLE_SIZE)) {
+				int n;
+				while ((n = in.read(buffer)) != -1)
+					hasher.putBytes(buffer, 0, n);
+			}
+			else {
+				// Hash the first, the middle and the last block of the file
+				long middle = size / 2 - SAMPLE_SIZE / 2;
+				long last = size - SAMPLE_SIZE;
+				hasher.putBytes(buffer, 0, readBlock(in, buffer));
+				ByteStreams.skipFully(in, middle - SAMPLE_SIZE);
+				hasher.putBytes(buffer, 0, readBlock(in, buffer));
+				ByteStreams.skipFully(in, last - middle - SAMPLE_SIZE);
+				hasher.putBytes(buffer, 0, readBlock(in, buffer));
+			}
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+		return hasher.hash().toString();
+	}
+
+	private static int readBlock(@NotNull InputStream in, @NotNull byte[] buffer)
+			throws IOException {
+		return ByteStreams.read(in, buffer, 0, buffer.length);
+	}
+
+}
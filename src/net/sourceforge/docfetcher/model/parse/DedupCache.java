@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An LRU cache that maps content fingerprints to recently extracted parse
+ * results. It allows reusing the extracted text of a file when an identical
+ * copy of the file is found somewhere else, be it in another folder, inside an
+ * archive or in another index.
+ * <p>
+ * The capacity of the cache is measured in characters of extracted text. The
+ * file extension is part of the cache key, since identical bytes might be
+ * handled by different parsers depending on the file extension.
+ *
+ * @see ContentFingerprint
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class DedupCache {
+
+	private static final DedupCache instance = new DedupCache(
+		ProgramConf.Int.DedupCacheSize.get() * 512L * 1024L); // 2 bytes per char
+
+	private final LinkedHashMap<String, ParseResult> entries = new LinkedHashMap<String, ParseResult>(16, 0.75f, true);
+	private final long capacity;
+	private long size = 0;
+
+	@VisibleForTesting
+	DedupCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	@NotNull
+	public static DedupCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns a copy of the parse result stored under the given fingerprint
+	 * and filename, or null if there is no such result.
+	 */
+	@Nullable
+	public synchronized ParseResult get(@NotNull String fingerprint,
+										@NotNull String filename) {
+		ParseResult result = entries.get(createKey(fingerprint, filename));
+		return result == null ? null : copy(result);
+	}
+
+	/**
+	 * Stores a copy of the given parse result under the given fingerprint and
+	 * filename. Parse results that are larger than the capacity of the
+	 * receiver are ignored.
+	 */
+	public synchronized void put(	@NotNull String fingerprint,
+									@NotNull String filename,
+									@NotNull ParseResult result) {
+		Util.checkNotNull(fingerprint, filename, result);
+		ParseResult copy = copy(result);
+		long resultSize = getSize(copy);
+		if (resultSize > capacity)
+			return;
+		ParseResult oldResult = entries.put(createKey(fingerprint, filename), copy);
+		if (oldResult != null)
+			size -= getSize(oldResult);
+		size += resultSize;
+
+		// Evict least recently used entries
+		Iterator<ParseResult> it = entries.values().iterator();
+		while (size > capacity && it.hasNext()) {
+			size -= getSize(it.next());
+			it.remove();
+		}
+	}
+
+	@VisibleForTesting
+	synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	@NotNull
+	private static String createKey(@NotNull String fingerprint,
+									@NotNull String filename) {
+		return fingerprint + ":" + Util.getExtension(filename);
+	}
+
+	private static long getSize(@NotNull ParseResult result) {
+		return result.getContent().length() + result.getMetadata().length();
+	}
+
+	@NotNull
+	private static ParseResult copy(@NotNull ParseResult result) {
+		ParseResult copy = new ParseResult(result.getContent().toString());
+		copy.setTitle(result.getTitle());
+		List<String> authors = result.getAuthors();
+		if (authors != null)
+			for (String author : authors)
+				copy.addAuthor(author);
+		List<String> miscMetadata = result.getMiscMetadata();
+		if (miscMetadata != null)
+			for (String metadata : miscMetadata)
+				copy.addMiscMetadata(metadata);
+		String parserName = result.getParserName();
+		if (parserName != null)
+			copy.setParserName(parserName);
+		return copy;
+	}
+
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class DedupCacheTest {
+
+	@Test
+	public void testFingerprint() throws Exception {
+		File file = TestFiles.lorem_ipsum_pdf.get();
+		File tempDir = Util.createTempDir();
+		try {
+			File copy = new File(tempDir, "copy.pdf");
+			Files.copy(file, copy);
+			assertEquals(
+				ContentFingerprint.compute(file, 0),
+				ContentFingerprint.compute(copy, 0));
+
+			// Modify a single byte
+			byte[] bytes = Files.toByteArray(copy);
+			bytes[bytes.length / 2]++;
+			Files.write(bytes, copy);
+			assertFalse(ContentFingerprint.compute(file, 0).equals(
+				ContentFingerprint.compute(copy, 0)));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		DedupCache cache = new DedupCache(10);
+		cache.put("a", "a.txt", new ParseResult("12345"));
+		cache.put("b", "b.txt", new ParseResult("12345"));
+		assertEquals(2, cache.getEntryCount());
+
+		// Touch the first entry, so that the second one will be evicted
+		assertNotNull(cache.get("a", "a.txt"));
+		cache.put("c", "c.txt", new ParseResult("12345"));
+		assertEquals(2, cache.getEntryCount());
+		assertNull(cache.get("b", "b.txt"));
+		assertEquals("12345", cache.get("a", "a.txt").getContent());
+
+		// File extension is part of the key
+		assertNull(cache.get("a", "a.html"));
+
+		// Results that exceed the capacity are not cached
+		cache.put("d", "d.txt", new ParseResult("12345678901"));
+		assertNull(cache.get("d", "d.txt"));
+	}
+
+}
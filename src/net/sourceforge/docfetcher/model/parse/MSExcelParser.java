@@ -12,21 +12,43 @@
 package net.sourceforge.docfetcher.model.parse;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import jxl.Cell;
 import jxl.Sheet;
 import jxl.Workbook;
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 
-import org.apache.poi.hssf.OldExcelFormatException;
-import org.apache.poi.hssf.extractor.ExcelExtractor;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder.SheetRecordCollectingListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.MulRKRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.RKRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.Closeables;
 
 /**
@@ -45,40 +67,244 @@ final class MSExcelParser extends MSOfficeParser {
 
 	protected String renderText(File file, String filename)
 			throws ParseException {
-		InputStream in = null;
+		return extractText(file, Cancelable.nullCancelable,
+			ProgramConf.Bool.IndexExcelFormulas.get());
+	}
+	
+	protected String renderText(File file, ParseContext context)
+			throws ParseException {
+		return extractText(file, context.getCancelable(),
+			ProgramConf.Bool.IndexExcelFormulas.get());
+	}
+	
+	/*
+	 * The workbook is read record by record via POI's event API, rather than
+	 * being loaded into memory as a whole. If the extraction is canceled, the
+	 * text extracted so far is returned.
+	 */
+	@NotNull
+	@VisibleForTesting
+	static String extractText(	@NotNull File file,
+								@NotNull Cancelable cancelable,
+								boolean indexFormulas)
+			throws ParseException {
+		NPOIFSFileSystem fs = null;
 		try {
-			in = new FileInputStream(file);
-			ExcelExtractor extractor = null;
-			try {
-				POIFSFileSystem fs = new POIFSFileSystem(in);
-				extractor = new ExcelExtractor(fs);
+			fs = new NPOIFSFileSystem(file, true);
+			DirectoryNode root = fs.getRoot();
+			String entryName = null;
+			for (String candidate : new String[] {"Workbook", "WORKBOOK"}) {
+				if (root.hasEntry(candidate)) {
+					entryName = candidate;
+					break;
+				}
 			}
-			catch (OldExcelFormatException e) {
+			if (entryName == null) {
 				/*
 				 * POI doesn't support the old Excel 5.0/7.0 (BIFF5) format,
 				 * only the BIFF8 format from Excel 97/2000/XP/2003. Thus, we
 				 * fall back to another Excel library.
 				 */
-				Closeables.closeQuietly(in);
+				Closeables.closeQuietly(fs);
+				fs = null;
 				return extractWithJexcelAPI(file);
 			}
-			extractor.setFormulasNotResults(ProgramConf.Bool.IndexExcelFormulas.get());
-			return extractor.getText();
+			
+			TextListener listener = new TextListener(cancelable, indexFormulas);
+			HSSFRequest request = new HSSFRequest();
+			request.addListenerForAllRecords(listener);
+			InputStream in = root.createDocumentInputStream(entryName);
+			try {
+				new HSSFEventFactory().abortableProcessEvents(request, in);
+			}
+			finally {
+				Closeables.closeQuietly(in);
+			}
+			return listener.out.toString();
 		}
-		catch (IOException e) {
-			throw new ParseException(e);
+		catch (ParseException e) {
+			throw e;
 		}
-		catch (RuntimeException e) {
+		catch (EncryptedDocumentException e) {
+			// Discard throwable cause, we don't want to show its message
+			throw new ParseException(Msg.doc_pw_protected.get());
+		}
+		catch (Exception e) {
 			// POI can throw NullPointerExceptions on some odd Excel files
 			throw new ParseException(e);
 		}
 		finally {
-			Closeables.closeQuietly(in);
+			Closeables.closeQuietly(fs);
+		}
+	}
+	
+	/**
+	 * Writes the text of the worksheets in the order in which the records
+	 * arrive. Each sheet starts with the sheet name, each row is written as a
+	 * line, and the cells of a row are separated by tabs.
+	 */
+	private static final class TextListener extends AbortableHSSFListener {
+		private static final short ABORT = 1;
+		
+		private final Cancelable cancelable;
+		private final boolean indexFormulas;
+		private final SheetRecordCollectingListener workbookBuildingListener;
+		private final FormatTrackingHSSFListener formatListener;
+		private final StringBuilder out = new StringBuilder();
+		
+		private SSTRecord sstRecord;
+		private BoundSheetRecord[] sheetRecords;
+		private int sheetIndex = -1;
+		private boolean inSheet = false;
+		private int currentRow = -1;
+		private boolean expectStringRecord = false;
+		private int stringRow;
+		
+		public TextListener(@NotNull Cancelable cancelable,
+							boolean indexFormulas) {
+			this.cancelable = cancelable;
+			this.indexFormulas = indexFormulas;
+			workbookBuildingListener = new SheetRecordCollectingListener(null);
+			formatListener = new FormatTrackingHSSFListener(null);
+		}
+		
+		public short abortableProcessRecord(Record record) {
+			if (cancelable.isCanceled())
+				return ABORT;
+			workbookBuildingListener.processRecordInternally(record);
+			formatListener.processRecordInternally(record);
+			
+			switch (record.getSid()) {
+			case BOFRecord.sid:
+				BOFRecord bofRecord = (BOFRecord) record;
+				if (bofRecord.getType() != BOFRecord.TYPE_WORKSHEET)
+					break;
+				if (sheetRecords == null)
+					sheetRecords = BoundSheetRecord.orderByBofPosition(
+						Arrays.asList(workbookBuildingListener.getBoundSheetRecords()));
+				sheetIndex++;
+				if (sheetIndex < sheetRecords.length)
+					out.append(sheetRecords[sheetIndex].getSheetname()).append('\n');
+				inSheet = true;
+				currentRow = -1;
+				break;
+			case EOFRecord.sid:
+				if (inSheet && currentRow != -1)
+					out.append('\n');
+				inSheet = false;
+				break;
+			case SSTRecord.sid:
+				sstRecord = (SSTRecord) record;
+				break;
+			case LabelSSTRecord.sid:
+				LabelSSTRecord labelSSTRecord = (LabelSSTRecord) record;
+				if (sstRecord != null)
+					appendCell(labelSSTRecord.getRow(), sstRecord.getString(
+						labelSSTRecord.getSSTIndex()).getString());
+				break;
+			case LabelRecord.sid:
+				LabelRecord labelRecord = (LabelRecord) record;
+				appendCell(labelRecord.getRow(), labelRecord.getValue());
+				break;
+			case NumberRecord.sid:
+				NumberRecord numberRecord = (NumberRecord) record;
+				appendCell(numberRecord.getRow(), formatNumber(numberRecord));
+				break;
+			case RKRecord.sid:
+				RKRecord rkRecord = (RKRecord) record;
+				appendNumber(rkRecord.getRow(), rkRecord.getColumn(),
+					rkRecord.getXFIndex(), rkRecord.getRKNumber());
+				break;
+			case MulRKRecord.sid:
+				MulRKRecord mulRKRecord = (MulRKRecord) record;
+				for (int i = 0; i < mulRKRecord.getNumColumns(); i++)
+					appendNumber(mulRKRecord.getRow(),
+						mulRKRecord.getFirstColumn() + i,
+						mulRKRecord.getXFAt(i), mulRKRecord.getRKNumberAt(i));
+				break;
+			case BoolErrRecord.sid:
+				BoolErrRecord boolErrRecord = (BoolErrRecord) record;
+				if (boolErrRecord.isBoolean())
+					appendCell(boolErrRecord.getRow(), boolErrRecord.getBooleanValue() ? "TRUE" : "FALSE");
+				break;
+			case FormulaRecord.sid:
+				appendFormula((FormulaRecord) record);
+				break;
+			case StringRecord.sid:
+				// Cached string result of the preceding formula record
+				if (expectStringRecord) {
+					appendCell(stringRow, ((StringRecord) record).getString());
+					expectStringRecord = false;
+				}
+				break;
+			}
+			return 0;
+		}
+		
+		private void appendFormula(@NotNull FormulaRecord record) {
+			if (indexFormulas) {
+				try {
+					appendCell(record.getRow(), HSSFFormulaParser.toFormulaString(
+						workbookBuildingListener.getStubHSSFWorkbook(),
+						record.getParsedExpression()));
+					return;
+				}
+				catch (RuntimeException e) {
+					// Fall back to the cached result of the formula
+				}
+			}
+			int resultType = record.getCachedResultType();
+			if (resultType == org.apache.poi.ss.usermodel.Cell.CELL_TYPE_STRING) {
+				expectStringRecord = true;
+				stringRow = record.getRow();
+			}
+			else if (resultType == org.apache.poi.ss.usermodel.Cell.CELL_TYPE_BOOLEAN) {
+				appendCell(record.getRow(), record.getCachedBooleanValue() ? "TRUE" : "FALSE");
+			}
+			else if (resultType == org.apache.poi.ss.usermodel.Cell.CELL_TYPE_NUMERIC) {
+				appendCell(record.getRow(), formatNumber(record));
+			}
+		}
+		
+		// Compressed numbers are formatted like regular number cells
+		private void appendNumber(int row, int column, short xfIndex, double value) {
+			NumberRecord numberRecord = new NumberRecord();
+			numberRecord.setRow(row);
+			numberRecord.setColumn((short) column);
+			numberRecord.setXFIndex(xfIndex);
+			numberRecord.setValue(value);
+			appendCell(row, formatNumber(numberRecord));
+		}
+		
+		@NotNull
+		private String formatNumber(@NotNull CellValueRecordInterface cell) {
+			try {
+				return formatListener.formatNumberDateCell(cell);
+			}
+			catch (RuntimeException e) {
+				if (cell instanceof FormulaRecord)
+					return String.valueOf(((FormulaRecord) cell).getValue());
+				return String.valueOf(((NumberRecord) cell).getValue());
+			}
+		}
+		
+		private void appendCell(int row, @NotNull String text) {
+			if (!inSheet || text.length() == 0)
+				return;
+			if (row != currentRow) {
+				if (currentRow != -1)
+					out.append('\n');
+				currentRow = row;
+			}
+			else {
+				out.append('\t');
+			}
+			out.append(text);
 		}
 	}
 
 	@NotNull
-	private String extractWithJexcelAPI(@NotNull File file)
+	private static String extractWithJexcelAPI(@NotNull File file)
 			throws ParseException {
 		Workbook workbook = null;
 		try {
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.junit.Test;
+
+import com.google.common.io.Closeables;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class MSExcelParserTest {
+
+	@Test
+	public void testExtractText() throws Exception {
+		File file = TestFiles.lorem_ipsum_xls_97.get();
+		assertEquals(
+			"Sheet1\nlorem\tipsum\nSheet2\nSheet3\n",
+			MSExcelParser.extractText(file, Cancelable.nullCancelable, false));
+	}
+
+	@Test
+	public void testFormulas() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			HSSFWorkbook workbook = new HSSFWorkbook();
+			HSSFSheet sheet = workbook.createSheet("Numbers");
+			HSSFRow row = sheet.createRow(0);
+			row.createCell(0).setCellValue(21);
+			row.createCell(1).setCellFormula("A1*2");
+			row.getCell(1).setCellValue(42);
+			row.createCell(3).setCellValue(true);
+			row = sheet.createRow(2);
+			row.createCell(0).setCellFormula("\"foo\"&\"bar\"");
+			row.getCell(0).setCellValue("foobar");
+			workbook.createSheet("Empty");
+
+			File file = new File(tempDir, "test.xls");
+			OutputStream out = new FileOutputStream(file);
+			try {
+				workbook.write(out);
+			}
+			finally {
+				Closeables.closeQuietly(out);
+			}
+
+			assertEquals(
+				"Numbers\n21\t42\tTRUE\nfoobar\nEmpty\n",
+				MSExcelParser.extractText(file, Cancelable.nullCancelable, false));
+			assertEquals(
+				"Numbers\n21\tA1*2\tTRUE\n\"foo\"&\"bar\"\nEmpty\n",
+				MSExcelParser.extractText(file, Cancelable.nullCancelable, true));
+
+			Cancelable canceled = new Cancelable() {
+				public boolean isCanceled() {
+					return true;
+				}
+			};
+			assertEquals("", MSExcelParser.extractText(file, canceled, false));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+}
@@ -17,6 +17,7 @@ import java.util.Collection;
 
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 
 import org.apache.poi.POITextExtractor;
@@ -67,7 +68,7 @@ abstract class MSOffice2007Parser extends FileParser {
 		OPCPackage pkg = null;
 		try {
 			pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
-			String contents = extractText(pkg);
+			CharSequence contents = extractText(pkg, context.getCancelable());
 			
 			// Open properties
 			PackageProperties props = pkg.getPackageProperties();
@@ -117,7 +118,7 @@ abstract class MSOffice2007Parser extends FileParser {
 		OPCPackage pkg = null;
 		try {
 			pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
-			return extractText(pkg);
+			return extractText(pkg, Cancelable.nullCancelable).toString();
 		}
 		catch (Exception e) {
 			throw new ParseException(e);
@@ -127,16 +128,27 @@ abstract class MSOffice2007Parser extends FileParser {
 		}
 	}
 	
-	// Caller is responsible for closing the given package
+	/*
+	 * Word, Excel and PowerPoint files are handled by a streaming extractor,
+	 * since POI's extractors load the XML of all parts into memory, which can
+	 * cause OutOfMemoryErrors on large spreadsheets. Any other content is
+	 * left to POI.
+	 * 
+	 * Caller is responsible for closing the given package.
+	 */
 	@NotNull
-	private static String extractText(@NotNull OPCPackage pkg) throws Exception {
+	private static CharSequence extractText(@NotNull OPCPackage pkg,
+											@NotNull Cancelable cancelable)
+			throws Exception {
+		boolean indexFormulas = ProgramConf.Bool.IndexExcelFormulas.get();
+		CharSequence text = new OOXMLTextExtractor(
+			pkg, cancelable, indexFormulas).extract();
+		if (text != null)
+			return text;
 		POITextExtractor extractor = ExtractorFactory.createExtractor(pkg);
-		if (extractor instanceof XSSFExcelExtractor) {
-			boolean indexFormulas = ProgramConf.Bool.IndexExcelFormulas.get();
+		if (extractor instanceof XSSFExcelExtractor)
 			((XSSFExcelExtractor) extractor).setFormulasNotResults(indexFormulas);
-		}
-		String text = extractor.getText();
-		return text;
+		return extractor.getText();
 	}
 
 	protected final Collection<String> getExtensions() {
@@ -109,7 +109,7 @@ abstract class MSOfficeParser extends FileParser {
 
 	protected final ParseResult parse(File file, ParseContext context)
 			throws ParseException {
-		String contents = renderText(file, context.getFilename());
+		String contents = renderText(file, context);
 		ParseResult parseResult = new ParseResult(contents);
 		
 		POIFSReader reader = new POIFSReader();
@@ -145,6 +145,18 @@ abstract class MSOfficeParser extends FileParser {
 		return parseResult;
 	}
 	
+	/**
+	 * Extracts the text of the given file during indexing. Subclasses can
+	 * override this method in order to support cancellation. The default
+	 * implementation calls {@link #renderText(File, String)}.
+	 */
+	@NotNull
+	protected String renderText(@NotNull File file,
+								@NotNull ParseContext context)
+			throws ParseException {
+		return renderText(file, context.getFilename());
+	}
+	
 	protected String renderText(File file, String filename)
 			throws ParseException {
 		InputStream in = null;
@@ -0,0 +1,483 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Extracts the text of Word, Excel and PowerPoint 2007+ files by streaming the
+ * XML parts of the package through a SAX parser, without building a DOM of
+ * the parts. The memory needed for extraction is therefore bounded by the size
+ * of the extracted text, plus the shared strings table in the case of Excel
+ * files.
+ * <p>
+ * Elements are matched by their local names only, so that both transitional
+ * and strict OOXML files are supported. Numbers and dates in Excel files are
+ * extracted as they are stored in the file, i.e. without cell formatting.
+ *
+ * @author Tran Nam Quang
+ */
+final class OOXMLTextExtractor {
+
+	private static final String NS_RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final String NS_RELATIONSHIPS_STRICT = "http://purl.oclc.org/ooxml/officeDocument/relationships";
+
+	/**
+	 * Thrown by the SAX handlers in order to abort parsing when the extraction
+	 * was canceled.
+	 */
+	private static final class CanceledException extends SAXException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private final OPCPackage pkg;
+	private final Cancelable cancelable;
+	private final boolean indexFormulas;
+	private final SAXParserFactory factory = SAXParserFactory.newInstance();
+	private final StringBuilder out = new StringBuilder();
+	private boolean canceled = false;
+
+	// Caller is responsible for closing the given package
+	public OOXMLTextExtractor(	@NotNull OPCPackage pkg,
+								@NotNull Cancelable cancelable,
+								boolean indexFormulas)
+			throws ParserConfigurationException, SAXException {
+		Util.checkNotNull(pkg, cancelable);
+		this.pkg = pkg;
+		this.cancelable = cancelable;
+		this.indexFormulas = indexFormulas;
+		factory.setNamespaceAware(true);
+		
+		/*
+		 * The XML parts come from untrusted files, so DTDs are rejected
+		 * altogether. This prevents external entities from being resolved
+		 * (which could read local files or make network requests) and entity
+		 * expansion attacks. Valid OOXML parts don't contain DTDs.
+		 */
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+		factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		factory.setXIncludeAware(false);
+	}
+
+	/**
+	 * Returns the extracted text, or null if the main part of the package is
+	 * not a Word document, an Excel workbook or a PowerPoint presentation. If
+	 * the extraction is canceled, the text extracted so far is returned.
+	 */
+	@Nullable
+	public StringBuilder extract() throws Exception {
+		PackagePart mainPart = getMainPart();
+		if (mainPart == null)
+			return null;
+		String contentType = mainPart.getContentType();
+		if (contentType.contains("wordprocessingml") || contentType.contains("ms-word"))
+			extractWord(mainPart);
+		else if (contentType.contains("spreadsheetml") || contentType.contains("ms-excel"))
+			extractExcel(mainPart);
+		else if (contentType.contains("presentationml") || contentType.contains("ms-powerpoint"))
+			extractPowerPoint(mainPart);
+		else
+			return null;
+		return out;
+	}
+
+	@Nullable
+	private PackagePart getMainPart() throws Exception {
+		for (PackageRelationship rel : pkg.getRelationships())
+			if (rel.getRelationshipType().endsWith("/officeDocument"))
+				return pkg.getPart(rel);
+		return null;
+	}
+
+	private void extractWord(@NotNull PackagePart mainPart) throws Exception {
+		parse(mainPart, new WordHandler());
+		String[] types = { "footnotes", "endnotes", "comments", "header", "footer" };
+		for (String type : types)
+			for (PackagePart part : getRelatedParts(mainPart, type))
+				parse(part, new WordHandler());
+	}
+
+	private void extractExcel(@NotNull PackagePart mainPart) throws Exception {
+		List<String> sharedStrings = new ArrayList<String>();
+		for (PackagePart part : getRelatedParts(mainPart, "sharedStrings"))
+			parse(part, new SharedStringsHandler(sharedStrings));
+
+		WorkbookHandler workbookHandler = new WorkbookHandler();
+		parse(mainPart, workbookHandler);
+		for (int i = 0; i < workbookHandler.sheetIds.size(); i++) {
+			PackagePart sheetPart = getRelatedPart(
+				mainPart, workbookHandler.sheetIds.get(i));
+			if (sheetPart == null)
+				continue;
+			out.append(workbookHandler.sheetNames.get(i)).append('\n');
+			parse(sheetPart, new SheetHandler(sharedStrings));
+		}
+	}
+
+	private void extractPowerPoint(@NotNull PackagePart mainPart)
+			throws Exception {
+		PresentationHandler presentationHandler = new PresentationHandler();
+		parse(mainPart, presentationHandler);
+		for (String slideId : presentationHandler.slideIds) {
+			PackagePart slidePart = getRelatedPart(mainPart, slideId);
+			if (slidePart != null)
+				parse(slidePart, new SlideHandler());
+		}
+	}
+
+	@NotNull
+	private static List<PackagePart> getRelatedParts(	@NotNull PackagePart part,
+														@NotNull String relType)
+			throws Exception {
+		List<PackagePart> parts = new ArrayList<PackagePart>();
+		for (PackageRelationship rel : part.getRelationships()) {
+			if (rel.getTargetMode() == TargetMode.EXTERNAL)
+				continue;
+			if (rel.getRelationshipType().endsWith("/" + relType)) {
+				PackagePart relatedPart = part.getRelatedPart(rel);
+				if (relatedPart != null)
+					parts.add(relatedPart);
+			}
+		}
+		return parts;
+	}
+
+	@Nullable
+	private static PackagePart getRelatedPart(	@NotNull PackagePart part,
+												@NotNull String relId)
+			throws Exception {
+		PackageRelationship rel = part.getRelationship(relId);
+		if (rel == null || rel.getTargetMode() == TargetMode.EXTERNAL)
+			return null;
+		return part.getRelatedPart(rel);
+	}
+
+	private void parse(@NotNull PackagePart part, @NotNull DefaultHandler handler)
+			throws Exception {
+		if (canceled)
+			return;
+		InputStream in = part.getInputStream();
+		try {
+			SAXParser parser = factory.newSAXParser();
+			parser.parse(in, handler);
+		}
+		catch (CanceledException e) {
+			canceled = true;
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+
+	private void checkCanceled() throws CanceledException {
+		if (cancelable.isCanceled())
+			throw new CanceledException();
+	}
+
+	@Nullable
+	private static String getRelId(@NotNull Attributes atts) {
+		String relId = atts.getValue(NS_RELATIONSHIPS, "id");
+		if (relId == null)
+			relId = atts.getValue(NS_RELATIONSHIPS_STRICT, "id");
+		return relId;
+	}
+
+	/**
+	 * Handler for the main document part, headers, footers, footnotes,
+	 * endnotes and comments of Word files.
+	 */
+	private final class WordHandler extends DefaultHandler {
+		private int runDepth = 0;
+		private int fallbackDepth = 0;
+		private boolean inText = false;
+
+		public void startElement(	String uri,
+									String localName,
+									String qName,
+									Attributes atts) throws SAXException {
+			checkCanceled();
+			if (localName.equals("Fallback")) {
+				// Skip duplicate VML text of text boxes
+				fallbackDepth++;
+			}
+			else if (fallbackDepth > 0) {
+				return;
+			}
+			else if (localName.equals("r")) {
+				runDepth++;
+			}
+			else if (localName.equals("t")) {
+				inText = true;
+			}
+			else if (runDepth > 0) {
+				// Tab stop definitions outside of runs are also named "tab"
+				if (localName.equals("tab"))
+					out.append('\t');
+				else if (localName.equals("br") || localName.equals("cr"))
+					out.append('\n');
+			}
+		}
+
+		public void endElement(String uri, String localName, String qName) {
+			if (localName.equals("Fallback"))
+				fallbackDepth--;
+			else if (fallbackDepth > 0)
+				return;
+			else if (localName.equals("r"))
+				runDepth--;
+			else if (localName.equals("t"))
+				inText = false;
+			else if (localName.equals("p"))
+				out.append('\n');
+		}
+
+		public void characters(char[] ch, int start, int length) {
+			if (inText && fallbackDepth == 0)
+				out.append(ch, start, length);
+		}
+	}
+
+	/**
+	 * Handler for the shared strings table of Excel files. Phonetic runs are
+	 * skipped.
+	 */
+	private final class SharedStringsHandler extends DefaultHandler {
+		private final List<String> sharedStrings;
+		private final StringBuilder item = new StringBuilder();
+		private boolean inText = false;
+		private boolean inPhonetic = false;
+
+		public SharedStringsHandler(@NotNull List<String> sharedStrings) {
+			this.sharedStrings = sharedStrings;
+		}
+
+		public void startElement(	String uri,
+									String localName,
+									String qName,
+									Attributes atts) throws SAXException {
+			checkCanceled();
+			if (localName.equals("si"))
+				item.setLength(0);
+			else if (localName.equals("rPh"))
+				inPhonetic = true;
+			else if (localName.equals("t"))
+				inText = !inPhonetic;
+		}
+
+		public void endElement(String uri, String localName, String qName) {
+			if (localName.equals("si"))
+				sharedStrings.add(item.toString());
+			else if (localName.equals("rPh"))
+				inPhonetic = false;
+			else if (localName.equals("t"))
+				inText = false;
+		}
+
+		public void characters(char[] ch, int start, int length) {
+			if (inText)
+				item.append(ch, start, length);
+		}
+	}
+
+	/**
+	 * Handler for the workbook part of Excel files, which collects the names
+	 * and relationship IDs of the sheets in their original order.
+	 */
+	private final class WorkbookHandler extends DefaultHandler {
+		private final List<String> sheetNames = new ArrayList<String>();
+		private final List<String> sheetIds = new ArrayList<String>();
+
+		public void startElement(	String uri,
+									String localName,
+									String qName,
+									Attributes atts) throws SAXException {
+			checkCanceled();
+			if (!localName.equals("sheet"))
+				return;
+			String relId = getRelId(atts);
+			if (relId == null)
+				return;
+			String name = atts.getValue("name");
+			sheetNames.add(name == null ? "" : name);
+			sheetIds.add(relId);
+		}
+	}
+
+	/**
+	 * Handler for the worksheets of Excel files. Each row is written as a
+	 * line, with the cells separated by tabs.
+	 */
+	private final class SheetHandler extends DefaultHandler {
+		private final List<String> sharedStrings;
+		private final StringBuilder value = new StringBuilder();
+		private final StringBuilder formula = new StringBuilder();
+		private StringBuilder target = null;
+		@Nullable private String cellType;
+		private boolean inInlineString = false;
+		private boolean firstCell = true;
+
+		public SheetHandler(@NotNull List<String> sharedStrings) {
+			this.sharedStrings = sharedStrings;
+		}
+
+		public void startElement(	String uri,
+									String localName,
+									String qName,
+									Attributes atts) throws SAXException {
+			checkCanceled();
+			if (localName.equals("row")) {
+				firstCell = true;
+			}
+			else if (localName.equals("c")) {
+				cellType = atts.getValue("t");
+				value.setLength(0);
+				formula.setLength(0);
+			}
+			else if (localName.equals("v")) {
+				target = value;
+			}
+			else if (localName.equals("f")) {
+				target = formula;
+			}
+			else if (localName.equals("is")) {
+				inInlineString = true;
+			}
+			else if (localName.equals("t") && inInlineString) {
+				target = value;
+			}
+		}
+
+		public void endElement(String uri, String localName, String qName) {
+			if (localName.equals("row")) {
+				out.append('\n');
+			}
+			else if (localName.equals("c")) {
+				String text = getCellText();
+				if (text.length() == 0)
+					return;
+				if (!firstCell)
+					out.append('\t');
+				out.append(text);
+				firstCell = false;
+			}
+			else if (localName.equals("is")) {
+				inInlineString = false;
+			}
+			else if (localName.equals("v") || localName.equals("f") || localName.equals("t")) {
+				target = null;
+			}
+		}
+
+		public void characters(char[] ch, int start, int length) {
+			if (target != null)
+				target.append(ch, start, length);
+		}
+
+		@NotNull
+		private String getCellText() {
+			// Shared formulas have no formula text in dependent cells
+			if (indexFormulas && formula.length() > 0)
+				return formula.toString();
+			String rawValue = value.toString();
+			if ("s".equals(cellType)) {
+				try {
+					int index = Integer.parseInt(rawValue.trim());
+					if (index >= 0 && index < sharedStrings.size())
+						return sharedStrings.get(index);
+				}
+				catch (NumberFormatException e) {
+					// Ignore
+				}
+				return "";
+			}
+			if ("b".equals(cellType))
+				return rawValue.equals("1") ? "TRUE" : "FALSE";
+			return rawValue;
+		}
+	}
+
+	/**
+	 * Handler for the presentation part of PowerPoint files, which collects
+	 * the relationship IDs of the slides in their original order.
+	 */
+	private final class PresentationHandler extends DefaultHandler {
+		private final List<String> slideIds = new ArrayList<String>();
+
+		public void startElement(	String uri,
+									String localName,
+									String qName,
+									Attributes atts) throws SAXException {
+			checkCanceled();
+			if (!localName.equals("sldId"))
+				return;
+			String relId = getRelId(atts);
+			if (relId != null)
+				slideIds.add(relId);
+		}
+	}
+
+	/**
+	 * Handler for the slides of PowerPoint files.
+	 */
+	private final class SlideHandler extends DefaultHandler {
+		private boolean inText = false;
+
+		public void startElement(	String uri,
+									String localName,
+									String qName,
+									Attributes atts) throws SAXException {
+			checkCanceled();
+			if (localName.equals("t"))
+				inText = true;
+			else if (localName.equals("br"))
+				out.append('\n');
+		}
+
+		public void endElement(String uri, String localName, String qName) {
+			if (localName.equals("t"))
+				inText = false;
+			else if (localName.equals("p"))
+				out.append('\n');
+		}
+
+		public void characters(char[] ch, int start, int length) {
+			if (inText)
+				out.append(ch, start, length);
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.parse.MSOffice2007Parser.MSExcel2007Parser;
+import net.sourceforge.docfetcher.model.parse.MSOffice2007Parser.MSPowerPoint2007Parser;
+import net.sourceforge.docfetcher.model.parse.MSOffice2007Parser.MSWord2007Parser;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.junit.Test;
+import org.xml.sax.SAXParseException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class OOXMLTextExtractorTest {
+
+	private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+	private static final String NS_REL = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final String NS_PKG_REL = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+	@Test
+	public void testWord() throws Exception {
+		ParseResult result = new MSWord2007Parser().parse(
+			TestFiles.docx.get(), new ParseContext("testWORD-Tika.docx"));
+		assertTrue(result.getContent().toString().contains("Sample Word Document"));
+
+		result = new MSWord2007Parser().parse(
+			TestFiles.lorem_ipsum_docx.get(), new ParseContext("lorem-ipsum.docx"));
+		assertTrue(result.getContent().toString().contains("Lorem ipsum"));
+	}
+
+	@Test
+	public void testExcel() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "test.xlsx");
+			writeZip(file,
+				"[Content_Types].xml", XML_HEADER
+				+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+				+ "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+				+ "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+				+ "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+				+ "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+				+ "<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>"
+				+ "</Types>",
+				"_rels/.rels", XML_HEADER
+				+ "<Relationships xmlns=\"" + NS_PKG_REL + "\">"
+				+ "<Relationship Id=\"rId1\" Type=\"" + NS_REL + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+				+ "</Relationships>",
+				"xl/_rels/workbook.xml.rels", XML_HEADER
+				+ "<Relationships xmlns=\"" + NS_PKG_REL + "\">"
+				+ "<Relationship Id=\"rId1\" Type=\"" + NS_REL + "/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+				+ "<Relationship Id=\"rId2\" Type=\"" + NS_REL + "/sharedStrings\" Target=\"sharedStrings.xml\"/>"
+				+ "</Relationships>",
+				"xl/workbook.xml", XML_HEADER
+				+ "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"" + NS_REL + "\">"
+				+ "<sheets><sheet name=\"First Sheet\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+				+ "</workbook>",
+				"xl/sharedStrings.xml", XML_HEADER
+				+ "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+				+ "<si><t>alpha</t></si>"
+				+ "<si><r><t>be</t></r><r><t>ta</t></r><rPh><t>phonetic</t></rPh></si>"
+				+ "</sst>",
+				"xl/worksheets/sheet1.xml", XML_HEADER
+				+ "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+				+ "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c></row>"
+				+ "<row r=\"2\"><c r=\"A2\"><v>42</v></c><c r=\"B2\"><f>A2*2</f><v>84</v></c>"
+				+ "<c r=\"C2\" t=\"inlineStr\"><is><t>gamma</t></is></c><c r=\"D2\" t=\"b\"><v>1</v></c></row>"
+				+ "</sheetData></worksheet>");
+
+			assertEquals(
+				"First Sheet\nalpha\tbeta\n42\t84\tgamma\tTRUE\n",
+				extract(file, false));
+			assertEquals(
+				"First Sheet\nalpha\tbeta\n42\tA2*2\tgamma\tTRUE\n",
+				extract(file, true));
+
+			ParseResult result = new MSExcel2007Parser().parse(
+				file, new ParseContext(file.getName()));
+			assertTrue(result.getContent().toString().contains("gamma"));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testPowerPoint() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "test.pptx");
+			String slideHeader = XML_HEADER
+				+ "<p:sld xmlns:a=\"http://schemas.openxmlformats.org/drawingml/2006/main\""
+				+ " xmlns:p=\"http://schemas.openxmlformats.org/presentationml/2006/main\"><p:cSld><p:spTree><p:sp><p:txBody>";
+			String slideFooter = "</p:txBody></p:sp></p:spTree></p:cSld></p:sld>";
+			writeZip(file,
+				"[Content_Types].xml", XML_HEADER
+				+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+				+ "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+				+ "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+				+ "<Override PartName=\"/ppt/presentation.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.presentationml.presentation.main+xml\"/>"
+				+ "<Override PartName=\"/ppt/slides/slide1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.presentationml.slide+xml\"/>"
+				+ "<Override PartName=\"/ppt/slides/slide2.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.presentationml.slide+xml\"/>"
+				+ "</Types>",
+				"_rels/.rels", XML_HEADER
+				+ "<Relationships xmlns=\"" + NS_PKG_REL + "\">"
+				+ "<Relationship Id=\"rId1\" Type=\"" + NS_REL + "/officeDocument\" Target=\"ppt/presentation.xml\"/>"
+				+ "</Relationships>",
+				"ppt/_rels/presentation.xml.rels", XML_HEADER
+				+ "<Relationships xmlns=\"" + NS_PKG_REL + "\">"
+				+ "<Relationship Id=\"rId1\" Type=\"" + NS_REL + "/slide\" Target=\"slides/slide1.xml\"/>"
+				+ "<Relationship Id=\"rId2\" Type=\"" + NS_REL + "/slide\" Target=\"slides/slide2.xml\"/>"
+				+ "</Relationships>",
+				"ppt/presentation.xml", XML_HEADER
+				+ "<p:presentation xmlns:p=\"http://schemas.openxmlformats.org/presentationml/2006/main\" xmlns:r=\"" + NS_REL + "\">"
+				// Slide order differs from the order of the relationships
+				+ "<p:sldIdLst><p:sldId id=\"256\" r:id=\"rId2\"/><p:sldId id=\"257\" r:id=\"rId1\"/></p:sldIdLst>"
+				+ "</p:presentation>",
+				"ppt/slides/slide1.xml", slideHeader
+				+ "<a:p><a:r><a:t>second</a:t></a:r><a:r><a:t> slide</a:t></a:r></a:p>"
+				+ slideFooter,
+				"ppt/slides/slide2.xml", slideHeader
+				+ "<a:p><a:r><a:t>first slide</a:t></a:r></a:p>"
+				+ slideFooter);
+
+			assertEquals("first slide\nsecond slide\n", extract(file, false));
+
+			ParseResult result = new MSPowerPoint2007Parser().parse(
+				file, new ParseContext(file.getName()));
+			assertTrue(result.getContent().toString().contains("second slide"));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	/**
+	 * Checks that documents declaring external entities are rejected, rather
+	 * than having the entities resolved.
+	 */
+	@Test
+	public void testExternalEntity() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File secretFile = new File(tempDir, "secret.txt");
+			Files.write("secret", secretFile, Charsets.UTF_8);
+			File file = new File(tempDir, "test.docx");
+			writeZip(file,
+				"[Content_Types].xml", XML_HEADER
+				+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+				+ "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+				+ "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+				+ "<Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+				+ "</Types>",
+				"_rels/.rels", XML_HEADER
+				+ "<Relationships xmlns=\"" + NS_PKG_REL + "\">"
+				+ "<Relationship Id=\"rId1\" Type=\"" + NS_REL + "/officeDocument\" Target=\"word/document.xml\"/>"
+				+ "</Relationships>",
+				"word/document.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<!DOCTYPE w:document [<!ENTITY xxe SYSTEM \"" + secretFile.toURI() + "\">]>"
+				+ "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\">"
+				+ "<w:body><w:p><w:r><w:t>&xxe;</w:t></w:r></w:p></w:body>"
+				+ "</w:document>");
+			try {
+				String text = extract(file, false);
+				assertFalse(text.contains("secret"));
+				fail();
+			}
+			catch (SAXParseException e) {
+			}
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		OPCPackage pkg = OPCPackage.open(
+			TestFiles.lorem_ipsum_docx.get().getPath(), PackageAccess.READ);
+		try {
+			Cancelable canceled = new Cancelable() {
+				public boolean isCanceled() {
+					return true;
+				}
+			};
+			CharSequence text = new OOXMLTextExtractor(pkg, canceled, false).extract();
+			assertEquals("", text.toString());
+		}
+		finally {
+			Closeables.closeQuietly(pkg);
+		}
+	}
+
+	private static String extract(File file, boolean indexFormulas)
+			throws Exception {
+		OPCPackage pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+		try {
+			return new OOXMLTextExtractor(
+				pkg, Cancelable.nullCancelable, indexFormulas).extract().toString();
+		}
+		finally {
+			Closeables.closeQuietly(pkg);
+		}
+	}
+
+	// Arguments are pairs of entry names and entry contents
+	private static void writeZip(File file, String... entries) throws Exception {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for (int i = 0; i < entries.length; i += 2) {
+				out.putNextEntry(new ZipEntry(entries[i]));
+				out.write(entries[i + 1].getBytes(Charsets.UTF_8));
+				out.closeEntry();
+			}
+		}
+		finally {
+			Closeables.closeQuietly(out);
+		}
+	}
+
+}
@@ -15,6 +15,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.parse.ParallelPdfExtractor.PageHandler;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -30,7 +33,7 @@ public abstract class PagingPdfParser {
 	
 	private final File file;
 	private final StringWriter writer = new StringWriter();
-	private boolean stopped = false;
+	private volatile boolean stopped = false;
 
 	public PagingPdfParser(@NotNull File file) {
 		this.file = Util.checkNotNull(file);
@@ -39,7 +42,25 @@ public abstract class PagingPdfParser {
 	public final void run() throws ParseException, CheckedOutOfMemoryError {
 		PDDocument doc = null;
 		try {
-			doc = PDDocument.load(file);
+			doc = PdfParser.load(file, false);
+			int pageCount = doc.getNumberOfPages();
+			if (ParallelPdfExtractor.isEnabled(pageCount)) {
+				// The workers load their own copies of the document
+				PdfParser.close(doc);
+				doc = null;
+				int threadCount = ProgramConf.Int.PdfParserThreads.get();
+				new ParallelPdfExtractor(file, pageCount, threadCount, true).run(
+					new PageHandler() {
+						public void handlePage(int pageNumber, String pageText) {
+							PagingPdfParser.this.handlePage(pageText);
+						}
+					}, new Cancelable() {
+						public boolean isCanceled() {
+							return stopped;
+						}
+					});
+				return;
+			}
 			PagingStripper stripper = new PagingStripper();
 			stripper.setForceParsing(true);
 			stripper.setSortByPosition(true);
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.util.PDFTextStripper;
+
+/**
+ * Extracts the text of a PDF file by splitting its pages into contiguous
+ * ranges and processing each range on a separate worker thread. Since PDFBox
+ * documents are not thread-safe, each worker loads its own instance of the
+ * document.
+ * <p>
+ * The text of the pages is handed to the caller in page order and on the
+ * calling thread, so that the caller can report progress and check for
+ * cancellation without any synchronization.
+ *
+ * @author Tran Nam Quang
+ */
+final class ParallelPdfExtractor {
+
+	public interface PageHandler {
+		/**
+		 * Called on the thread that runs the extractor, with page numbers
+		 * starting at 1.
+		 */
+		public void handlePage(int pageNumber, @NotNull String pageText);
+	}
+
+	/** A page text or an error, put in the queue of a page range. */
+	private static final class PageItem {
+		private final String text;
+		private final Throwable error;
+
+		private PageItem(String text, Throwable error) {
+			this.text = text;
+			this.error = error;
+		}
+	}
+
+	/** Marks the end of a page range. */
+	private static final PageItem END = new PageItem(null, null);
+
+	private final File file;
+	private final int pageCount;
+	private final int threadCount;
+	private final boolean sortByPosition;
+	private volatile boolean stopped = false;
+
+	public ParallelPdfExtractor(@NotNull File file,
+								int pageCount,
+								int threadCount,
+								boolean sortByPosition) {
+		this.file = Util.checkNotNull(file);
+		this.pageCount = pageCount;
+		this.threadCount = Math.max(1, Math.min(threadCount, pageCount));
+		this.sortByPosition = sortByPosition;
+	}
+
+	/**
+	 * Returns whether a document with the given number of pages should be
+	 * extracted with this class, according to the program settings.
+	 */
+	public static boolean isEnabled(int pageCount) {
+		return ProgramConf.Int.PdfParserThreads.get() > 1
+				&& pageCount >= ProgramConf.Int.PdfParallelPageThreshold.get();
+	}
+
+	/**
+	 * Extracts the text of all pages and passes it to the given handler, page
+	 * by page. Extraction stops as soon as the given cancelable is canceled,
+	 * in which case the pages extracted so far will have been handed to the
+	 * handler.
+	 */
+	public void run(@NotNull PageHandler handler,
+					@NotNull Cancelable cancelable) throws IOException {
+		Util.checkNotNull(handler, cancelable);
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			// Start the workers
+			List<BlockingQueue<PageItem>> queues = new ArrayList<BlockingQueue<PageItem>>(threadCount);
+			int rangeSize = (pageCount + threadCount - 1) / threadCount;
+			for (int start = 1; start <= pageCount; start += rangeSize) {
+				int end = Math.min(start + rangeSize - 1, pageCount);
+				BlockingQueue<PageItem> queue = new LinkedBlockingQueue<PageItem>();
+				queues.add(queue);
+				executor.execute(new Worker(start, end, queue));
+			}
+
+			// Collect the page texts in page order
+			int pageNumber = 0;
+			for (BlockingQueue<PageItem> queue : queues) {
+				while (true) {
+					if (cancelable.isCanceled()) {
+						stopped = true;
+						return;
+					}
+					PageItem item = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (item == null)
+						continue;
+					if (item == END)
+						break;
+					if (item.error != null)
+						rethrow(item.error);
+					handler.handlePage(++pageNumber, item.text);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			stopped = true;
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			stopped = true;
+			executor.shutdown();
+		}
+	}
+
+	private void rethrow(@NotNull Throwable t) throws IOException {
+		stopped = true;
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		throw new IOException(t);
+	}
+
+	private final class Worker implements Runnable {
+		private final int startPage;
+		private final int endPage;
+		private final BlockingQueue<PageItem> queue;
+
+		public Worker(int startPage, int endPage, @NotNull BlockingQueue<PageItem> queue) {
+			this.startPage = startPage;
+			this.endPage = endPage;
+			this.queue = queue;
+		}
+
+		public void run() {
+			PDDocument doc = null;
+			try {
+				if (stopped)
+					return;
+				doc = PdfParser.load(file, true);
+				final StringWriter writer = new StringWriter();
+				PDFTextStripper stripper = new PDFTextStripper() {
+					protected void endPage(PDPage page) throws IOException {
+						StringBuffer buffer = writer.getBuffer();
+						queue.add(new PageItem(buffer.toString(), null));
+						buffer.setLength(0);
+						if (stopped)
+							setEndPage(0);
+					}
+				};
+				stripper.setForceParsing(true);
+				stripper.setSortByPosition(sortByPosition);
+				stripper.setStartPage(startPage);
+				stripper.setEndPage(endPage);
+				stripper.writeText(doc, writer);
+			}
+			catch (Throwable t) {
+				queue.add(new PageItem(null, t));
+			}
+			finally {
+				PdfParser.close(doc);
+				queue.add(END);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.parse.ParallelPdfExtractor.PageHandler;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ParallelPdfExtractorTest {
+
+	@Test
+	public void testPageOrder() throws Exception {
+		File file = TestFiles.multi_page_pdf.get();
+		for (int threadCount = 1; threadCount <= 4; threadCount++) {
+			final List<String> pages = new ArrayList<String>(3);
+			final List<Integer> pageNumbers = new ArrayList<Integer>(3);
+			new ParallelPdfExtractor(file, 3, threadCount, true).run(
+				new PageHandler() {
+					public void handlePage(int pageNumber, String pageText) {
+						pageNumbers.add(pageNumber);
+						pages.add(pageText);
+					}
+				}, Cancelable.nullCancelable);
+			assertEquals(3, pages.size());
+			for (int i = 0; i < 3; i++) {
+				assertEquals(i + 1, pageNumbers.get(i).intValue());
+				assertEquals("page " + (i + 1) + Util.LS, pages.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final List<String> pages = new ArrayList<String>(3);
+		new ParallelPdfExtractor(TestFiles.multi_page_pdf.get(), 3, 3, true).run(
+			new PageHandler() {
+				public void handlePage(int pageNumber, String pageText) {
+					pages.add(pageText);
+				}
+			}, new Cancelable() {
+				public boolean isCanceled() {
+					return pages.size() >= 2;
+				}
+			});
+		assertEquals(2, pages.size());
+	}
+
+}
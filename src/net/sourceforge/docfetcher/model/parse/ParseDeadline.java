@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A cancelable that limits the time a parser may spend on a single file. It
+ * reports a cancel request either if the wrapped cancelable does so, or if the
+ * time budget for the file has been used up. Parsers that check the cancelable
+ * of their {@link ParseContext} will thus stop early on runaway files.
+ * <p>
+ * The time budget depends on the file extension and is given by
+ * {@link ProgramConf.StrList#ParseTimeouts}, falling back to
+ * {@link ProgramConf.Int#ParseTimeout}. A budget of zero means no limit.
+ *
+ * @author Tran Nam Quang
+ */
+public final class ParseDeadline implements Cancelable {
+	
+	private final Cancelable cancelable;
+	private final int timeout;
+	private final long deadline;
+	private volatile boolean expired = false;
+	private volatile boolean cutShort = false;
+	
+	@VisibleForTesting
+	ParseDeadline(@NotNull Cancelable cancelable, int timeout) {
+		Util.checkNotNull(cancelable);
+		this.cancelable = cancelable;
+		this.timeout = timeout;
+		this.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+	}
+	
+	@NotNull
+	public static ParseDeadline forFile(@NotNull String filename,
+										@NotNull Cancelable cancelable) {
+		return new ParseDeadline(cancelable, getTimeout(filename));
+	}
+	
+	/**
+	 * Returns the time budget in seconds for files with the given name, or
+	 * zero if there is no limit.
+	 */
+	@VisibleForTesting
+	static int getTimeout(@NotNull String filename) {
+		String ext = Util.getExtension(filename);
+		for (String entry : ProgramConf.StrList.ParseTimeouts.get()) {
+			int index = entry.lastIndexOf(':');
+			if (index == -1)
+				continue;
+			if (entry.substring(0, index).trim().toLowerCase().equals(ext))
+				return Math.max(0, Util.toInt(entry.substring(index + 1).trim(), 0));
+		}
+		return ProgramConf.Int.ParseTimeout.get();
+	}
+	
+	public boolean isCanceled() {
+		if (cancelable.isCanceled())
+			return true;
+		if (!isExpired())
+			return false;
+		cutShort = true;
+		return true;
+	}
+	
+	/**
+	 * Returns whether a cancel request was reported to the parser because the
+	 * time budget had been used up, i.e. whether the parser may have stopped
+	 * early. This is not the case if the parser finished before the budget was
+	 * used up, or if it doesn't check for cancel requests and returned its
+	 * text after the budget was used up.
+	 */
+	public boolean isCutShort() {
+		return cutShort;
+	}
+	
+	/**
+	 * Returns whether the time budget has been used up. Once this method has
+	 * returned true, it will always return true.
+	 */
+	public boolean isExpired() {
+		if (timeout <= 0)
+			return false;
+		if (!expired && System.nanoTime() - deadline > 0)
+			expired = true;
+		return expired;
+	}
+	
+	public int getTimeout() {
+		return timeout;
+	}
+
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * A persistent list of files that could not be parsed within their time
+ * budget or that caused the parser to run out of memory. Each file is keyed by
+ * its path and its last-modified value, so that index updates skip a
+ * quarantined file until it is modified.
+ * <p>
+ * The list is stored as a text file in the index parent directory, with one
+ * file per line in the format <code>last-modified TAB path</code>. There is
+ * one instance per index parent directory, and a single non-persistent
+ * instance for indexes that only exist in RAM.
+ *
+ * @see ParseDeadline
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class ParseQuarantine {
+	
+	private static final String FILENAME = ".parse-quarantine.txt";
+	private static final Map<File, ParseQuarantine> instances = new HashMap<File, ParseQuarantine>();
+	private static final ParseQuarantine ramInstance = new ParseQuarantine(null);
+	
+	@Nullable private final File file;
+	private final Map<String, Long> entries = new HashMap<String, Long>();
+	
+	@VisibleForTesting
+	ParseQuarantine(@Nullable File file) {
+		this.file = file;
+		if (file == null || !file.isFile())
+			return;
+		try {
+			for (String line : Files.readLines(file, Charsets.UTF_8)) {
+				int index = line.indexOf('\t');
+				if (index == -1)
+					continue;
+				try {
+					long lastModified = Long.parseLong(line.substring(0, index));
+					entries.put(line.substring(index + 1), lastModified);
+				}
+				catch (NumberFormatException e) {
+					continue;
+				}
+			}
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+	}
+	
+	/**
+	 * Returns the quarantine list for the given index parent directory. If the
+	 * given directory is null, a non-persistent list is returned.
+	 */
+	@NotNull
+	public static ParseQuarantine getInstance(@Nullable File indexParentDir) {
+		if (indexParentDir == null)
+			return ramInstance;
+		File key = Util.getCanonicalFile(indexParentDir);
+		synchronized (instances) {
+			ParseQuarantine instance = instances.get(key);
+			if (instance == null) {
+				instance = new ParseQuarantine(new File(key, FILENAME));
+				instances.put(key, instance);
+			}
+			return instance;
+		}
+	}
+	
+	public synchronized boolean contains(	@NotNull String path,
+											long lastModified) {
+		Long value = entries.get(path);
+		return value != null && value.longValue() == lastModified;
+	}
+	
+	public synchronized void add(@NotNull String path, long lastModified) {
+		Util.checkNotNull(path);
+		Long oldValue = entries.put(path, lastModified);
+		if (oldValue == null || oldValue.longValue() != lastModified)
+			save();
+	}
+	
+	public synchronized void remove(@NotNull String path) {
+		if (entries.remove(path) != null)
+			save();
+	}
+	
+	private void save() {
+		if (file == null)
+			return;
+		try {
+			if (entries.isEmpty()) {
+				file.delete();
+				return;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, Long> entry : entries.entrySet()) {
+				sb.append(entry.getValue()).append('\t');
+				sb.append(entry.getKey()).append(Util.LS);
+			}
+			Files.write(sb.toString(), file, Charsets.UTF_8);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ParseQuarantineTest {
+
+	@Test
+	public void testPersistence() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "quarantine.txt");
+			ParseQuarantine quarantine = new ParseQuarantine(file);
+			quarantine.add("/path/to/file1.pdf", 1000);
+			quarantine.add("/path/to/file2.xls", 2000);
+			quarantine.remove("/path/to/file2.xls");
+
+			quarantine = new ParseQuarantine(file);
+			assertTrue(quarantine.contains("/path/to/file1.pdf", 1000));
+			assertFalse(quarantine.contains("/path/to/file2.xls", 2000));
+
+			// Modified files are no longer quarantined
+			assertFalse(quarantine.contains("/path/to/file1.pdf", 1001));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		ParseDeadline deadline = new ParseDeadline(Cancelable.nullCancelable, 0);
+		assertFalse(deadline.isCanceled());
+
+		deadline = new ParseDeadline(Cancelable.nullCancelable, 1);
+		assertFalse(deadline.isExpired());
+		Thread.sleep(1100);
+		assertTrue(deadline.isExpired());
+		assertFalse(deadline.isCutShort()); // the parser didn't notice yet
+		assertTrue(deadline.isCanceled());
+		assertTrue(deadline.isCutShort());
+
+		ProgramConf.StrList.ParseTimeouts.load("pdf:600;XLS : 120");
+		try {
+			assertEquals(600, ParseDeadline.getTimeout("file.pdf"));
+			assertEquals(120, ParseDeadline.getTimeout("file.xls"));
+			assertEquals(ProgramConf.Int.ParseTimeout.get(), ParseDeadline.getTimeout("file.doc"));
+		}
+		finally {
+			ProgramConf.StrList.ParseTimeouts.load("");
+		}
+	}
+
+}
@@ -241,6 +241,20 @@ public final class ParseService {
 		throw new ParseException(Msg.parser_not_found.get());
 	}
 
+	/**
+	 * Parses the given file with the given parser, without searching for
+	 * matching parsers and without falling back to other parsers.
+	 */
+	// accepts TrueZIP files
+	@NotNull
+	static ParseResult parse(	@NotNull IndexingConfig config,
+								@NotNull Parser parser,
+								@NotNull File file,
+								@NotNull ParseContext context)
+			throws ParseException, CheckedOutOfMemoryError {
+		return doParse(config, parser, file, context);
+	}
+
 	// accepts TrueZIP files
 	@NotNull
 	private static ParseResult doParse(	@NotNull IndexingConfig config,
@@ -248,11 +262,15 @@ public final class ParseService {
 										@NotNull File file,
 										@NotNull ParseContext context)
 			throws ParseException, CheckedOutOfMemoryError {
+		ParserProcessPool processPool = ParserProcessPool.getInstance();
 		try {
 			ParseResult result = null;
 			if (ProgramConf.Bool.DryRun.get()) {
 				result = new ParseResult("");
 			}
+			else if (!isZipEntry(file) && processPool.isDelegated(parser)) {
+				result = processPool.parse(config, parser, file, context);
+			}
 			else if (parser instanceof StreamParser) {
 				InputStream in = null;
 				try {
@@ -279,7 +297,10 @@ public final class ParseService {
 					try {
 						tempFile = config.createDerivedTempFile(tzFile.getName());
 						tzFile.cp(tempFile);
-						result = fileParser.parse(tempFile, context);
+						if (processPool.isDelegated(parser))
+							result = processPool.parse(config, parser, tempFile, context);
+						else
+							result = fileParser.parse(tempFile, context);
 					}
 					catch (RuntimeException e) {
 						/*
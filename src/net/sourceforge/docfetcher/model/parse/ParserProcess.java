@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * A child process running a {@link ParserWorker}, as seen from the parent
+ * process. Instances of this class are not thread-safe; the
+ * {@link ParserProcessPool} makes sure that only one thread at a time uses a
+ * given process.
+ *
+ * @author Tran Nam Quang
+ */
+final class ParserProcess {
+	
+	private final Process process;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+	private int docCount = 0;
+	private boolean broken = false;
+	private volatile boolean killed = false;
+	
+	/**
+	 * Starts a child process with the given command and sends it the given
+	 * program settings, see {@link ParserWorker}.
+	 */
+	public ParserProcess(	@NotNull List<String> command,
+							@NotNull String settings) throws IOException {
+		process = new ProcessBuilder(command).start();
+		out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		
+		// The error stream must be drained, otherwise the process might block
+		final InputStream err = process.getErrorStream();
+		Thread thread = new Thread(ParserProcess.class.getName()) {
+			public void run() {
+				try {
+					ByteStreams.copy(err, System.err);
+				}
+				catch (IOException e) {
+					// Process was terminated
+				}
+				finally {
+					Closeables.closeQuietly(err);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		
+		try {
+			ParserWorker.writeString(out, settings);
+			out.flush();
+		}
+		catch (IOException e) {
+			process.destroy();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Parses the given file with the parser of the given name and the given
+	 * indexing config in the child process. The given timer is used to check the cancelable of the given
+	 * context periodically; on cancellation, the child process is terminated
+	 * and an empty parse result is returned.
+	 * <p>
+	 * After a call to this method, the caller should check whether the
+	 * receiver is still usable by calling {@link #isBroken()}.
+	 */
+	@NotNull
+	public ParseResult parse(	@NotNull String parserName,
+								@NotNull IndexingConfig config,
+								@NotNull File file,
+								@NotNull final ParseContext context,
+								@NotNull Timer timer)
+			throws ParseException, CheckedOutOfMemoryError {
+		Util.checkNotNull(parserName, config, file, context, timer);
+		docCount++;
+		TimerTask watchdog = new TimerTask() {
+			public void run() {
+				if (context.getCancelable().isCanceled()) {
+					killed = true;
+					destroy();
+					cancel();
+				}
+			}
+		};
+		timer.schedule(watchdog, 100, 100);
+		
+		/*
+		 * If any error occurs, the child process is considered unusable,
+		 * unless we've received a regular reply.
+		 */
+		broken = true;
+		try {
+			out.writeUTF(parserName);
+			ParserWorker.writeConfig(out, config);
+			out.writeUTF(Util.getAbsPath(file));
+			out.writeUTF(context.getFilename());
+			out.flush();
+			
+			while (true) {
+				byte type = in.readByte();
+				switch (type) {
+				case ParserWorker.PROGRESS:
+					int current = in.readInt();
+					int total = in.readInt();
+					context.getReporter().subInfo(current, total);
+					break;
+				case ParserWorker.RESULT:
+					ParseResult result = ParserWorker.readResult(in);
+					broken = false;
+					return result;
+				case ParserWorker.PARSE_ERROR:
+					String message = ParserWorker.readString(in);
+					broken = false;
+					throw new ParseException(message);
+				case ParserWorker.OUT_OF_MEMORY:
+					throw new CheckedOutOfMemoryError(new OutOfMemoryError(
+						ParserWorker.readString(in)));
+				case ParserWorker.FATAL_ERROR:
+					throw new ParseException(ParserWorker.readString(in));
+				default:
+					throw new IOException("Unknown message type: " + type);
+				}
+			}
+		}
+		catch (IOException e) {
+			/*
+			 * Keep the partially extracted text on cancellation, as the
+			 * in-process parsers do. Since we don't have any text, that's an
+			 * empty string.
+			 */
+			if (killed)
+				return new ParseResult("");
+			throw new ParseException(e);
+		}
+		finally {
+			watchdog.cancel();
+		}
+	}
+	
+	public int getDocCount() {
+		return docCount;
+	}
+	
+	public boolean isBroken() {
+		return broken;
+	}
+	
+	public void destroy() {
+		/*
+		 * Closing the standard input makes the child process quit, but if it's
+		 * stuck in a parser, it has to be terminated forcibly.
+		 */
+		Closeables.closeQuietly(out);
+		process.destroy();
+	}
+
+}
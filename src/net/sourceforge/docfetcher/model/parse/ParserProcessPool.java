@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Timer;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * A pool of child processes in which crash-prone parsers can be run, so that
+ * out-of-memory errors, stack overflows and runaway parses in these parsers
+ * don't affect the main process. The pool is disabled unless
+ * {@link ProgramConf.Int#ParserProcesses} is greater than zero. Which parsers
+ * are run in child processes is determined by
+ * {@link ProgramConf.StrList#ParserProcessExtensions}.
+ * <p>
+ * Child processes are started on demand, up to the configured maximum, and are
+ * replaced with new ones after a configurable number of documents, or after
+ * they failed. If a child process can't be started at all, the pool disables
+ * itself and all parsing happens in the main process again.
+ * <p>
+ * Note that the indexing queue parses one file at a time, so during indexing
+ * only one child process is busy at any given time. Additional child processes
+ * are only used if several threads parse files concurrently.
+ *
+ * @see ParserWorker
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class ParserProcessPool {
+	
+	private static final ParserProcessPool instance = new ParserProcessPool();
+	
+	private final LinkedList<ParserProcess> idleProcesses = new LinkedList<ParserProcess>();
+	private int processCount = 0; // guarded by this
+	private boolean disabled = false; // guarded by this
+	@Nullable private Timer timer; // guarded by this
+	
+	private ParserProcessPool() {}
+	
+	@NotNull
+	public static ParserProcessPool getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Returns whether files handled by the given parser should be parsed in a
+	 * child process.
+	 */
+	public boolean isDelegated(@NotNull Parser parser) {
+		if (ProgramConf.Int.ParserProcesses.get() <= 0)
+			return false;
+		synchronized (this) {
+			if (disabled)
+				return false;
+		}
+		List<String> extensions = ProgramConf.StrList.ParserProcessExtensions.get();
+		for (String ext : parser.getExtensions())
+			if (extensions.contains(ext))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Parses the given file with the given parser in a child process, using
+	 * the given indexing config. The given file must not be a TrueZIP archive
+	 * entry. If all child processes are busy, this method blocks until one
+	 * becomes available.
+	 */
+	@NotNull
+	ParseResult parse(	@NotNull IndexingConfig config,
+						@NotNull Parser parser,
+						@NotNull File file,
+						@NotNull ParseContext context)
+			throws ParseException, CheckedOutOfMemoryError {
+		ParserProcess process;
+		Timer timer;
+		try {
+			process = acquire();
+			synchronized (this) {
+				timer = this.timer;
+			}
+		}
+		catch (InterruptedException e) {
+			// Only this parse fails, the pool remains usable
+			Thread.currentThread().interrupt();
+			throw new ParseException(e);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			synchronized (this) {
+				disabled = true;
+			}
+			return ParseService.parse(config, parser, file, context);
+		}
+		try {
+			String parserName = parser.getClass().getSimpleName();
+			return process.parse(parserName, config, file, context, timer);
+		}
+		finally {
+			release(process);
+		}
+	}
+	
+	@NotNull
+	private synchronized ParserProcess acquire()
+			throws IOException, InterruptedException {
+		while (idleProcesses.isEmpty()
+				&& processCount >= ProgramConf.Int.ParserProcesses.get())
+			wait();
+		if (!idleProcesses.isEmpty())
+			return idleProcesses.removeFirst();
+		ParserProcess process = new ParserProcess(getCommand(), getSettings());
+		processCount++;
+		if (timer == null)
+			timer = new Timer(ParserProcessPool.class.getName(), true);
+		return process;
+	}
+	
+	private synchronized void release(@NotNull ParserProcess process) {
+		int recycleCount = ProgramConf.Int.ParserProcessRecycleCount.get();
+		if (process.isBroken() || process.getDocCount() >= recycleCount) {
+			process.destroy();
+			processCount--;
+		}
+		else {
+			idleProcesses.addLast(process);
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Terminates all idle child processes. Busy child processes are not
+	 * affected, but like all child processes, they will quit when the main
+	 * process terminates.
+	 */
+	public synchronized void shutdown() {
+		for (ParserProcess process : idleProcesses)
+			process.destroy();
+		processCount -= idleProcesses.size();
+		idleProcesses.clear();
+		if (timer != null && processCount == 0) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+	
+	@NotNull
+	private static List<String> getCommand() {
+		File javaHome = new File(System.getProperty("java.home"));
+		return Collections.unmodifiableList(Arrays.asList(
+			Util.getAbsPath(new File(javaHome, "bin/java")),
+			"-Xmx" + ProgramConf.Int.ParserProcessMemory.get() + "m",
+			"-Xss2m",
+			"-Djava.awt.headless=true",
+			"-cp",
+			System.getProperty("java.class.path"),
+			ParserWorker.class.getName()
+		));
+	}
+	
+	/*
+	 * Returns the current values of all program settings in the format of the
+	 * program-conf.txt file. The settings are sent to the child processes
+	 * through their standard input rather than as program arguments, so that
+	 * settings containing arbitrary characters are passed on unchanged.
+	 */
+	@NotNull
+	private static String getSettings() {
+		Properties props = new Properties();
+		for (ProgramConf.Bool entry : ProgramConf.Bool.values())
+			props.setProperty(entry.name(), String.valueOf(entry.get()));
+		for (ProgramConf.Int entry : ProgramConf.Int.values())
+			props.setProperty(entry.name(), String.valueOf(entry.get()));
+		for (ProgramConf.Str entry : ProgramConf.Str.values())
+			props.setProperty(entry.name(), entry.get());
+		for (ProgramConf.IntArray entry : ProgramConf.IntArray.values())
+			props.setProperty(entry.name(), Ints.join(", ", entry.get()));
+		for (ProgramConf.StrList entry : ProgramConf.StrList.values())
+			props.setProperty(entry.name(), Util.encodeStrings(";", entry.get()));
+		StringWriter writer = new StringWriter();
+		try {
+			props.store(writer, null);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e); // Can't happen with a StringWriter
+		}
+		return writer.toString();
+	}
+
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ParserProcessPoolTest {
+
+	@Test
+	public void testParseInChildProcess() throws Exception {
+		IndexingConfig config = new IndexingConfig();
+		Parser parser = new PdfParser();
+		File file = TestFiles.lorem_ipsum_pdf.get();
+		ParseResult expected = ParseService.parse(
+			config, parser, file, new ParseContext(file.getName()));
+
+		ProgramConf.Int.ParserProcesses.load("1");
+		ParserProcessPool pool = ParserProcessPool.getInstance();
+		try {
+			assertTrue(pool.isDelegated(parser));
+			ParseResult actual = ParseService.parse(
+				config, parser, file, new ParseContext(file.getName()));
+			assertEquals(expected.getContent().toString(), actual.getContent().toString());
+			assertEquals(expected.getTitle(), actual.getTitle());
+			assertEquals(expected.getMetadata().toString(), actual.getMetadata().toString());
+			assertEquals(PdfParser.class.getSimpleName(), actual.getParserName());
+
+			// Parse errors are passed on
+			try {
+				File encrypted = TestFiles.encrypted_pdf.get();
+				ParseService.parse(
+					config, parser, encrypted, new ParseContext(encrypted.getName()));
+				assertTrue(false);
+			}
+			catch (ParseException e) {
+				assertEquals(Msg.doc_pw_protected.get(), e.getMessage());
+			}
+		}
+		finally {
+			ProgramConf.Int.ParserProcesses.load("0");
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
+import net.sourceforge.docfetcher.util.ConfLoader;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * The entry point of the parser processes managed by the
+ * {@link ParserProcessPool}. A parser process reads parse requests from its
+ * standard input and writes progress messages and parse results to its
+ * standard output, until its standard input is closed.
+ * <p>
+ * Before the first request, the parent process sends the program settings in
+ * the format of the program-conf.txt file, which are loaded into
+ * {@link ProgramConf}. A request consists of the name of the parser to use,
+ * the serialized indexing config, the path of the file to parse and the
+ * filename to report to the parser. The reply consists of any
+ * number of progress messages, followed by either a parse result or an error.
+ * Strings are written in chunks, so that large texts can be transferred
+ * without building additional copies of them.
+ *
+ * @author Tran Nam Quang
+ */
+public final class ParserWorker {
+	
+	static final byte PROGRESS = 0;
+	static final byte RESULT = 1;
+	static final byte PARSE_ERROR = 2;
+	static final byte OUT_OF_MEMORY = 3;
+	static final byte FATAL_ERROR = 4;
+	
+	private static final int CHUNK_SIZE = 16 * 1024; // at most 3 bytes per char in writeUTF
+	
+	private ParserWorker() {}
+	
+	public static void main(String[] args) throws IOException {
+		/*
+		 * The standard output is reserved for the communication with the
+		 * parent process, but some libraries print to it.
+		 */
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(FileDescriptor.out)));
+		System.setOut(System.err);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		
+		String settings;
+		try {
+			settings = readString(in);
+		}
+		catch (EOFException e) {
+			return;
+		}
+		ConfLoader.load(
+			new ByteArrayInputStream(settings.getBytes(Charsets.UTF_8)),
+			ProgramConf.class);
+		
+		// Files must not be delegated to further child processes
+		ProgramConf.Int.ParserProcesses.load("0");
+		
+		IndexingReporter reporter = new IndexingReporter() {
+			public void subInfo(int current, int total) {
+				try {
+					out.writeByte(PROGRESS);
+					out.writeInt(current);
+					out.writeInt(total);
+					out.flush();
+				}
+				catch (IOException e) {
+					System.exit(1); // Parent process is gone
+				}
+			}
+		};
+		
+		while (true) {
+			String parserName;
+			try {
+				parserName = in.readUTF();
+			}
+			catch (EOFException e) {
+				return;
+			}
+			IndexingConfig config = readConfig(in);
+			File file = new File(in.readUTF());
+			String filename = in.readUTF();
+			
+			try {
+				Parser parser = findParser(parserName);
+				if (parser == null)
+					throw new ParseException(parserName);
+				ParseContext context = new ParseContext(
+					filename, reporter, Cancelable.nullCancelable);
+				ParseResult result = ParseService.parse(config, parser, file, context);
+				out.writeByte(RESULT);
+				writeResult(out, result);
+				out.flush();
+			}
+			catch (ParseException e) {
+				out.writeByte(PARSE_ERROR);
+				writeString(out, Strings.nullToEmpty(e.getMessage()));
+				out.flush();
+			}
+			catch (Throwable t) {
+				/*
+				 * After an OutOfMemoryError or StackOverflowError, the state of
+				 * this process is unknown, so we'll report the error and quit.
+				 * The parent process will start a new process.
+				 */
+				boolean oom = t instanceof OutOfMemoryError
+					|| t.getCause() instanceof OutOfMemoryError;
+				out.writeByte(oom ? OUT_OF_MEMORY : FATAL_ERROR);
+				writeString(out, t.toString());
+				out.flush();
+				System.exit(1);
+			}
+		}
+	}
+	
+	@Nullable
+	private static Parser findParser(@NotNull String parserName) {
+		for (Parser parser : ParseService.getParsers())
+			if (parser.getClass().getSimpleName().equals(parserName))
+				return parser;
+		return null;
+	}
+	
+	private static void writeResult(@NotNull DataOutputStream out,
+									@NotNull ParseResult result)
+			throws IOException {
+		writeString(out, result.getContent());
+		writeString(out, Strings.nullToEmpty(result.getTitle()));
+		writeList(out, result.getAuthors());
+		writeList(out, result.getMiscMetadata());
+		writeString(out, result.getParserName());
+	}
+	
+	@NotNull
+	static ParseResult readResult(@NotNull DataInputStream in)
+			throws IOException {
+		ParseResult result = new ParseResult(readString(in));
+		result.setTitle(Strings.emptyToNull(readString(in)));
+		for (int i = in.readInt(); i > 0; i--)
+			result.addAuthor(readString(in));
+		for (int i = in.readInt(); i > 0; i--)
+			result.addMiscMetadata(readString(in));
+		result.setParserName(readString(in));
+		return result;
+	}
+	
+	static void writeConfig(@NotNull DataOutputStream out,
+							@NotNull IndexingConfig config)
+			throws IOException {
+		// Only the config itself is sent, not the index it belongs to
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+		objectOut.writeObject(config.copy());
+		objectOut.close();
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+	
+	@NotNull
+	private static IndexingConfig readConfig(@NotNull DataInputStream in)
+			throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		ObjectInputStream objectIn = new ObjectInputStream(
+			new ByteArrayInputStream(bytes));
+		try {
+			return (IndexingConfig) objectIn.readObject();
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		finally {
+			objectIn.close();
+		}
+	}
+	
+	private static void writeList(	@NotNull DataOutputStream out,
+									@Nullable List<String> list)
+			throws IOException {
+		if (list == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(list.size());
+		for (String element : list)
+			writeString(out, element);
+	}
+	
+	static void writeString(@NotNull DataOutputStream out,
+									@NotNull CharSequence str)
+			throws IOException {
+		int length = str.length();
+		out.writeInt(length);
+		for (int i = 0; i < length; i += CHUNK_SIZE)
+			out.writeUTF(str.subSequence(i, Math.min(i + CHUNK_SIZE, length)).toString());
+	}
+	
+	@NotNull
+	static String readString(@NotNull DataInputStream in) throws IOException {
+		int length = in.readInt();
+		StringBuilder sb = new StringBuilder(length);
+		while (sb.length() < length)
+			sb.append(in.readUTF());
+		return sb.toString();
+	}
+
+}
@@ -11,6 +11,9 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
@@ -18,19 +21,26 @@ import java.util.Collection;
 import java.util.Collections;
 
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.parse.ParallelPdfExtractor.PageHandler;
+import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.util.PDFTextStripper;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Closeables;
+
 /**
  * @author Tran Nam Quang
  */
-public final class PdfParser extends StreamParser {
+public final class PdfParser extends FileParser {
 	
 	private static final Collection<String> extensions = Collections.singleton("pdf");
 	private static final Collection<String> types = MediaType.Col.application("pdf");
@@ -39,7 +49,7 @@ public final class PdfParser extends StreamParser {
 	}
 	
 	@Override
-	protected ParseResult parse(@NotNull InputStream in,
+	protected ParseResult parse(@NotNull File file,
 	                            @NotNull final ParseContext context)
 			throws ParseException {
 		PDDocument pdfDoc = null;
@@ -48,7 +58,7 @@ public final class PdfParser extends StreamParser {
 			 * TODO post-release-1.1: check if 'force' argument in PDDocument/Stripper increases
 			 * number of parsed PDF files
 			 */
-			pdfDoc = PDDocument.load(in, true);
+			pdfDoc = load(file, true);
 			PDDocumentInformation pdInfo;
 			final int pageCount;
 			try {
@@ -59,6 +69,28 @@ public final class PdfParser extends StreamParser {
 				// Bug #3529070 and #3528345
 				throw new ParseException(e);
 			}
+			ParseResult result = new ParseResult(null).setTitle(
+				pdInfo.getTitle())
+					.addAuthor(pdInfo.getAuthor())
+					.addMiscMetadata(pdInfo.getSubject())
+					.addMiscMetadata(pdInfo.getKeywords());
+			
+			if (ParallelPdfExtractor.isEnabled(pageCount)) {
+				// The workers load their own copies of the document
+				close(pdfDoc);
+				pdfDoc = null;
+				final StringBuilder sb = new StringBuilder();
+				int threadCount = ProgramConf.Int.PdfParserThreads.get();
+				new ParallelPdfExtractor(file, pageCount, threadCount, false).run(
+					new PageHandler() {
+						public void handlePage(int pageNumber, String pageText) {
+							context.getReporter().subInfo(pageNumber, pageCount);
+							sb.append(pageText);
+						}
+					}, context.getCancelable());
+				return result.setContent(sb);
+			}
+			
 			StringWriter writer = new StringWriter();
 			
 			/*
@@ -91,22 +123,55 @@ public final class PdfParser extends StreamParser {
 				throw new ParseException(e);
 			}
 
-			return new ParseResult(writer.getBuffer()).setTitle(
-				pdInfo.getTitle())
-					.addAuthor(pdInfo.getAuthor())
-					.addMiscMetadata(pdInfo.getSubject())
-					.addMiscMetadata(pdInfo.getKeywords());
+			return result.setContent(writer.getBuffer());
 		}
 		catch (IOException e) {
 			if (e.getCause() instanceof CryptographyException)
 				throw new ParseException(Msg.doc_pw_protected.get());
 			throw new ParseException(e);
 		}
+		catch (RuntimeException e) {
+			// Thrown by the stripper on one of the parallel workers
+			throw new ParseException(e);
+		}
 		finally {
 			close(pdfDoc);
 		}
 	}
 	
+	/**
+	 * Loads the given PDF file. For files above the size given by
+	 * {@link ProgramConf.Int#PdfScratchFileThreshold}, the contents of the PDF
+	 * streams are kept in a temporary scratch file rather than on the heap.
+	 * The scratch file is deleted when the returned document is closed.
+	 */
+	@NotNull
+	static PDDocument load(@NotNull File file, boolean force)
+			throws IOException {
+		long threshold = ProgramConf.Int.PdfScratchFileThreshold.get() * 1024L * 1024L;
+		File scratchDir = file.length() >= threshold ? Util.TEMP_DIR : null;
+		return load(file, force, scratchDir);
+	}
+	
+	@NotNull
+	@VisibleForTesting
+	static PDDocument load(	@NotNull File file,
+							boolean force,
+							@Nullable File scratchDir) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			PDFParser parser = new PDFParser(
+				new BufferedInputStream(in), null, force);
+			if (scratchDir != null)
+				parser.setTempDirectory(scratchDir);
+			parser.parse();
+			return parser.getPDDocument();
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+	}
+	
 	static void close(@Nullable PDDocument doc) {
 		if (doc != null) {
 			try {
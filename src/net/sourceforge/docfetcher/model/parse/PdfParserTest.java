@@ -11,6 +11,7 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -18,6 +19,10 @@ import java.io.File;
 import net.sourceforge.docfetcher.TestFiles;
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.util.PDFTextStripper;
 import org.junit.Test;
 
 /**
@@ -38,5 +43,27 @@ public final class PdfParserTest {
 			assertTrue(e.getMessage().equals(Msg.doc_pw_protected.get()));
 		}
 	}
+	
+	@Test
+	public void testScratchFile() throws Exception {
+		File file = TestFiles.multi_page_pdf.get();
+		File scratchDir = Util.createTempDir();
+		PDDocument doc = null;
+		try {
+			doc = PdfParser.load(file, true, scratchDir);
+			assertEquals(1, scratchDir.listFiles().length);
+			String text = new PDFTextStripper().getText(doc);
+			assertTrue(text.contains("page 3"));
+			
+			// Scratch file must be deleted when the document is closed
+			PdfParser.close(doc);
+			doc = null;
+			assertEquals(0, scratchDir.listFiles().length);
+		}
+		finally {
+			PdfParser.close(doc);
+			Util.deleteRecursively(scratchDir);
+		}
+	}
 
 }
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+/**
+ * A collector that forwards all hits to another collector and aborts the
+ * search with a {@link CanceledException} as soon as the given
+ * {@link Cancelable} is canceled. The cancelation is checked when the search
+ * moves on to the next index segment and after every few hundred hits, so that
+ * even searches over many large indexes can be aborted quickly.
+ *
+ * @author Tran Nam Quang
+ */
+final class CancelableCollector extends Collector {
+
+	/**
+	 * Thrown through the Lucene search methods when the search was canceled.
+	 */
+	static final class CanceledException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static final int CHECK_INTERVAL = 256;
+
+	private final Collector collector;
+	private final Cancelable cancelable;
+	private int count = 0;
+
+	public CancelableCollector(	@NotNull Collector collector,
+								@NotNull Cancelable cancelable) {
+		Util.checkNotNull(collector, cancelable);
+		this.collector = collector;
+		this.cancelable = cancelable;
+	}
+
+	public void setScorer(Scorer scorer) throws IOException {
+		collector.setScorer(scorer);
+	}
+
+	public void collect(int doc) throws IOException {
+		if (++count % CHECK_INTERVAL == 0)
+			checkCanceled();
+		collector.collect(doc);
+	}
+
+	public void setNextReader(IndexReader reader, int docBase)
+			throws IOException {
+		checkCanceled();
+		collector.setNextReader(reader, docBase);
+	}
+
+	public boolean acceptsDocsOutOfOrder() {
+		return collector.acceptsDocsOutOfOrder();
+	}
+
+	private void checkCanceled() {
+		if (cancelable.isCanceled())
+			throw new CanceledException();
+	}
+
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.search.CancelableCollector.CanceledException;
+import net.sourceforge.docfetcher.model.search.SortSpec.Criterion;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class CancelableCollectorTest {
+
+	@Test
+	public void testCollect() throws Exception {
+		MultiSearcher searcher = createSearcher(
+			createIndex("b", "d"), createIndex("a", "c"));
+		try {
+			// Sorted search over several indexes, as in the searcher
+			SortSpec sortSpec = new SortSpec(Criterion.TITLE, false);
+			TopFieldCollector collector = TopFieldCollector.create(
+				sortSpec.createLuceneSort(), 10, true, true, false, false);
+			searcher.search(
+				new MatchAllDocsQuery(), null,
+				new CancelableCollector(collector, Cancelable.nullCancelable));
+			List<String> titles = new ArrayList<String>();
+			for (ScoreDoc scoreDoc : collector.topDocs().scoreDocs) {
+				assertTrue(!Float.isNaN(scoreDoc.score));
+				titles.add(searcher.doc(scoreDoc.doc).get(Fields.TITLE.key()));
+			}
+			assertEquals(Arrays.asList("a", "b", "c", "d"), titles);
+
+			// Canceled search
+			collector = TopFieldCollector.create(
+				sortSpec.createLuceneSort(), 10, true, true, false, false);
+			try {
+				searcher.search(
+					new MatchAllDocsQuery(), null,
+					new CancelableCollector(collector, new Cancelable() {
+						public boolean isCanceled() {
+							return true;
+						}
+					}));
+				fail();
+			}
+			catch (CanceledException e) {
+			}
+		}
+		finally {
+			searcher.close();
+		}
+	}
+
+	private static Directory createIndex(String... titles) throws Exception {
+		Directory dir = new RAMDirectory();
+		IndexWriterConfig config = new IndexWriterConfig(
+			IndexRegistry.LUCENE_VERSION, IndexRegistry.analyzer);
+		IndexWriter writer = new IndexWriter(dir, config);
+		for (String title : titles) {
+			Document doc = new Document();
+			doc.add(Fields.TITLE.create(title));
+			doc.add(Fields.createSortTitle(title));
+			writer.addDocument(doc);
+		}
+		writer.close();
+		return dir;
+	}
+
+	private static MultiSearcher createSearcher(Directory... dirs)
+			throws Exception {
+		Searchable[] searchables = new Searchable[dirs.length];
+		for (int i = 0; i < dirs.length; i++)
+			searchables[i] = new IndexSearcher(dirs[i]);
+		return new MultiSearcher(searchables);
+	}
+
+}
@@ -11,37 +11,17 @@
 
 package net.sourceforge.docfetcher.model.search;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
-import net.sourceforge.docfetcher.model.Fields;
-import net.sourceforge.docfetcher.model.IndexRegistry;
-import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
-import net.sourceforge.docfetcher.util.annotations.MutableCopy;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
-import org.apache.lucene.analysis.Token;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.highlight.Formatter;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.NullFragmenter;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.TokenGroup;
-import org.apache.lucene.search.vectorhighlight.FastVectorHighlighter;
-import org.apache.lucene.search.vectorhighlight.FieldPhraseList;
-import org.apache.lucene.search.vectorhighlight.FieldPhraseList.WeightedPhraseInfo;
-import org.apache.lucene.search.vectorhighlight.FieldQuery;
-import org.apache.lucene.search.vectorhighlight.FieldTermStack;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
-
-import com.google.common.io.Closeables;
 
 /**
  * @author Tran Nam Quang
@@ -49,24 +29,144 @@ import com.google.common.io.Closeables;
 @VisibleForPackageGroup
 public final class HighlightService {
 	
+	public interface HighlightHandler {
+		/**
+		 * Called once with the trimmed text, before any occurrences are
+		 * reported. The given highlighted string has no ranges yet.
+		 */
+		public void handleText(@NotNull HighlightedString string);
+		
+		/**
+		 * Called with the next occurrences in the text, in ascending order.
+		 * The ranges don't overlap with each other or with earlier ones.
+		 */
+		public void handleRanges(@NotNull List<Range> ranges);
+		
+		public boolean isStopped();
+	}
+	
+	// Only this many characters are examined when creating snippets
+	static final int SNIPPET_ANALYSIS_LIMIT = 100 * 1000;
+	
+	// Enough occurrences to pick a good snippet
+	private static final int SNIPPET_MAX_OCCURRENCES = 256;
+	
 	private HighlightService() {
 	}
 	
 	// The given text is trimmed
 	@NotNull
 	public static HighlightedString highlight(	@NotNull Query query,
-												boolean isPhraseQuery,
 												@NotNull String text)
 			throws CheckedOutOfMemoryError {
 		text = trimDocument(text);
-		List<Range> ranges;
-		if (isPhraseQuery)
-			ranges = highlightPhrases(query, text);
-		else
-			ranges = highlight(query, text);
+		final List<Range> ranges = new ArrayList<Range>();
+		findRanges(query, text, new HighlightHandler() {
+			public void handleText(HighlightedString string) {
+			}
+			public void handleRanges(List<Range> newRanges) {
+				ranges.addAll(newRanges);
+			}
+			public boolean isStopped() {
+				return false;
+			}
+		});
 		return new HighlightedString(text, ranges);
 	}
 	
+	/**
+	 * Trims the given text and passes it to the given handler, then reports
+	 * the occurrences of the query terms to the handler as they are found.
+	 * This allows showing the text and the first occurrences before the
+	 * entire text has been processed.
+	 */
+	public static void highlight(	@NotNull Query query,
+									@NotNull String text,
+									@NotNull HighlightHandler handler)
+			throws CheckedOutOfMemoryError {
+		text = trimDocument(text);
+		handler.handleText(new HighlightedString(text, new ArrayList<Range>()));
+		if (!handler.isStopped())
+			findRanges(query, text, handler);
+	}
+	
+	/**
+	 * Returns a fragment of at most the given length from the given text,
+	 * chosen so that it contains as many occurrences of the query terms as
+	 * possible. Only the beginning of long texts is examined, and whitespace
+	 * in the returned fragment is collapsed. If there are no occurrences, the
+	 * beginning of the text is returned.
+	 */
+	@NotNull
+	public static String getSnippet(@NotNull Query query,
+									@NotNull String text,
+									int maxLength) throws CheckedOutOfMemoryError {
+		Util.checkThat(maxLength > 0);
+		if (text.length() > SNIPPET_ANALYSIS_LIMIT)
+			text = text.substring(0, SNIPPET_ANALYSIS_LIMIT);
+		final List<Range> ranges = new ArrayList<Range>();
+		findRanges(query, text, new HighlightHandler() {
+			public void handleText(HighlightedString string) {
+			}
+			public void handleRanges(List<Range> newRanges) {
+				ranges.addAll(newRanges);
+			}
+			public boolean isStopped() {
+				return ranges.size() >= SNIPPET_MAX_OCCURRENCES;
+			}
+		});
+		
+		// Find the window with the most occurrences
+		int bestStart = 0;
+		int bestEnd = 0;
+		int bestCount = 0;
+		int j = 0;
+		for (int i = 0; i < ranges.size(); i++) {
+			int start = ranges.get(i).start;
+			j = Math.max(j, i);
+			while (j < ranges.size() && getEnd(ranges.get(j)) - start <= maxLength)
+				j++;
+			if (j - i > bestCount) {
+				bestCount = j - i;
+				bestStart = start;
+				bestEnd = getEnd(ranges.get(j - 1));
+			}
+		}
+		
+		// Center the occurrences in the fragment and cut at word boundaries
+		int start = 0;
+		if (bestCount > 0) {
+			start = bestStart - (maxLength - (bestEnd - bestStart)) / 2;
+			start = Util.clamp(start, 0, Math.max(0, text.length() - maxLength));
+			int wordStart = start;
+			while (wordStart > 0 && wordStart < bestStart
+					&& !Character.isWhitespace(text.charAt(wordStart - 1)))
+				wordStart++;
+			if (wordStart < bestStart)
+				start = wordStart;
+		}
+		int end = Math.min(start + maxLength, text.length());
+		if (end < text.length()) {
+			int wordEnd = end;
+			while (wordEnd > Math.max(start, bestEnd)
+					&& !Character.isWhitespace(text.charAt(wordEnd)))
+				wordEnd--;
+			if (wordEnd > Math.max(start, bestEnd))
+				end = wordEnd;
+		}
+		
+		String snippet = text.substring(start, end).replaceAll("\\s+", " ").trim();
+		if (start > 0)
+			snippet = "..." + snippet;
+		if (end < text.length())
+			snippet += "...";
+		return snippet;
+	}
+	
+	private static int getEnd(@NotNull Range range) {
+		return range.start + range.length;
+	}
+	
 	/**
 	 * Trims the given string as follows:
 	 * <ul>
@@ -92,97 +192,20 @@ public final class HighlightService {
 		return "";
 	}
 	
-	@MutableCopy
-	@NotNull
-	@SuppressWarnings("unchecked")
-	private static List<Range> highlightPhrases(@NotNull Query query,
-												@NotNull String text)
-			throws CheckedOutOfMemoryError {
-		// FastVectorHighlighter only supports TermQuery, PhraseQuery and BooleanQuery
-		FastVectorHighlighter highlighter = new FastVectorHighlighter(true, true, null, null);
-		FieldQuery fieldQuery = highlighter.getFieldQuery(query);
-		Directory directory = new RAMDirectory();
-		try {
-			/*
-			 * Hack: We have to put the given text in a RAM index, because the
-			 * fast-vector highlighter can only work on index readers
-			 */
-			IndexWriterAdapter writer = new IndexWriterAdapter(directory);
-			Document doc = new Document();
-			doc.add(Fields.createContent(text, true)); // must store token positions and offsets
-			writer.add(doc);
-			Closeables.closeQuietly(writer); // flush unwritten documents into index
-			IndexReader indexReader = IndexReader.open(directory);
-			
-			// This might throw an OutOfMemoryError
-			FieldTermStack fieldTermStack = new FieldTermStack(
-				indexReader, 0, Fields.CONTENT.key(), fieldQuery);
-			
-			FieldPhraseList fieldPhraseList = new FieldPhraseList(fieldTermStack, fieldQuery);
-			
-			// Hack: We'll use reflection to access a private field
-			java.lang.reflect.Field field = fieldPhraseList.getClass().getDeclaredField("phraseList");
-			field.setAccessible(true);
-			LinkedList<WeightedPhraseInfo> infoList = (LinkedList<WeightedPhraseInfo>) field.get(fieldPhraseList);
-			
-			List<Range> ranges = new ArrayList<Range> (infoList.size());
-			for (WeightedPhraseInfo phraseInfo : infoList) {
-				int start = phraseInfo.getStartOffset();
-				int end = phraseInfo.getEndOffset();
-				ranges.add(new Range(start, end - start));
-			}
-			return ranges;
-		}
-		catch (OutOfMemoryError e) {
-			throw new CheckedOutOfMemoryError(e);
-		}
-		catch (Exception e) {
-			return new ArrayList<Range> (0);
-		}
-	}
-	
-	@MutableCopy
-	@NotNull
-	private static List<Range> highlight(	@NotNull Query query,
-											@NotNull String text)
+	private static void findRanges(	@NotNull Query query,
+									@NotNull String text,
+									@NotNull HighlightHandler handler)
 			throws CheckedOutOfMemoryError {
-		final List<Range> ranges = new ArrayList<Range> ();
-		/*
-		 * A formatter is supposed to return formatted text, but since we're
-		 * only interested in the start and end offsets of the search terms, we
-		 * return null and store the offsets in a list.
-		 */
-		Formatter nullFormatter = new Formatter() {
-			public String highlightTerm(String originalText, TokenGroup tokenGroup) {
-				for (int i = 0; i < tokenGroup.getNumTokens(); i++) {
-					Token token = tokenGroup.getToken(i);
-					if (tokenGroup.getScore(i) == 0)
-						continue;
-					int start = token.startOffset();
-					int end = token.endOffset();
-					ranges.add(new Range(start, end - start));
-				}
-				return null;
-			}
-		};
-		String key = Fields.CONTENT.key();
-		Highlighter highlighter = new Highlighter(nullFormatter, new QueryScorer(query, key));
-		highlighter.setMaxDocCharsToAnalyze(Integer.MAX_VALUE);
-		highlighter.setTextFragmenter(new NullFragmenter());
 		try {
-			/*
-			 * This has a return value, but we ignore it since we only want the
-			 * offsets. Might throw an OutOfMemoryError.
-			 */
-			highlighter.getBestFragment(IndexRegistry.analyzer, key, text);
+			new StreamingHighlighter(query).highlight(
+				new StringReader(text), handler);
 		}
 		catch (OutOfMemoryError e) {
 			throw new CheckedOutOfMemoryError(e);
 		}
-		catch (Exception e) {
+		catch (IOException e) {
 			Util.printErr(e);
 		}
-		return ranges;
 	}
 	
 }
@@ -12,10 +12,14 @@
 package net.sourceforge.docfetcher.model.search;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
+import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
 
@@ -39,6 +43,7 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
 import org.junit.Test;
 
+import com.google.common.base.Joiner;
 import com.google.common.io.Closeables;
 
 /**
@@ -81,4 +86,72 @@ public final class HighlightServiceTest {
 	    assertEquals(9, list.get(0).getEndOffset());
 	}
 
+	@Test
+	public void testStreamingHighlighter() throws Exception {
+		String text = "some text, more text and some textual tex";
+		assertEquals("5-4 16-4", highlight("text", text));
+		assertEquals("0-9 11-4", highlight("\"some text\" more", text));
+		assertEquals("0-9 25-4", highlight("\"some text\" some", text));
+		assertEquals("5-4 16-4 30-7 38-3", highlight("tex*", text));
+		assertEquals("5-4 16-4", highlight("t?xt", text));
+		assertEquals("5-4 16-4 38-3", highlight("text~0.6", text));
+		assertEquals("11-4", highlight("more -text", text));
+		assertEquals("", highlight("filename:text", text));
+		
+		// Batches are delivered in order and without overlaps
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+			sb.append("lorem ipsum dolor ");
+		HighlightedString string = HighlightService.highlight(
+			parse("\"ipsum dolor\" lorem"), sb.toString());
+		assertEquals(10000, string.getRangeCount());
+		int lastEnd = -1;
+		for (Range range : string.getRanges()) {
+			assertTrue(range.start >= lastEnd);
+			lastEnd = range.start + range.length;
+		}
+	}
+	
+	@Test
+	public void testSnippet() throws Exception {
+		StringBuilder sb = new StringBuilder("lorem text ");
+		for (int i = 0; i < 100; i++)
+			sb.append("ipsum\n");
+		sb.append("dolor text sit text amet");
+		for (int i = 0; i < 100; i++)
+			sb.append(" ipsum");
+		String text = sb.toString();
+		
+		// The fragment with two occurrences wins over the one with a single one
+		String snippet = HighlightService.getSnippet(parse("text"), text, 40);
+		assertTrue(snippet.startsWith("..."));
+		assertTrue(snippet.endsWith("..."));
+		assertTrue(snippet.contains("dolor text sit text amet"));
+		assertTrue(snippet.length() <= 46);
+		assertEquals(-1, snippet.indexOf('\n'));
+		
+		// Without occurrences, the beginning of the text is returned
+		assertEquals(
+			"lorem text ipsum...",
+			HighlightService.getSnippet(parse("nothing"), text, 20));
+		assertEquals("a b", HighlightService.getSnippet(parse("b"), "a \n b", 20));
+	}
+	
+	private static String highlight(String queryString, String text)
+			throws Exception {
+		HighlightedString string = HighlightService.highlight(
+			parse(queryString), text);
+		List<String> ranges = new ArrayList<String>();
+		for (Range range : string.getRanges())
+			ranges.add(range.start + "-" + range.length);
+		return Joiner.on(' ').join(ranges);
+	}
+	
+	private static Query parse(String queryString) throws Exception {
+		QueryParser queryParser = new QueryParser(
+			IndexRegistry.LUCENE_VERSION, Fields.CONTENT.key(),
+			IndexRegistry.analyzer);
+		return queryParser.parse(queryString);
+	}
+
 }
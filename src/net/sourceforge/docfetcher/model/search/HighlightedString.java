@@ -61,6 +61,14 @@ public final class HighlightedString {
 		return ranges.size();
 	}
 	
+	/**
+	 * Adds the given ranges to the receiver. The ranges must be in ascending
+	 * order and must come after the existing ranges.
+	 */
+	public void addRanges(@NotNull List<Range> newRanges) {
+		ranges.addAll(newRanges);
+	}
+	
 	// The receiver is modified, the given highlighted string is not
 	public void add(@NotNull HighlightedString otherString) {
 		Util.checkNotNull(otherString);
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.ImmutableCopy;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ * A least-recently-used cache of search results, bounded by the estimated
+ * memory size of the cached results. The cache keys are created by the
+ * searcher and include the versions of the index readers the results were
+ * obtained from, so that a result list is never returned for a different
+ * state of the indexes. In addition, the entries of an index can be removed
+ * explicitly when its reader is replaced, so that unreachable entries don't
+ * take up memory until they're evicted.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class QueryCache<I> {
+
+	// Rough per-object overhead of a result document and a stored field
+	private static final int DOC_OVERHEAD = 256;
+	private static final int FIELD_OVERHEAD = 64;
+
+	private static final class Entry<I> {
+		private final List<ResultDocument> results;
+		private final Collection<I> indexes;
+		private final long size;
+
+		private Entry(	@NotNull List<ResultDocument> results,
+						@NotNull Collection<I> indexes,
+						long size) {
+			this.results = results;
+			this.indexes = indexes;
+			this.size = size;
+		}
+	}
+
+	private final long capacity;
+	private final LinkedHashMap<String, Entry<I>> entries = new LinkedHashMap<String, Entry<I>>(16, 0.75f, true); // guarded by 'this' lock
+	private long size = 0; // guarded by 'this' lock
+
+	/**
+	 * Creates a cache with the given capacity in bytes. A capacity of zero
+	 * disables the cache.
+	 */
+	public QueryCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	@Nullable
+	public synchronized List<ResultDocument> get(@NotNull String key) {
+		Entry<I> entry = entries.get(key);
+		return entry == null ? null : entry.results;
+	}
+
+	/**
+	 * Puts the given results into the cache, along with the indexes the
+	 * results were obtained from. Results that are larger than the capacity of
+	 * the cache are not cached. The given collections must not be modified
+	 * afterwards.
+	 */
+	public synchronized void put(	@NotNull String key,
+									@ImmutableCopy @NotNull List<ResultDocument> results,
+									@NotNull Collection<I> indexes) {
+		Util.checkNotNull(key, results, indexes);
+		if (capacity <= 0)
+			return;
+		long entrySize = estimateSize(results);
+		if (entrySize > capacity)
+			return;
+		Entry<I> oldEntry = entries.put(key, new Entry<I>(results, indexes, entrySize));
+		if (oldEntry != null)
+			size -= oldEntry.size;
+		size += entrySize;
+
+		// Evict least recently used entries
+		Iterator<Entry<I>> it = entries.values().iterator();
+		while (size > capacity && it.hasNext()) {
+			size -= it.next().size;
+			it.remove();
+		}
+	}
+
+	public synchronized void remove(@NotNull String key) {
+		Entry<I> entry = entries.remove(key);
+		if (entry != null)
+			size -= entry.size;
+	}
+
+	/**
+	 * Removes all entries containing results from the given index.
+	 */
+	public synchronized void invalidate(@NotNull I index) {
+		Iterator<Entry<I>> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry<I> entry = it.next();
+			if (entry.indexes.contains(index)) {
+				size -= entry.size;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private static long estimateSize(@NotNull List<ResultDocument> results) {
+		long size = 0;
+		for (ResultDocument result : results)
+			size += estimateSize(result.getLuceneDoc());
+		return size;
+	}
+
+	// Estimates the memory used by the stored fields of the given document
+	private static long estimateSize(@NotNull Document luceneDoc) {
+		long size = DOC_OVERHEAD;
+		for (Fieldable field : luceneDoc.getFields()) {
+			size += FIELD_OVERHEAD;
+			if (field.isBinary())
+				size += field.getBinaryLength();
+			else if (field.stringValue() != null)
+				size += 2 * field.stringValue().length();
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.HotColdFileCache;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.file.FileFactory;
+import net.sourceforge.docfetcher.model.index.outlook.OutlookMailFactory;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class QueryCacheTest {
+
+	@Test
+	public void testEviction() {
+		List<ResultDocument> results = createResults(10);
+		QueryCache<String> cache = new QueryCache<String>(Long.MAX_VALUE);
+		cache.put("a", results, Arrays.asList("index1"));
+		long entrySize = cache.getSize();
+
+		// Room for two entries
+		cache = new QueryCache<String>(entrySize * 2);
+		cache.put("a", results, Arrays.asList("index1"));
+		cache.put("b", results, Arrays.asList("index1"));
+		assertSame(results, cache.get("a")); // 'b' is now least recently used
+		cache.put("c", results, Arrays.asList("index1"));
+		assertEquals(2, cache.getEntryCount());
+		assertEquals(entrySize * 2, cache.getSize());
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+
+		// Entries larger than the capacity are not cached
+		cache.put("d", createResults(30), Arrays.asList("index1"));
+		assertNull(cache.get("d"));
+		assertEquals(2, cache.getEntryCount());
+
+		// Disabled cache
+		cache = new QueryCache<String>(0);
+		cache.put("a", Collections.<ResultDocument>emptyList(), Arrays.asList("index1"));
+		assertEquals(0, cache.getEntryCount());
+	}
+
+	@Test
+	public void testInvalidate() {
+		List<ResultDocument> results = createResults(1);
+		QueryCache<String> cache = new QueryCache<String>(Long.MAX_VALUE);
+		cache.put("a", results, Arrays.asList("index1"));
+		cache.put("b", results, Arrays.asList("index1", "index2"));
+		cache.put("c", results, Arrays.asList("index2"));
+		cache.invalidate("index1");
+		assertNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertSame(results, cache.get("c"));
+		cache.invalidate("index2");
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0, cache.getSize());
+
+		cache.put("a", results, Arrays.asList("index1"));
+		cache.remove("a");
+		cache.remove("a");
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getSize());
+	}
+
+	private static List<ResultDocument> createResults(int count) {
+		HotColdFileCache unpackCache = new HotColdFileCache(1);
+		FileFactory fileFactory = new FileFactory(unpackCache);
+		OutlookMailFactory mailFactory = new OutlookMailFactory(unpackCache);
+		ResultDocument[] results = new ResultDocument[count];
+		for (int i = 0; i < count; i++) {
+			Document luceneDoc = new Document();
+			luceneDoc.add(new Field(
+				Fields.UID.key(), "uid" + i, Store.YES, Index.NOT_ANALYZED));
+			luceneDoc.add(new Field(
+				Fields.FILENAME.key(), "file.txt", Store.YES, Index.NO));
+			results[i] = new ResultDocument(
+				luceneDoc, 1, new MatchAllDocsQuery(), new IndexingConfig(),
+				fileFactory, mailFactory);
+		}
+		return Arrays.asList(results);
+	}
+
+}
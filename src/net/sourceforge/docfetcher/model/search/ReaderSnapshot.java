@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.Immutable;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.util.ReaderUtil;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * An immutable set of Lucene searchers that searches can run on without
+ * holding the registry lock. The snapshot holds a reference on each of the
+ * underlying index readers, so the readers stay open while the snapshot is in
+ * use, even if the searcher has closed its own Lucene searchers in the
+ * meantime. Each search acquires a reference on the snapshot with
+ * {@link #tryAcquire()} and gives it back with {@link #release()}. When the
+ * last reference is given back, the snapshot releases the index readers,
+ * which closes those readers that aren't used anymore.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class ReaderSnapshot {
+
+	@NotNull public final MultiSearcher luceneSearcher;
+	@Immutable @NotNull public final List<LuceneIndex> indexes;
+	@Immutable @NotNull public final Map<LuceneIndex, Searchable> searchables;
+
+	// Identifies the state of the indexes, see Searcher.getReaderVersions
+	@NotNull public final String readerVersions;
+
+	/*
+	 * Whether all segments of the given index readers contain a sort title
+	 * for every document, keyed by the core cache keys of the segments. Since
+	 * the documents of a segment never change, the result can be cached for
+	 * the lifetime of the segment.
+	 */
+	private static final Map<Object, Boolean> sortFieldsCache = new MapMaker().weakKeys().makeMap();
+	
+	// Computed on demand, see hasSortFields()
+	@Nullable private volatile Boolean hasSortFields;
+	
+	// Initially one, for the reference held by the searcher
+	private final AtomicInteger refCount = new AtomicInteger(1);
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	/**
+	 * Creates a new snapshot and acquires a reference on the index readers of
+	 * the given searchables. The given searchables and indexes must have the
+	 * same order.
+	 */
+	public ReaderSnapshot(	@NotNull List<LuceneIndex> indexes,
+							@NotNull Searchable[] searchables,
+							@NotNull String readerVersions)
+			throws IOException {
+		Util.checkNotNull(indexes, searchables, readerVersions);
+		Util.checkThat(indexes.size() == searchables.length);
+
+		/*
+		 * The MultiSearcher must not be closed, since that would close the
+		 * Lucene searchers it wraps. These are closed by the searcher.
+		 */
+		luceneSearcher = new MultiSearcher(searchables);
+
+		ImmutableMap.Builder<LuceneIndex, Searchable> builder = ImmutableMap.builder();
+		for (int i = 0; i < searchables.length; i++) {
+			builder.put(indexes.get(i), searchables[i]);
+			if (searchables[i] instanceof IndexSearcher)
+				((IndexSearcher) searchables[i]).getIndexReader().incRef();
+		}
+		this.indexes = ImmutableList.copyOf(indexes);
+		this.searchables = builder.build();
+		this.readerVersions = readerVersions;
+	}
+
+	/**
+	 * Acquires a reference on the receiver. Returns false if the receiver has
+	 * already been closed, in which case the caller should retry with the
+	 * current snapshot of the searcher.
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int count = refCount.get();
+			if (count <= 0)
+				return false;
+			if (refCount.compareAndSet(count, count + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Gives back a reference on the receiver. When the last reference is
+	 * given back, the references on the underlying index readers are released.
+	 */
+	public void release() {
+		int count = refCount.decrementAndGet();
+		Util.checkThat(count >= 0);
+		if (count > 0)
+			return;
+		for (Searchable searchable : searchables.values()) {
+			if (!(searchable instanceof IndexSearcher))
+				continue;
+			try {
+				((IndexSearcher) searchable).getIndexReader().decRef();
+			}
+			catch (IOException e) {
+				Util.printErr(e);
+			}
+		}
+		closed.countDown();
+	}
+
+	/**
+	 * Returns whether all documents in the receiver's indexes contain the
+	 * sort fields. This is not the case for documents indexed by older program
+	 * versions, so that sorting by title or date must be done without the sort
+	 * fields if the indexes contain such documents. Must only be called while
+	 * holding a reference on the receiver.
+	 */
+	public boolean hasSortFields() throws IOException {
+		Boolean value = hasSortFields;
+		if (value != null)
+			return value;
+		boolean result = true;
+		List<IndexReader> segments = new ArrayList<IndexReader>();
+		for (Searchable searchable : searchables.values())
+			if (searchable instanceof IndexSearcher)
+				ReaderUtil.gatherSubReaders(segments, ((IndexSearcher) searchable).getIndexReader());
+		for (IndexReader segment : segments) {
+			if (!hasSortFields(segment)) {
+				result = false;
+				break;
+			}
+		}
+		hasSortFields = result;
+		return result;
+	}
+	
+	/*
+	 * The sort title is indexed as a single term, so each document with a sort
+	 * title adds exactly one to the document frequencies of the sort title
+	 * terms. Deleted documents count for both the document frequencies and
+	 * maxDoc.
+	 */
+	private static boolean hasSortFields(@NotNull IndexReader segment)
+			throws IOException {
+		Object key = segment.getCoreCacheKey();
+		Boolean cached = sortFieldsCache.get(key);
+		if (cached != null)
+			return cached;
+		String field = Fields.SORT_TITLE.key();
+		long count = 0;
+		TermEnum terms = segment.terms(new Term(field, ""));
+		try {
+			do {
+				Term term = terms.term();
+				if (term == null || !term.field().equals(field))
+					break;
+				count += terms.docFreq();
+			}
+			while (terms.next());
+		}
+		finally {
+			terms.close();
+		}
+		boolean result = count >= segment.maxDoc();
+		sortFieldsCache.put(key, result);
+		return result;
+	}
+	
+	public boolean isClosed() {
+		return closed.getCount() == 0;
+	}
+
+	/**
+	 * Waits until all references on the receiver have been given back.
+	 */
+	public void awaitClose() {
+		Uninterruptibles.awaitUninterruptibly(closed);
+	}
+
+}
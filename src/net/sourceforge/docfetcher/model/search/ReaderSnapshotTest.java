@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class ReaderSnapshotTest {
+
+	@Test
+	public void testRefCounting() throws Exception {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+			IndexRegistry.LUCENE_VERSION, IndexRegistry.analyzer));
+		Document doc = new Document();
+		doc.add(Fields.TITLE.create("title"));
+		writer.addDocument(doc);
+		writer.close();
+
+		File tempDir = Util.createTempDir();
+		try {
+			LuceneIndex index = new FileIndex(null, tempDir);
+			IndexSearcher indexSearcher = new IndexSearcher(dir);
+			ReaderSnapshot snapshot = new ReaderSnapshot(
+				Collections.singletonList(index),
+				new Searchable[] { indexSearcher }, "");
+
+			// A search starts, then the searcher closes its Lucene searcher
+			assertTrue(snapshot.tryAcquire());
+			indexSearcher.close();
+			snapshot.release();
+			assertFalse(snapshot.isClosed());
+
+			// The index reader stays open while the snapshot is in use
+			assertEquals(1, snapshot.luceneSearcher.search(
+				new MatchAllDocsQuery(), 10).totalHits);
+			assertEquals(1, indexSearcher.getIndexReader().getRefCount());
+
+			// The searcher gives back its reference
+			snapshot.release();
+			assertTrue(snapshot.isClosed());
+			assertFalse(snapshot.tryAcquire());
+			assertEquals(0, indexSearcher.getIndexReader().getRefCount());
+			snapshot.awaitClose(); // doesn't block
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testHasSortFields() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			LuceneIndex index = new FileIndex(null, tempDir);
+			Directory dir = new RAMDirectory();
+			IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+				IndexRegistry.LUCENE_VERSION, IndexRegistry.analyzer));
+			Document doc = new Document();
+			doc.add(Fields.TITLE.create("new"));
+			doc.add(Fields.createSortTitle("new"));
+			writer.addDocument(doc);
+			writer.commit();
+			assertTrue(createSnapshot(index, dir).hasSortFields());
+
+			// Document indexed by an older program version
+			doc = new Document();
+			doc.add(Fields.TITLE.create("old"));
+			writer.addDocument(doc);
+			writer.commit();
+			assertFalse(createSnapshot(index, dir).hasSortFields());
+
+			// The older document is still there after merging
+			writer.forceMerge(1);
+			writer.close();
+			assertFalse(createSnapshot(index, dir).hasSortFields());
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static ReaderSnapshot createSnapshot(LuceneIndex index, Directory dir)
+			throws Exception {
+		return new ReaderSnapshot(
+			Collections.singletonList(index),
+			new Searchable[] { new IndexSearcher(dir) }, "");
+	}
+
+}
@@ -13,6 +13,7 @@ package net.sourceforge.docfetcher.model.search;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Date;
 
 import net.sourceforge.docfetcher.model.DocumentType;
@@ -30,6 +31,7 @@ import net.sourceforge.docfetcher.model.parse.ParseService;
 import net.sourceforge.docfetcher.model.parse.Parser;
 import net.sourceforge.docfetcher.model.parse.PdfParser;
 import net.sourceforge.docfetcher.model.parse.TextParser;
+import net.sourceforge.docfetcher.model.search.HighlightService.HighlightHandler;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -54,14 +56,24 @@ public final class ResultDocument {
 		public boolean isStopped();
 	}
 	
+	private static final int SNIPPET_LENGTH = 200;
+	
 	private final Document luceneDoc;
 	private final float score;
 	private final Query query;
-	private final boolean isPhraseQuery;
 	private final IndexingConfig config;
 	private final FileFactory fileFactory;
 	private final OutlookMailFactory mailFactory;
 	
+	/*
+	 * For loading the stored text when a snippet is requested. The text isn't
+	 * loaded during the search, so that it doesn't take up memory in the
+	 * results and in the query cache.
+	 */
+	@Nullable private final Searcher searcher;
+	private final int docId;
+	@Nullable private final String readerVersions;
+	
 	// Cached values
 	private final String uid;
 	private final boolean isEmail;
@@ -73,18 +85,36 @@ public final class ResultDocument {
 	public ResultDocument(	@NotNull Document luceneDoc,
 							float score,
 							@NotNull Query query,
-							boolean isPhraseQuery,
 							@NotNull IndexingConfig config,
 							@NotNull FileFactory fileFactory,
 							@NotNull OutlookMailFactory mailFactory) {
+		this(luceneDoc, score, query, config, fileFactory, mailFactory, null, -1, null);
+	}
+	
+	/**
+	 * The given document ID and reader versions are those of the searcher's
+	 * reader snapshot the document was found in. They allow loading the
+	 * stored text of the document by document ID, see {@link #getSnippet()}.
+	 */
+	ResultDocument(	@NotNull Document luceneDoc,
+					float score,
+					@NotNull Query query,
+					@NotNull IndexingConfig config,
+					@NotNull FileFactory fileFactory,
+					@NotNull OutlookMailFactory mailFactory,
+					@Nullable Searcher searcher,
+					int docId,
+					@Nullable String readerVersions) {
 		Util.checkNotNull(luceneDoc, query, config, fileFactory, mailFactory);
 		this.luceneDoc = luceneDoc;
 		this.score = score;
 		this.query = query;
-		this.isPhraseQuery = isPhraseQuery;
 		this.config = config;
 		this.fileFactory = fileFactory;
 		this.mailFactory = mailFactory;
+		this.searcher = searcher;
+		this.docId = docId;
+		this.readerVersions = readerVersions;
 		
 		uid = luceneDoc.get(Fields.UID.key());
 		isEmail = DocumentType.isEmailType(uid);
@@ -99,7 +129,13 @@ public final class ResultDocument {
 		if (! isEmail)
 			throw new UnsupportedOperationException();
 	}
-	
+
+	// Used for estimating the memory size of cached results
+	@NotNull
+	Document getLuceneDoc() {
+		return luceneDoc;
+	}
+
 	// returns filename title or email subject
 	@NotNull
 	public String getTitle() {
@@ -217,6 +253,36 @@ public final class ResultDocument {
 		return parserName.equals(parserClass.getSimpleName());
 	}
 	
+	/**
+	 * Returns a fragment of the document text around the best-matching
+	 * occurrences of the query terms, or null if the text of the document
+	 * wasn't stored in the index. Unlike the preview, this doesn't require
+	 * parsing the file. Only the beginning of the stored text is loaded from
+	 * the index and decompressed. The result is not cached.
+	 */
+	// Should be run in a thread
+	@Nullable
+	public String getSnippet() throws CheckedOutOfMemoryError {
+		if (searcher == null)
+			return null;
+		String text;
+		try {
+			text = searcher.loadText(
+				uid, docId, readerVersions,
+				HighlightService.SNIPPET_ANALYSIS_LIMIT);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			return null;
+		}
+		catch (SearchException e) {
+			return null; // The searcher has been shut down
+		}
+		if (text == null)
+			return null;
+		return HighlightService.getSnippet(query, text, SNIPPET_LENGTH);
+	}
+	
 	// Should be run in a thread
 	// thrown parse exception has localized error message
 	@NotNull
@@ -237,12 +303,17 @@ public final class ResultDocument {
 		}
 	}
 	
+	/**
+	 * Parses the document and passes the trimmed text to the given handler,
+	 * followed by the occurrences of the query terms as they are found.
+	 */
 	// Should be run in a thread
 	// thrown parse exception has localized error message
-	@NotNull
-	public HighlightedString getHighlightedText() throws ParseException,
-			FileNotFoundException, CheckedOutOfMemoryError {
-		return HighlightService.highlight(query, isPhraseQuery, getText());
+	public void readHighlightedText(@NotNull HighlightHandler handler)
+			throws ParseException, FileNotFoundException,
+			CheckedOutOfMemoryError {
+		Util.checkNotNull(handler);
+		HighlightService.highlight(query, getText(), handler);
 	}
 	
 	// should be run in a thread
@@ -259,9 +330,7 @@ public final class ResultDocument {
 				protected void handlePage(String pageText) {
 					HighlightedString string;
 					try {
-						string = HighlightService.highlight(
-								query, isPhraseQuery, pageText
-						);
+						string = HighlightService.highlight(query, pageText);
 					}
 					catch (CheckedOutOfMemoryError e) {
 						throw e.getOutOfMemoryError();
@@ -309,7 +378,7 @@ public final class ResultDocument {
 	public MailResource getMailResource() throws ParseException,
 			FileNotFoundException, CheckedOutOfMemoryError {
 		onlyEmails();
-		return mailFactory.createMail(config, query, isPhraseQuery, getPath());
+		return mailFactory.createMail(config, query, getPath());
 	}
 
 }
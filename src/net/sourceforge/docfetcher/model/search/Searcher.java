@@ -15,16 +15,24 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
 
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.enums.SettingsConf;
+import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.IndexLoadingProblems.CorruptedIndex;
 import net.sourceforge.docfetcher.model.IndexRegistry;
@@ -32,10 +40,12 @@ import net.sourceforge.docfetcher.model.IndexRegistry.ExistingIndexesHandler;
 import net.sourceforge.docfetcher.model.LuceneIndex;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.PendingDeletion;
+import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.file.FileFactory;
 import net.sourceforge.docfetcher.model.index.outlook.OutlookMailFactory;
 import net.sourceforge.docfetcher.model.parse.Parser;
+import net.sourceforge.docfetcher.model.search.CancelableCollector.CanceledException;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
@@ -45,14 +55,20 @@ import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
-import net.sourceforge.docfetcher.util.collect.AlphanumComparator;
 import net.sourceforge.docfetcher.util.collect.LazyList;
+import net.sourceforge.docfetcher.util.collect.ListMap;
+import net.sourceforge.docfetcher.util.collect.ListMap.Entry;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.ChainedFilter;
+import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
@@ -61,12 +77,23 @@ import org.apache.lucene.search.MultiTermQuery;
 import org.apache.lucene.search.MultiTermQuery.RewriteMethod;
 import org.apache.lucene.search.NumericRangeFilter;
 import org.apache.lucene.search.PrefixFilter;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TermsFilter;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TimeLimitingCollector.TimeExceededException;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
 
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 
 /**
@@ -74,6 +101,11 @@ import com.google.common.io.Closeables;
  * thread-safe, so usually only one instance of it is needed for handling
  * concurrent search requests.
  * <p>
+ * Searches don't acquire the registry lock. Instead, each search runs on the
+ * {@link ReaderSnapshot} that was current when the search started, so that
+ * long searches don't block indexing and vice versa. The registry lock is only
+ * used for replacing the current snapshot when the registry changes.
+ * <p>
  * <b>Important</b>: Instances of this class must be disposed after usage by
  * calling {@link #shutdown()}.
  * 
@@ -110,8 +142,58 @@ public final class Searcher {
 		}
 	}
 	
+	/**
+	 * The results of a desktop search.
+	 */
+	public static final class Results {
+		/**
+		 * The result documents, which are the top results according to the
+		 * sort spec of the search.
+		 */
+		@ImmutableCopy
+		public final List<ResultDocument> resultDocuments;
+		
+		/**
+		 * Whether the search was stopped because it exceeded its time limit.
+		 * In this case, the result documents are the top results among the
+		 * documents matched before the search was stopped. If the time limit
+		 * was exceeded while loading the result documents, only those loaded
+		 * so far are returned.
+		 */
+		public final boolean incomplete;
+		
+		private Results(@NotNull List<ResultDocument> resultDocuments,
+						boolean incomplete) {
+			this.resultDocuments = Util.checkNotNull(resultDocuments);
+			this.incomplete = incomplete;
+		}
+	}
+	
 	private static final int PAGE_SIZE = ProgramConf.Int.WebInterfacePageSize.get();
 	public static final int MAX_RESULTS = ProgramConf.Int.MaxResultsTotal.get();
+	private static final long TIME_LIMIT = ProgramConf.Int.SearchTimeLimit.get() * 1000L;
+	
+	/*
+	 * The stored text of the documents can be large, so it isn't loaded for
+	 * the search results. Instead, it is loaded on demand, see loadText.
+	 */
+	private static final FieldSelector resultFieldSelector = new FieldSelector() {
+		private static final long serialVersionUID = 1L;
+		public FieldSelectorResult accept(String fieldName) {
+			return fieldName.equals(Fields.TEXT.key())
+				? FieldSelectorResult.NO_LOAD
+				: FieldSelectorResult.LOAD;
+		}
+	};
+	
+	private static final FieldSelector textFieldSelector = new FieldSelector() {
+		private static final long serialVersionUID = 1L;
+		public FieldSelectorResult accept(String fieldName) {
+			return fieldName.equals(Fields.TEXT.key())
+				? FieldSelectorResult.LOAD_AND_BREAK
+				: FieldSelectorResult.NO_LOAD;
+		}
+	};
 	
 	private final IndexRegistry indexRegistry;
 	private final FileFactory fileFactory;
@@ -121,11 +203,24 @@ public final class Searcher {
 	private final BlockingQueue<List<PendingDeletion>> deletionQueue = new LinkedBlockingQueue<List<PendingDeletion>>(); // guarded by 'this' lock
 	private final Thread deletionThread; // guarded by 'this' lock
 	
-	@NotNull private MultiSearcher luceneSearcher; // guarded by read-write lock
-	@NotNull private List<LuceneIndex> indexes; // guarded by read-write lock
-	@Nullable private volatile IOException ioException;
+	// The snapshot new searches run on; null after shutdown
+	@Nullable private volatile ReaderSnapshot snapshot; // replaced while holding write lock
+	
+	// Replaced snapshots that may still be in use by running searches
+	private final Queue<ReaderSnapshot> oldSnapshots = new ConcurrentLinkedQueue<ReaderSnapshot>();
 	
-	private final Lock readLock;
+	// The Lucene searchers of the current indexes, which are reused when the
+	// snapshot is replaced, unless the underlying index has changed
+	private final Map<LuceneIndex, Searchable> searchables = Maps.newHashMap(); // guarded by write lock
+	
+	// Lucene searchers opened in advance by openIndex(LuceneIndex)
+	private final Map<LuceneIndex, Searchable> preopened = new ConcurrentHashMap<LuceneIndex, Searchable>();
+	@Nullable private volatile IOException ioException;
+
+	// Results of recent searches, keyed by query, sort spec and reader versions
+	private final QueryCache<LuceneIndex> queryCache = new QueryCache<LuceneIndex>(
+		ProgramConf.Int.QueryCacheSize.get() * 1024L * 1024L);
+
 	private final Lock writeLock;
 
 	/**
@@ -147,13 +242,24 @@ public final class Searcher {
 		this.fileFactory = fileFactory;
 		this.outlookMailFactory = outlookMailFactory;
 		
-		readLock = indexRegistry.getReadLock();
 		writeLock = indexRegistry.getWriteLock();
 		
 		// Handler for index additions
 		addedListener = new Event.Listener<LuceneIndex>() {
 			public void update(LuceneIndex eventData) {
-				replaceLuceneSearcher();
+				writeLock.lock();
+				try {
+					/*
+					 * The index may already be included if the registry
+					 * updated the searcher itself, as it does when reloading
+					 * several indexes at once.
+					 */
+					if (!searchables.containsKey(eventData))
+						replaceLuceneSearcher();
+				}
+				finally {
+					writeLock.unlock();
+				}
 			}
 		};
 		
@@ -188,7 +294,7 @@ public final class Searcher {
 				while (true) {
 					try {
 						List<PendingDeletion> deletions = deletionQueue.take();
-						replaceLuceneSearcher();
+						releaseRemovedIndexes();
 						for (PendingDeletion deletion : deletions)
 							deletion.setApprovedBySearcher();
 					}
@@ -201,6 +307,34 @@ public final class Searcher {
 		deletionThread.start();
 	}
 	
+	/**
+	 * Opens the Lucene searcher for the given index before the index is added
+	 * to the registry. This allows opening the Lucene searchers of several
+	 * indexes in parallel and without holding the registry lock. The opened
+	 * searcher will be used as soon as the index is added to the registry.
+	 * If the Lucene searcher can't be opened, the index is treated as empty,
+	 * and it isn't opened again when it is added to the registry.
+	 */
+	@ThreadSafe
+	@VisibleForPackageGroup
+	public void openIndex(@NotNull LuceneIndex index) throws IOException {
+		Searchable searchable;
+		IOException exception = null;
+		try {
+			IndexSearcher indexSearcher = new IndexSearcher(index.getLuceneDir());
+			indexSearcher.setDefaultFieldSortScoring(true, false);
+			searchable = indexSearcher;
+		}
+		catch (IOException e) {
+			searchable = new DummySearchable();
+			exception = e;
+		}
+		Searchable oldSearchable = preopened.put(index, searchable);
+		Closeables.closeQuietly(oldSearchable);
+		if (exception != null)
+			throw exception;
+	}
+	
 	/**
 	 * Updates the cached indexes and replaces the current Lucene searcher with
 	 * a new one.
@@ -210,7 +344,6 @@ public final class Searcher {
 	public void replaceLuceneSearcher() {
 		writeLock.lock();
 		try {
-			Closeables.close(luceneSearcher, false);
 			setLuceneSearcher(indexRegistry.getIndexes());
 		}
 		catch (IOException e) {
@@ -221,33 +354,159 @@ public final class Searcher {
 		}
 	}
 	
-	// Caller must close returned searcher
+	/**
+	 * Replaces the current Lucene searcher like
+	 * {@link #replaceLuceneSearcher()} and then waits until all searches that
+	 * were started before have finished. After this method returns, the
+	 * indexes that are no longer in the registry aren't accessed anymore by
+	 * the receiver, so they can be cleared or deleted. This method should not
+	 * be called while holding the registry lock.
+	 */
+	@ThreadSafe
+	@VisibleForPackageGroup
+	public void releaseRemovedIndexes() {
+		replaceLuceneSearcher();
+		for (ReaderSnapshot oldSnapshot : oldSnapshots)
+			oldSnapshot.awaitClose();
+	}
+	
+	/*
+	 * Lucene searchers of indexes that are no longer in the given list are
+	 * closed, and Lucene searchers of indexes that were modified in the
+	 * meantime are reopened. The index readers of closed Lucene searchers stay
+	 * open until the searches running on older snapshots have finished. The
+	 * query cache entries of such indexes are invalidated only after the new
+	 * snapshot has been published, see search(...).
+	 */
 	@NotNull
 	@NotThreadSafe
 	private List<CorruptedIndex> setLuceneSearcher(@NotNull List<LuceneIndex> indexes)
 			throws IOException {
-		this.indexes = Util.checkNotNull(indexes);
-        Searchable[] searchables = new Searchable[indexes.size()];
+		Util.checkNotNull(indexes);
+		Map<LuceneIndex, Searchable> oldSearchables = Maps.newHashMap(searchables);
+		searchables.clear();
+        Searchable[] newSearchables = new Searchable[indexes.size()];
         LazyList<CorruptedIndex> corrupted = new LazyList<CorruptedIndex>();
+        List<LuceneIndex> invalidated = new ArrayList<LuceneIndex>();
 		for (int i = 0; i < indexes.size(); i++) {
 			LuceneIndex index = indexes.get(i);
-            try {
-                searchables[i] = new IndexSearcher(index.getLuceneDir());
-            }
-            catch (IOException e) {
-            	Util.printErr(e);
-                searchables[i] = new DummySearchable();
-                corrupted.add(new CorruptedIndex(index, e));
-            }
+			Searchable searchable = oldSearchables.remove(index);
+			if (searchable != null && !isCurrent(searchable)) {
+				Closeables.closeQuietly(searchable);
+				invalidated.add(index);
+				searchable = null;
+			}
+			if (searchable == null)
+				searchable = preopened.remove(index);
+			if (searchable == null) {
+				try {
+					IndexSearcher indexSearcher = new IndexSearcher(index.getLuceneDir());
+					indexSearcher.setDefaultFieldSortScoring(true, false);
+					searchable = indexSearcher;
+				}
+				catch (IOException e) {
+					Util.printErr(e);
+					searchable = new DummySearchable();
+					corrupted.add(new CorruptedIndex(index, e));
+				}
+			}
+			searchables.put(index, searchable);
+			newSearchables[i] = searchable;
         }
-        luceneSearcher = new MultiSearcher(searchables);
-        return corrupted;
+		for (Map.Entry<LuceneIndex, Searchable> entry : oldSearchables.entrySet()) {
+			Closeables.closeQuietly(entry.getValue());
+			invalidated.add(entry.getKey());
+		}
+		ReaderSnapshot oldSnapshot = snapshot;
+		snapshot = new ReaderSnapshot(
+			indexes, newSearchables, getReaderVersions(newSearchables));
+		for (LuceneIndex index : invalidated)
+			queryCache.invalidate(index);
+		if (oldSnapshot != null)
+			retire(oldSnapshot);
+		return corrupted;
 	}
 	
-	@ImmutableCopy
+	// Gives back the reference the receiver holds on the given snapshot
+	@NotThreadSafe
+	private void retire(@NotNull ReaderSnapshot oldSnapshot) {
+		Iterator<ReaderSnapshot> it = oldSnapshots.iterator();
+		while (it.hasNext())
+			if (it.next().isClosed())
+				it.remove();
+		oldSnapshots.add(oldSnapshot);
+		oldSnapshot.release();
+	}
+	
+	/*
+	 * Returns the current snapshot after acquiring a reference on it, which
+	 * must be given back by the caller. Doesn't block.
+	 */
+	@NotNull
+	@ThreadSafe
+	private ReaderSnapshot acquireSnapshot() throws SearchException {
+		while (true) {
+			ReaderSnapshot current = snapshot;
+			if (current == null)
+				throw new SearchException("The searcher has been shut down."); // TODO i18n
+			if (current.tryAcquire())
+				return current;
+			// The snapshot was replaced in the meantime, try again
+		}
+	}
+	
+	/*
+	 * Returns a string identifying the current state of the given searchables,
+	 * which is part of the query cache keys. Results cached before one of the
+	 * indexes was modified can thus not be returned, even if the invalidation
+	 * of the cache entries was missed.
+	 */
+	@NotNull
+	private static String getReaderVersions(@NotNull Searchable[] searchables) {
+		StringBuilder sb = new StringBuilder();
+		for (Searchable searchable : searchables) {
+			if (searchable instanceof IndexSearcher)
+				sb.append(((IndexSearcher) searchable).getIndexReader().getVersion());
+			else
+				sb.append(-1);
+			sb.append(' ');
+		}
+		return sb.toString();
+	}
+	
+	// Returns false for dummy searchables, so that corrupted indexes are
+	// opened again
+	private static boolean isCurrent(@NotNull Searchable searchable) {
+		if (!(searchable instanceof IndexSearcher))
+			return false;
+		try {
+			return ((IndexSearcher) searchable).getIndexReader().isCurrent();
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	@NotNull
+	@ThreadSafe
+	public Results search(@NotNull String queryString)
+			throws SearchException, CheckedOutOfMemoryError {
+		return search(queryString, SortSpec.SCORE);
+	}
+	
+	/**
+	 * Runs the given query and returns at most {@link #MAX_RESULTS} results,
+	 * which are the top results according to the given sort spec. The search
+	 * is stopped when it takes longer than the time limit set in the program
+	 * configuration, and the results found so far are returned. This keeps
+	 * expensive queries from occupying the thread of the search queue for
+	 * long, so that the user doesn't have to wait for them before the next
+	 * search or sort request is handled.
+	 */
 	@NotNull
 	@ThreadSafe
-	public List<ResultDocument> search(@NotNull String queryString)
+	public Results search(	@NotNull String queryString,
+							@NotNull SortSpec sortSpec)
 			throws SearchException, CheckedOutOfMemoryError {
 		/*
 		 * Note: For the desktop interface, we'll always search in all available
@@ -255,11 +514,51 @@ public final class Searcher {
 		 * allows the user to re-check the unchecked indexes and see previously
 		 * hidden results without starting another search.
 		 */
-		
-		// Create Lucene query
-		QueryWrapper queryWrapper = createQuery(queryString);
-		Query query = queryWrapper.query;
-		boolean isPhraseQuery = queryWrapper.isPhraseQuery;
+		Query query = createQuery(queryString);
+		Results results = search(
+			query, sortSpec, TIME_LIMIT, true, Cancelable.nullCancelable);
+		assert results != null;
+		return results;
+	}
+	
+	/**
+	 * Runs the given query for search-as-you-type, which differs from
+	 * {@link #search(String, SortSpec)} in the following ways: (1) If the
+	 * query string ends with a word that might be incomplete, the word is
+	 * expanded to all terms in the index that start with it. (2) The search is
+	 * aborted as soon as the given {@link Cancelable} is canceled, in which
+	 * case null is returned. (3) The results are not cached, so that the
+	 * results of the intermediate queries don't evict the results of the
+	 * queries the user actually ran.
+	 */
+	@Nullable
+	@ThreadSafe
+	public Results searchAsYouType(	@NotNull String queryString,
+									@NotNull SortSpec sortSpec,
+									@NotNull Cancelable cancelable)
+			throws SearchException, CheckedOutOfMemoryError {
+		Util.checkNotNull(cancelable);
+		Query query = createQuery(queryString);
+		int length = queryString.length();
+		if (length > 0 && Character.isLetterOrDigit(queryString.charAt(length - 1)))
+			query = expandLastTerm(query);
+		return search(query, sortSpec, TIME_LIMIT, false, cancelable);
+	}
+	
+	/*
+	 * Returns null if the search was canceled. A time limit of zero or less
+	 * means no time limit. The time limit covers both collecting the matching
+	 * documents and loading the result documents. Only complete results are
+	 * put into the cache.
+	 */
+	@Nullable
+	private Results search(	@NotNull Query query,
+							@NotNull SortSpec sortSpec,
+							long timeLimit,
+							boolean useCache,
+							@NotNull Cancelable cancelable)
+			throws SearchException, CheckedOutOfMemoryError {
+		Sort sort = sortSpec.createLuceneSort();
 		
 		/*
 		 * Notes regarding the following code:
@@ -274,25 +573,96 @@ public final class Searcher {
 		 * result documents must not access the indexes later on.
 		 */
 
-		readLock.lock();
+		long deadline = System.currentTimeMillis() + timeLimit;
+		ReaderSnapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
+			checkIndexesExist(snapshot.indexes);
+			
+			/*
+			 * The string representation of the parsed query is used as cache
+			 * key rather than the query string, so that query strings that
+			 * differ only in whitespace or in redundant syntax share an entry.
+			 */
+			String cacheKey = snapshot.readerVersions + sortSpec.criterion + " "
+					+ sortSpec.descending + " " + query;
+			if (useCache) {
+				List<ResultDocument> cachedResults = queryCache.get(cacheKey);
+				if (cachedResults != null)
+					return new Results(cachedResults, false);
+			}
+			
+			/*
+			 * If some of the indexes were created by older program versions
+			 * and lack the sort fields, the top results by score are collected
+			 * and sorted afterwards. Otherwise the documents without sort
+			 * fields would end up in an arbitrary order.
+			 */
+			boolean sortAfterwards = sortSpec.usesSortFields()
+				&& !snapshot.hasSortFields();
+			if (sortAfterwards)
+				sort = null;
 			
 			// Perform search; might throw OutOfMemoryError
-			ScoreDoc[] scoreDocs = luceneSearcher.search(query, MAX_RESULTS).scoreDocs;
+			TopDocsCollector<?> collector = sort == null
+				? TopScoreDocCollector.create(MAX_RESULTS, false)
+				: TopFieldCollector.create(sort, MAX_RESULTS, true, true, false, false);
+			Collector outerCollector = new CancelableCollector(collector, cancelable);
+			if (timeLimit > 0) {
+				TimeLimitingCollector timeLimitingCollector = new TimeLimitingCollector(
+					outerCollector, TimeLimitingCollector.getGlobalCounter(), timeLimit);
+				timeLimitingCollector.setBaseline();
+				outerCollector = timeLimitingCollector;
+			}
+			boolean incomplete = false;
+			MultiSearcher luceneSearcher = snapshot.luceneSearcher;
+			try {
+				luceneSearcher.search(query, null, outerCollector);
+			}
+			catch (TimeExceededException e) {
+				// The hits collected so far are still available
+				incomplete = true;
+			}
+			ScoreDoc[] scoreDocs = collector.topDocs().scoreDocs;
 
 			// Create result documents
 			ResultDocument[] results = new ResultDocument[scoreDocs.length];
 			for (int i = 0; i < scoreDocs.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				if (cancelable.isCanceled())
+					return null;
+				if (timeLimit > 0 && System.currentTimeMillis() > deadline) {
+					// Return the top results loaded so far
+					results = Arrays.copyOf(results, i);
+					incomplete = true;
+					break;
+				}
+				int docId = scoreDocs[i].doc;
+				Document doc = luceneSearcher.doc(docId, resultFieldSelector);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = snapshot.indexes.get(luceneSearcher.subSearcher(docId));
 				IndexingConfig config = index.getConfig();
 				results[i] = new ResultDocument(
-					doc, score, query, isPhraseQuery, config, fileFactory,
-					outlookMailFactory);
+					doc, score, query, config, fileFactory,
+					outlookMailFactory, this, docId, snapshot.readerVersions);
 			}
-			return Arrays.asList(results);
+			if (sortAfterwards)
+				sortResults(results, sortSpec);
+			List<ResultDocument> resultList = Collections.unmodifiableList(Arrays.asList(results));
+			if (useCache && !incomplete && snapshot == this.snapshot) {
+				queryCache.put(cacheKey, resultList, snapshot.indexes);
+				/*
+				 * If the snapshot was replaced right before the put, the
+				 * entries of the modified indexes may have been invalidated
+				 * before the put as well, so the entry must be removed again.
+				 * If it was replaced after the put, the invalidation removes
+				 * the entry, since the snapshot is replaced first.
+				 */
+				if (snapshot != this.snapshot)
+					queryCache.remove(cacheKey);
+			}
+			return new Results(resultList, incomplete);
+		}
+		catch (CanceledException e) {
+			return null;
 		}
 		catch (IllegalArgumentException e) {
 			throw wrapEmptyIndexException(e);
@@ -304,10 +674,68 @@ public final class Searcher {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
-			readLock.unlock();
+			snapshot.release();
 		}
 	}
 	
+	/**
+	 * Returns at most the first <tt>maxChars</tt> characters of the text
+	 * stored for the document with the given unique ID, or null if no text was
+	 * stored for the document or the document doesn't exist anymore. If the
+	 * indexes haven't changed since the given reader versions were obtained,
+	 * the document is loaded by the given document ID, otherwise it is looked
+	 * up by its unique ID.
+	 */
+	@Nullable
+	@ThreadSafe
+	String loadText(@NotNull String uid,
+					int docId,
+					@Nullable String readerVersions,
+					int maxChars) throws IOException, SearchException {
+		Util.checkNotNull(uid);
+		ReaderSnapshot snapshot = acquireSnapshot();
+		try {
+			MultiSearcher luceneSearcher = snapshot.luceneSearcher;
+			if (docId < 0 || !snapshot.readerVersions.equals(readerVersions)) {
+				Term term = IndexWriterAdapter.idTerm.createTerm(uid);
+				ScoreDoc[] scoreDocs = luceneSearcher.search(new TermQuery(term), 1).scoreDocs;
+				if (scoreDocs.length == 0)
+					return null;
+				docId = scoreDocs[0].doc;
+			}
+			Document doc = luceneSearcher.doc(docId, textFieldSelector);
+			return Fields.getTextPrefix(doc, maxChars);
+		}
+		finally {
+			snapshot.release();
+		}
+	}
+	
+	/*
+	 * Replaces the last clause of the given query with a prefix query if it is
+	 * a term query, e.g. "foo ba" becomes "foo ba*". The prefix query walks the
+	 * terms dictionary and uses a constant score, so that short prefixes with
+	 * many matching terms don't exceed the maximum clause count.
+	 */
+	@NotNull
+	private static Query expandLastTerm(@NotNull Query query) {
+		if (query instanceof TermQuery) {
+			PrefixQuery prefixQuery = new PrefixQuery(((TermQuery) query).getTerm());
+			prefixQuery.setRewriteMethod(MultiTermQuery.CONSTANT_SCORE_AUTO_REWRITE_DEFAULT);
+			prefixQuery.setBoost(query.getBoost());
+			return prefixQuery;
+		}
+		if (query instanceof BooleanQuery) {
+			BooleanClause[] clauses = ((BooleanQuery) query).getClauses();
+			if (clauses.length == 0)
+				return query;
+			BooleanClause lastClause = clauses[clauses.length - 1];
+			if (!lastClause.isProhibited())
+				lastClause.setQuery(expandLastTerm(lastClause.getQuery()));
+		}
+		return query;
+	}
+	
 	@NotNull
 	private static SearchException wrapEmptyIndexException(@NotNull IllegalArgumentException e)
 			throws SearchException {
@@ -325,45 +753,82 @@ public final class Searcher {
 			throw e;
 	}
 	
+	/**
+	 * Returns the documents in the given folders and their subfolders, sorted
+	 * by title. Each folder is given by the index it belongs to and its path,
+	 * which is the root path of the index if the entire index is to be
+	 * listed. Rather than enumerating the documents in the folder trees, this
+	 * method matches the documents by the prefixes of their UIDs, and only
+	 * the Lucene searchers of the given indexes are searched. Thus, listing
+	 * large folders is as fast as a normal search.
+	 */
 	@ImmutableCopy
 	@NotNull
 	@ThreadSafe
-	public List<ResultDocument> list(@NotNull Set<String> uids)
+	public List<ResultDocument> list(@NotNull ListMap<LuceneIndex, Path> folders)
 			throws SearchException, CheckedOutOfMemoryError {
-		// Construct a filter that only matches documents with the given UIDs
-		TermsFilter uidFilter = new TermsFilter();
-		String fieldName = Fields.UID.key();
-		for (String uid : uids)
-			uidFilter.addTerm(new Term(fieldName, uid));
+		Util.checkNotNull(folders);
+		
+		// Construct a filter that only matches documents in the given folders
+		Set<LuceneIndex> indexSet = Sets.newLinkedHashSet();
+		List<Filter> prefixFilters = new ArrayList<Filter>(folders.size());
+		for (Entry<LuceneIndex, Path> entry : folders) {
+			LuceneIndex index = entry.getKey();
+			String uid = index.getDocumentType().createUniqueId(entry.getValue());
+			Term prefix = new Term(Fields.UID.key(), uid + "/");
+			prefixFilters.add(new PrefixFilter(prefix));
+			indexSet.add(index);
+		}
+		Filter filter = new ChainedFilter(
+			prefixFilters.toArray(new Filter[prefixFilters.size()]),
+			ChainedFilter.OR);
 		
 		Query query = new MatchAllDocsQuery();
+		Sort sort = new SortSpec(SortSpec.Criterion.TITLE, false).createLuceneSort();
 		
-		readLock.lock();
+		ReaderSnapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
+			checkIndexesExist(snapshot.indexes);
+			
+			/*
+			 * Search only in the given indexes, skipping those that were
+			 * removed in the meantime. The MultiSearcher created here must not
+			 * be closed, since that would close the Lucene searchers it wraps.
+			 */
+			List<LuceneIndex> subIndexes = new ArrayList<LuceneIndex>(indexSet.size());
+			List<Searchable> subSearchables = new ArrayList<Searchable>(indexSet.size());
+			for (LuceneIndex index : indexSet) {
+				Searchable searchable = snapshot.searchables.get(index);
+				if (searchable == null)
+					continue;
+				subIndexes.add(index);
+				subSearchables.add(searchable);
+			}
+			if (subIndexes.isEmpty())
+				return Collections.emptyList();
+			MultiSearcher subSearcher = new MultiSearcher(
+				subSearchables.toArray(new Searchable[subSearchables.size()]));
 			
 			// Perform search; might throw OutOfMemoryError
-			ScoreDoc[] scoreDocs = luceneSearcher.search(query, uidFilter, MAX_RESULTS).scoreDocs;
+			ScoreDoc[] scoreDocs = subSearcher.search(query, filter, MAX_RESULTS, sort).scoreDocs;
 			
 			// Create result documents
 			ResultDocument[] results = new ResultDocument[scoreDocs.length];
 			for (int i = 0; i < results.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+				Document doc = subSearcher.doc(scoreDocs[i].doc, resultFieldSelector);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = subIndexes.get(subSearcher.subSearcher(scoreDocs[i].doc));
 				IndexingConfig config = index.getConfig();
 				results[i] = new ResultDocument(
-					doc, score, query, true, config, fileFactory,
+					doc, score, query, config, fileFactory,
 					outlookMailFactory);
 			}
 			
-			// Sort results by title
-			Arrays.sort(results, new Comparator<ResultDocument>() {
-				public int compare(ResultDocument o1, ResultDocument o2) {
-					return AlphanumComparator.ignoreCaseInstance.compare(
-						o1.getTitle(), o2.getTitle());
-				}
-			});
+			/*
+			 * Sort results by title. The results are already sorted by the
+			 * sort title field, but older indexes don't have that field.
+			 */
+			sortResults(results, new SortSpec(SortSpec.Criterion.TITLE, false));
 			
 			return Arrays.asList(results);
 		}
@@ -377,14 +842,14 @@ public final class Searcher {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
-			readLock.unlock();
+			snapshot.release();
 		}
 	}
 	
 	/**
 	 * For the given query, returns the requested page of results. This method
 	 * should not be called anymore after {@link #shutdown()} has been called,
-	 * otherwise an IOException will be thrown.
+	 * otherwise a SearchException will be thrown.
 	 */
 	@NotNull
 	@ThreadSafe
@@ -421,7 +886,7 @@ public final class Searcher {
 			Filter[] indexFilters = new Filter[webQuery.indexes.size()];
 			int i = 0;
 			for (LuceneIndex index : webQuery.indexes) {
-				Path path = index.getRootFolder().getPath();
+				Path path = index.getRootPath();
 				String uid = index.getDocumentType().createUniqueId(path);
 				Term prefix = new Term(Fields.UID.key(), uid + "/");
 				indexFilters[i++] = new PrefixFilter(prefix);
@@ -434,17 +899,23 @@ public final class Searcher {
 			filters.toArray(new Filter[filters.size()]), ChainedFilter.AND);
 		
 		// Create query
-		QueryWrapper queryWrapper = createQuery(webQuery.query);
-		Query query = queryWrapper.query;
-		boolean isPhraseQuery = queryWrapper.isPhraseQuery;
+		Query query = createQuery(webQuery.query);
 		
-		readLock.lock();
+		ReaderSnapshot snapshot = acquireSnapshot();
 		try {
-			checkIndexesExist();
+			checkIndexesExist(snapshot.indexes);
+			MultiSearcher luceneSearcher = snapshot.luceneSearcher;
 			
 			// Perform search; might throw OutOfMemoryError
 			int maxResults = (webQuery.pageIndex + 1) * PAGE_SIZE;
-			TopDocs topDocs = luceneSearcher.search(query, filter, maxResults);
+			Sort sort = webQuery.sortSpec.createLuceneSort();
+			boolean sortAfterwards = webQuery.sortSpec.usesSortFields()
+				&& !snapshot.hasSortFields(); // see search(...)
+			if (sortAfterwards)
+				sort = null;
+			TopDocs topDocs = sort == null
+				? luceneSearcher.search(query, filter, maxResults)
+				: luceneSearcher.search(query, filter, maxResults, sort);
 			ScoreDoc[] scoreDocs = topDocs.scoreDocs;
 			
 			// Compute start and end indices of returned page
@@ -458,17 +929,26 @@ public final class Searcher {
 				start = end - (r == 0 ? PAGE_SIZE : r);
 			}
 
-			// Create and fill list of result documents to return
-			ResultDocument[] results = new ResultDocument[end - start];
-			for (int i = start; i < end; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
+			/*
+			 * Create and fill list of result documents to return. If the
+			 * results must be sorted afterwards, the documents of all pages up
+			 * to the returned one are needed for sorting.
+			 */
+			int first = sortAfterwards ? 0 : start;
+			ResultDocument[] results = new ResultDocument[end - first];
+			for (int i = first; i < end; i++) {
+				Document doc = luceneSearcher.doc(scoreDocs[i].doc, resultFieldSelector);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = snapshot.indexes.get(luceneSearcher.subSearcher(scoreDocs[i].doc));
 				IndexingConfig config = index.getConfig();
-				results[i - start] = new ResultDocument(
-					doc, score, query, isPhraseQuery, config, fileFactory,
+				results[i - first] = new ResultDocument(
+					doc, score, query, config, fileFactory,
 					outlookMailFactory);
 			}
+			if (sortAfterwards) {
+				sortResults(results, webQuery.sortSpec);
+				results = Arrays.copyOfRange(results, start, end);
+			}
 			
 			int hitCount = topDocs.totalHits;
 			int newPageIndex = start / PAGE_SIZE;
@@ -484,15 +964,57 @@ public final class Searcher {
 			throw new CheckedOutOfMemoryError(e);
 		}
 		finally {
-			readLock.unlock();
+			snapshot.release();
+		}
+	}
+	
+	/*
+	 * Sorts the given results, which must be in the order of descending
+	 * score, by the criterion of the given sort spec. Results that are equal
+	 * with regard to the criterion keep their order by score. Titles are
+	 * compared by the same normalized titles as the sort title field, see
+	 * Fields.createSortTitle(String).
+	 */
+	private static void sortResults(@NotNull ResultDocument[] results,
+									@NotNull SortSpec sortSpec) {
+		Comparator<ResultDocument> comparator;
+		if (sortSpec.criterion == SortSpec.Criterion.TITLE) {
+			// Normalize each title only once
+			final Map<ResultDocument, String> sortTitles = Maps.newIdentityHashMap();
+			for (ResultDocument result : results)
+				sortTitles.put(result, Fields.normalizeSortTitle(result.getTitle()));
+			comparator = new Comparator<ResultDocument>() {
+				public int compare(ResultDocument o1, ResultDocument o2) {
+					return sortTitles.get(o1).compareTo(sortTitles.get(o2));
+				}
+			};
 		}
+		else {
+			Util.checkThat(sortSpec.criterion == SortSpec.Criterion.DATE);
+			comparator = new Comparator<ResultDocument>() {
+				public int compare(ResultDocument o1, ResultDocument o2) {
+					return Longs.compare(getSortDate(o1), getSortDate(o2));
+				}
+			};
+		}
+		if (sortSpec.descending)
+			comparator = Collections.reverseOrder(comparator);
+		Arrays.sort(results, comparator);
+	}
+	
+	// Returns the same value as the sort date field
+	private static long getSortDate(@NotNull ResultDocument doc) {
+		if (!doc.isEmail())
+			return doc.getLastModified().getTime();
+		Date date = doc.getDate();
+		return date == null ? 0 : date.getTime();
 	}
 	
 	@NotNull
 	@ThreadSafe
-	private static QueryWrapper createQuery(@NotNull String queryString)
+	private static Query createQuery(@NotNull String queryString)
 			throws SearchException {
-		PhraseDetectingQueryParser queryParser = new PhraseDetectingQueryParser(
+		QueryParser queryParser = new QueryParser(
 			IndexRegistry.LUCENE_VERSION, Fields.CONTENT.key(), IndexRegistry.analyzer);
 		queryParser.setAllowLeadingWildcard(true);
 		RewriteMethod rewriteMethod = MultiTermQuery.SCORING_BOOLEAN_QUERY_REWRITE;
@@ -501,9 +1023,7 @@ public final class Searcher {
 			queryParser.setDefaultOperator(QueryParser.AND_OPERATOR);
 		
 		try {
-			Query query = queryParser.parse(queryString);
-			boolean isPhraseQuery = queryParser.isPhraseQuery();
-			return new QueryWrapper(query, isPhraseQuery);
+			return queryParser.parse(queryString);
 		}
 		catch (IllegalArgumentException e) {
 			/*
@@ -520,9 +1040,9 @@ public final class Searcher {
 	}
 	
 	// Checks that all indexes still exist
-	@NotNull
-	@NotThreadSafe
-	private void checkIndexesExist() throws SearchException {
+	@ThreadSafe
+	private static void checkIndexesExist(@NotNull List<LuceneIndex> indexes)
+			throws SearchException {
 		if (indexes.isEmpty())
 			throw new SearchException("Nothing to search in: No indexes have been created yet."); // TODO i18n
 		for (LuceneIndex index : indexes) {
@@ -573,30 +1093,33 @@ public final class Searcher {
 		writeLock.lock();
 		try {
 			indexRegistry.removeListeners(addedListener, null);
-			Closeables.closeQuietly(luceneSearcher);
+			ReaderSnapshot oldSnapshot = snapshot;
+			snapshot = null;
+			if (oldSnapshot != null)
+				retire(oldSnapshot);
+			for (Searchable searchable : searchables.values())
+				Closeables.closeQuietly(searchable);
+			searchables.clear();
+			for (Searchable searchable : preopened.values())
+				Closeables.closeQuietly(searchable);
+			preopened.clear();
 		}
 		finally {
 			writeLock.unlock();
 		}
 		
+		// Let running searches finish, so that their index readers are closed
+		for (ReaderSnapshot oldSnapshot : oldSnapshots)
+			oldSnapshot.awaitClose();
+		
 		/*
-		 * This should be done after closing the Lucene searcher in order to
+		 * This should be done after closing the Lucene searchers in order to
 		 * ensure that no indexes will be deleted outside the deletion queue
-		 * while the Lucene searcher is still open.
+		 * while the Lucene searchers are still open.
 		 */
 		synchronized (this) {
 			deletionThread.interrupt();
 		}
 	}
 	
-	private static final class QueryWrapper {
-		public final Query query;
-		public final boolean isPhraseQuery;
-		
-		private QueryWrapper(@NotNull Query query, boolean isPhraseQuery) {
-			this.query = Util.checkNotNull(query);
-			this.isPhraseQuery = isPhraseQuery;
-		}
-	}
-
 }
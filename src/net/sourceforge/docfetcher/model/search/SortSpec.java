@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/**
+ * Specifies the order in which the {@link Searcher} returns its results. Apart
+ * from sorting by score, the results are sorted inside Lucene using the field
+ * cache, so that the top results by size, date or title are exact even if the
+ * number of hits exceeds the maximum number of results.
+ *
+ * @author Tran Nam Quang
+ */
+public final class SortSpec {
+
+	public enum Criterion {
+		SCORE,
+		TITLE,
+		SIZE,
+		DATE, // last-modified date for files, send date for emails
+	}
+
+	/** Sorts by descending score. This is the default sort order. */
+	public static final SortSpec SCORE = new SortSpec(Criterion.SCORE, true);
+
+	@NotNull public final Criterion criterion;
+	public final boolean descending;
+
+	public SortSpec(@NotNull Criterion criterion, boolean descending) {
+		this.criterion = Util.checkNotNull(criterion);
+		this.descending = descending;
+	}
+
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SortSpec))
+			return false;
+		SortSpec other = (SortSpec) obj;
+		return criterion == other.criterion && descending == other.descending;
+	}
+
+	public int hashCode() {
+		return criterion.hashCode() * 31 + (descending ? 1 : 0);
+	}
+
+	/**
+	 * Returns whether the Lucene sort for this sort spec relies on the sort
+	 * fields, which documents indexed by older program versions don't have.
+	 */
+	boolean usesSortFields() {
+		return criterion == Criterion.TITLE || criterion == Criterion.DATE;
+	}
+
+	/**
+	 * Returns the Lucene sort for this sort spec, or null if the results
+	 * should be returned in the order of descending score. Ties are broken by
+	 * descending score.
+	 */
+	@Nullable
+	Sort createLuceneSort() {
+		SortField sortField;
+		switch (criterion) {
+		case TITLE:
+			sortField = new SortField(Fields.SORT_TITLE.key(), SortField.STRING, descending);
+			break;
+		case SIZE:
+			sortField = new SortField(Fields.SIZE.key(), SortField.LONG, descending);
+			break;
+		case DATE:
+			sortField = new SortField(Fields.SORT_DATE.key(), SortField.LONG, descending);
+			break;
+		default:
+			if (descending)
+				return null;
+			return new Sort(new SortField(null, SortField.SCORE, true));
+		}
+		return new Sort(sortField, SortField.FIELD_SCORE);
+	}
+
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.search.SortSpec.Criterion;
+import net.sourceforge.docfetcher.util.collect.AlphanumComparator;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class SortSpecTest {
+
+	@Test
+	public void testNormalizeSortTitle() {
+		assertEquals("file\u00010000000009", Fields.normalizeSortTitle("File9"));
+		assertEquals("file\u00010000000010.txt", Fields.normalizeSortTitle("file010.txt"));
+		assertEquals("0000000000", Fields.normalizeSortTitle("000"));
+		assertTrue(Fields.normalizeSortTitle("file9").compareTo(
+			Fields.normalizeSortTitle("File10")) < 0);
+		
+		// Same order as in the result panel
+		List<String> expected = Arrays.asList(
+			"", "1", "2", "10", "file", "file1.txt", "File2.txt", "file10.txt",
+			"file10a.txt", "file10b.txt", "File11.txt", "file-a", "file.txt",
+			"x2-g8", "x2-y7", "x2-y08", "xa");
+		List<String> actual = new ArrayList<String>(expected);
+		Collections.shuffle(actual);
+		Collections.sort(actual, new Comparator<String>() {
+			public int compare(String o1, String o2) {
+				return Fields.normalizeSortTitle(o1).compareTo(
+					Fields.normalizeSortTitle(o2));
+			}
+		});
+		assertEquals(expected, actual);
+		List<String> alphanum = new ArrayList<String>(expected);
+		Collections.shuffle(alphanum);
+		Collections.sort(alphanum, AlphanumComparator.ignoreCaseInstance);
+		assertEquals(expected, alphanum);
+		
+		// Other strings than titles aren't cut off
+		String path = Strings.repeat("folder/", 20) + "File9";
+		String sortKey = Fields.normalizeSortKey(path);
+		assertTrue(sortKey.startsWith(Fields.normalizeSortTitle(path)));
+		assertTrue(sortKey.endsWith("file\u00010000000009"));
+	}
+
+	@Test
+	public void testSort() throws Exception {
+		// Spread the documents over two indexes, as in the searcher
+		Directory dir1 = createIndex(
+			createDoc("b10", 300, 2000),
+			createDoc("B9", 100, 3000));
+		Directory dir2 = createIndex(
+			createDoc("a", 200, 1000),
+			createDoc("c", 400, 4000));
+
+		assertNull(SortSpec.SCORE.createLuceneSort());
+		assertEquals(
+			Arrays.asList("a", "B9", "b10", "c"),
+			search(new SortSpec(Criterion.TITLE, false), dir1, dir2));
+		assertEquals(
+			Arrays.asList("c", "b10", "B9", "a"),
+			search(new SortSpec(Criterion.TITLE, true), dir1, dir2));
+		assertEquals(
+			Arrays.asList("c", "b10", "a", "B9"),
+			search(new SortSpec(Criterion.SIZE, true), dir1, dir2));
+		assertEquals(
+			Arrays.asList("a", "b10", "B9", "c"),
+			search(new SortSpec(Criterion.DATE, false), dir1, dir2));
+	}
+
+	private static Document createDoc(String title, long size, long date) {
+		Document doc = new Document();
+		doc.add(Fields.TITLE.create(title));
+		doc.add(Fields.createSortTitle(title));
+		doc.add(Fields.SIZE.create(size));
+		doc.add(Fields.SORT_DATE.create(date));
+		return doc;
+	}
+
+	private static Directory createIndex(Document... docs) throws Exception {
+		Directory dir = new RAMDirectory();
+		IndexWriterConfig config = new IndexWriterConfig(
+			IndexRegistry.LUCENE_VERSION, IndexRegistry.analyzer);
+		IndexWriter writer = new IndexWriter(dir, config);
+		for (Document doc : docs)
+			writer.addDocument(doc);
+		writer.close();
+		return dir;
+	}
+
+	private static List<String> search(SortSpec sortSpec, Directory... dirs)
+			throws Exception {
+		Searchable[] searchables = new Searchable[dirs.length];
+		for (int i = 0; i < dirs.length; i++) {
+			IndexSearcher indexSearcher = new IndexSearcher(dirs[i]);
+			indexSearcher.setDefaultFieldSortScoring(true, false);
+			searchables[i] = indexSearcher;
+		}
+		MultiSearcher searcher = new MultiSearcher(searchables);
+		try {
+			ScoreDoc[] scoreDocs = searcher.search(
+				new MatchAllDocsQuery(), null, 10, sortSpec.createLuceneSort()).scoreDocs;
+			List<String> titles = new ArrayList<String>(scoreDocs.length);
+			for (ScoreDoc scoreDoc : scoreDocs) {
+				assertTrue(!Float.isNaN(scoreDoc.score));
+				titles.add(searcher.doc(scoreDoc.doc).get(Fields.TITLE.key()));
+			}
+			return titles;
+		}
+		finally {
+			searcher.close();
+		}
+	}
+
+}
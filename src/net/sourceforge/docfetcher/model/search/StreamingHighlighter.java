@@ -0,0 +1,470 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.search.HighlightService.HighlightHandler;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.search.WildcardTermEnum;
+
+/**
+ * Finds the occurrences of the terms and phrases of a query in a text. Unlike
+ * the highlighters that come with Lucene, this class doesn't need an index of
+ * the text and doesn't score fragments: The query is compiled once into a set
+ * of exact terms and a list of term patterns, and the text is then tokenized
+ * exactly once as a stream. The occurrences are reported in ascending order
+ * and in batches of increasing size while the tokenization is still running,
+ * so that callers can show the first occurrences right away.
+ * <p>
+ * Only the content field of the query is considered, and prohibited clauses
+ * are ignored. Phrases with a slop greater than zero are treated as a set of
+ * single terms.
+ *
+ * @author Tran Nam Quang
+ */
+final class StreamingHighlighter {
+
+	private static final int MAX_BATCH_SIZE = 1024;
+	private static final int STOP_CHECK_INTERVAL = 4096; // in tokens
+
+	private static abstract class TermMatcher {
+		public abstract boolean matches(@NotNull String term);
+	}
+
+	private static final class ExactMatcher extends TermMatcher {
+		private final Set<String> terms = new HashSet<String>();
+
+		public boolean matches(@NotNull String term) {
+			return terms.contains(term);
+		}
+	}
+
+	private static final class PrefixMatcher extends TermMatcher {
+		private final String prefix;
+
+		public PrefixMatcher(@NotNull String prefix) {
+			this.prefix = prefix;
+		}
+
+		public boolean matches(@NotNull String term) {
+			return term.startsWith(prefix);
+		}
+	}
+
+	private static final class WildcardMatcher extends TermMatcher {
+		private final Pattern pattern;
+
+		public WildcardMatcher(@NotNull String wildcard) {
+			StringBuilder regex = new StringBuilder();
+			int literalStart = 0;
+			for (int i = 0; i < wildcard.length(); i++) {
+				char c = wildcard.charAt(i);
+				if (c != WildcardTermEnum.WILDCARD_STRING
+						&& c != WildcardTermEnum.WILDCARD_CHAR)
+					continue;
+				if (literalStart < i)
+					regex.append(Pattern.quote(wildcard.substring(literalStart, i)));
+				regex.append(c == WildcardTermEnum.WILDCARD_STRING ? ".*" : ".");
+				literalStart = i + 1;
+			}
+			if (literalStart < wildcard.length())
+				regex.append(Pattern.quote(wildcard.substring(literalStart)));
+			pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+		}
+
+		public boolean matches(@NotNull String term) {
+			return pattern.matcher(term).matches();
+		}
+	}
+
+	// Uses the same similarity measure as Lucene's FuzzyTermEnum
+	private static final class FuzzyMatcher extends TermMatcher {
+		private final String prefix;
+		private final String text;
+		private final float minSimilarity;
+
+		public FuzzyMatcher(@NotNull FuzzyQuery query) {
+			String term = query.getTerm().text();
+			int prefixLength = Math.min(query.getPrefixLength(), term.length());
+			prefix = term.substring(0, prefixLength);
+			text = term.substring(prefixLength);
+			minSimilarity = query.getMinSimilarity();
+		}
+
+		public boolean matches(@NotNull String term) {
+			if (!term.startsWith(prefix))
+				return false;
+			String target = term.substring(prefix.length());
+			int minLength = Math.min(text.length(), target.length());
+			float similarity;
+			if (minLength == 0) {
+				int maxLength = Math.max(text.length(), target.length());
+				similarity = prefix.length() == 0 ? 0
+					: 1 - (float) maxLength / prefix.length();
+			}
+			else {
+				int distance = getDistance(text, target);
+				similarity = 1 - (float) distance / (prefix.length() + minLength);
+			}
+			return similarity > minSimilarity;
+		}
+
+		// Levenshtein distance
+		private static int getDistance(@NotNull String s1, @NotNull String s2) {
+			int[] prev = new int[s2.length() + 1];
+			int[] curr = new int[s2.length() + 1];
+			for (int j = 0; j <= s2.length(); j++)
+				prev[j] = j;
+			for (int i = 1; i <= s1.length(); i++) {
+				curr[0] = i;
+				for (int j = 1; j <= s2.length(); j++) {
+					int cost = s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1;
+					curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+				}
+				int[] tmp = prev;
+				prev = curr;
+				curr = tmp;
+			}
+			return prev[s2.length()];
+		}
+	}
+
+	private static final class RangeMatcher extends TermMatcher {
+		private final TermRangeQuery query;
+
+		public RangeMatcher(@NotNull TermRangeQuery query) {
+			this.query = query;
+		}
+
+		public boolean matches(@NotNull String term) {
+			String lower = query.getLowerTerm();
+			String upper = query.getUpperTerm();
+			if (lower != null) {
+				int c = term.compareTo(lower);
+				if (c < 0 || (c == 0 && !query.includesLower()))
+					return false;
+			}
+			if (upper != null) {
+				int c = term.compareTo(upper);
+				if (c > 0 || (c == 0 && !query.includesUpper()))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	// A phrase, with the positions of its terms relative to the first term
+	private static final class Phrase {
+		private final TermMatcher[] matchers;
+		private final int[] positions;
+
+		public Phrase(@NotNull TermMatcher[] matchers, @NotNull int[] positions) {
+			this.matchers = matchers;
+			this.positions = positions;
+		}
+
+		public int getSpan() {
+			return positions[positions.length - 1];
+		}
+	}
+
+	private static final class Token {
+		private final String term;
+		private final int position;
+		private final int start;
+
+		public Token(@NotNull String term, int position, int start) {
+			this.term = term;
+			this.position = position;
+			this.start = start;
+		}
+	}
+
+	private static final class PendingRange {
+		private final int start;
+		private int end;
+		private int lastPosition;
+
+		public PendingRange(int start, int end, int lastPosition) {
+			this.start = start;
+			this.end = end;
+			this.lastPosition = lastPosition;
+		}
+	}
+
+	private final ExactMatcher exactMatcher = new ExactMatcher();
+	private final List<TermMatcher> matchers = new ArrayList<TermMatcher>();
+	private final List<Phrase> phrases = new ArrayList<Phrase>();
+	private int maxSpan = 0;
+
+	public StreamingHighlighter(@NotNull Query query) {
+		Util.checkNotNull(query);
+		compile(query);
+	}
+
+	private void compile(@NotNull Query query) {
+		String key = Fields.CONTENT.key();
+		if (query instanceof BooleanQuery) {
+			for (BooleanClause clause : ((BooleanQuery) query).getClauses())
+				if (!clause.isProhibited())
+					compile(clause.getQuery());
+		}
+		else if (query instanceof TermQuery) {
+			Term term = ((TermQuery) query).getTerm();
+			if (term.field().equals(key))
+				exactMatcher.terms.add(term.text());
+		}
+		else if (query instanceof PhraseQuery) {
+			PhraseQuery phraseQuery = (PhraseQuery) query;
+			Term[] terms = phraseQuery.getTerms();
+			if (terms.length == 0 || !terms[0].field().equals(key))
+				return;
+			if (terms.length == 1 || phraseQuery.getSlop() > 0) {
+				for (Term term : terms)
+					exactMatcher.terms.add(term.text());
+				return;
+			}
+			TermMatcher[] phraseMatchers = new TermMatcher[terms.length];
+			for (int i = 0; i < terms.length; i++) {
+				ExactMatcher matcher = new ExactMatcher();
+				matcher.terms.add(terms[i].text());
+				phraseMatchers[i] = matcher;
+			}
+			addPhrase(phraseMatchers, phraseQuery.getPositions());
+		}
+		else if (query instanceof MultiPhraseQuery) {
+			MultiPhraseQuery phraseQuery = (MultiPhraseQuery) query;
+			List<Term[]> termArrays = phraseQuery.getTermArrays();
+			if (termArrays.isEmpty() || !termArrays.get(0)[0].field().equals(key))
+				return;
+			TermMatcher[] phraseMatchers = new TermMatcher[termArrays.size()];
+			for (int i = 0; i < phraseMatchers.length; i++) {
+				ExactMatcher matcher = new ExactMatcher();
+				for (Term term : termArrays.get(i))
+					matcher.terms.add(term.text());
+				phraseMatchers[i] = matcher;
+			}
+			if (phraseMatchers.length == 1 || phraseQuery.getSlop() > 0)
+				matchers.addAll(Arrays.asList(phraseMatchers));
+			else
+				addPhrase(phraseMatchers, phraseQuery.getPositions());
+		}
+		else if (query instanceof PrefixQuery) {
+			Term prefix = ((PrefixQuery) query).getPrefix();
+			if (prefix.field().equals(key))
+				matchers.add(new PrefixMatcher(prefix.text()));
+		}
+		else if (query instanceof WildcardQuery) {
+			Term term = ((WildcardQuery) query).getTerm();
+			if (term.field().equals(key))
+				matchers.add(new WildcardMatcher(term.text()));
+		}
+		else if (query instanceof FuzzyQuery) {
+			FuzzyQuery fuzzyQuery = (FuzzyQuery) query;
+			if (fuzzyQuery.getTerm().field().equals(key))
+				matchers.add(new FuzzyMatcher(fuzzyQuery));
+		}
+		else if (query instanceof TermRangeQuery) {
+			TermRangeQuery rangeQuery = (TermRangeQuery) query;
+			if (rangeQuery.getField().equals(key))
+				matchers.add(new RangeMatcher(rangeQuery));
+		}
+		else {
+			// Fall back to the exact terms for other query types
+			Set<Term> terms = new HashSet<Term>();
+			try {
+				query.extractTerms(terms);
+			}
+			catch (UnsupportedOperationException e) {
+				return;
+			}
+			for (Term term : terms)
+				if (term.field().equals(key))
+					exactMatcher.terms.add(term.text());
+		}
+	}
+
+	private void addPhrase(@NotNull TermMatcher[] phraseMatchers, @NotNull int[] positions) {
+		int[] relativePositions = new int[positions.length];
+		for (int i = 0; i < positions.length; i++)
+			relativePositions[i] = positions[i] - positions[0];
+		Phrase phrase = new Phrase(phraseMatchers, relativePositions);
+		phrases.add(phrase);
+		maxSpan = Math.max(maxSpan, phrase.getSpan());
+	}
+
+	/**
+	 * Tokenizes the text provided by the given reader and reports the
+	 * occurrences to the given handler, until either the end of the text is
+	 * reached or the handler requests to stop.
+	 */
+	public void highlight(@NotNull Reader reader, @NotNull HighlightHandler handler)
+			throws IOException {
+		if (exactMatcher.terms.isEmpty() && matchers.isEmpty() && phrases.isEmpty())
+			return;
+
+		TokenStream tokenStream = IndexRegistry.analyzer.tokenStream(
+			Fields.CONTENT.key(), reader);
+		CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+		OffsetAttribute offsetAtt = tokenStream.addAttribute(OffsetAttribute.class);
+		PositionIncrementAttribute posAtt = tokenStream.addAttribute(PositionIncrementAttribute.class);
+
+		/*
+		 * Single terms are reported right away, but a phrase is only found
+		 * when its last term is reached, and may cover occurrences that were
+		 * found earlier. Therefore, occurrences are held back until no phrase
+		 * can start before their end anymore.
+		 */
+		LinkedList<PendingRange> pending = new LinkedList<PendingRange>();
+		Deque<Token> window = new ArrayDeque<Token>();
+		List<Range> batch = new ArrayList<Range>();
+		int batchSize = 1;
+		int position = -1;
+		int tokenCount = 0;
+
+		try {
+			tokenStream.reset();
+			while (tokenStream.incrementToken()) {
+				if (++tokenCount % STOP_CHECK_INTERVAL == 0 && handler.isStopped())
+					return;
+				position += posAtt.getPositionIncrement();
+				String term = termAtt.toString();
+				int start = offsetAtt.startOffset();
+				int end = offsetAtt.endOffset();
+
+				if (matches(term))
+					addRange(pending, start, end, position);
+
+				if (!phrases.isEmpty()) {
+					while (!window.isEmpty() && window.peekFirst().position < position - maxSpan)
+						window.removeFirst();
+					window.addLast(new Token(term, position, start));
+					for (Phrase phrase : phrases) {
+						Integer phraseStart = findPhrase(phrase, window, position);
+						if (phraseStart != null)
+							addRange(pending, phraseStart, end, position);
+					}
+				}
+
+				while (!pending.isEmpty() && pending.getFirst().lastPosition < position - maxSpan) {
+					PendingRange range = pending.removeFirst();
+					batch.add(new Range(range.start, range.end - range.start));
+				}
+				if (batch.size() >= batchSize) {
+					handler.handleRanges(batch);
+					if (handler.isStopped())
+						return;
+					batch = new ArrayList<Range>();
+					batchSize = Math.min(2 * batchSize, MAX_BATCH_SIZE);
+				}
+			}
+			tokenStream.end();
+		}
+		finally {
+			tokenStream.close();
+		}
+
+		for (PendingRange range : pending)
+			batch.add(new Range(range.start, range.end - range.start));
+		if (!batch.isEmpty())
+			handler.handleRanges(batch);
+	}
+
+	private boolean matches(@NotNull String term) {
+		if (exactMatcher.matches(term))
+			return true;
+		for (TermMatcher matcher : matchers)
+			if (matcher.matches(term))
+				return true;
+		return false;
+	}
+
+	// Returns the start offset of the given phrase if it ends with the last
+	// token in the given window, otherwise null
+	@Nullable
+	private static Integer findPhrase(	@NotNull Phrase phrase,
+										@NotNull Deque<Token> window,
+										int lastPosition) {
+		int firstPosition = lastPosition - phrase.getSpan();
+		int phraseStart = -1;
+		for (int i = 0; i < phrase.matchers.length; i++) {
+			int targetPosition = firstPosition + phrase.positions[i];
+			Token found = null;
+			for (Token token : window) {
+				if (token.position == targetPosition && phrase.matchers[i].matches(token.term)) {
+					found = token;
+					break;
+				}
+			}
+			if (found == null)
+				return null;
+			if (i == 0)
+				phraseStart = found.start;
+		}
+		return phraseStart;
+	}
+
+	/*
+	 * Adds the given occurrence to the pending occurrences. Since the end
+	 * offset of a new occurrence is always the greatest end offset so far,
+	 * pending occurrences starting at or after the new one are covered by it,
+	 * and an overlapping predecessor is extended, so that the reported
+	 * occurrences are sorted and don't overlap.
+	 */
+	private static void addRange(	@NotNull LinkedList<PendingRange> pending,
+									int start,
+									int end,
+									int position) {
+		while (!pending.isEmpty() && pending.getLast().start >= start)
+			pending.removeLast();
+		if (!pending.isEmpty() && pending.getLast().end > start) {
+			PendingRange last = pending.getLast();
+			last.end = Math.max(last.end, end);
+			last.lastPosition = Math.max(last.lastPosition, position);
+		}
+		else {
+			pending.addLast(new PendingRange(start, end, position));
+		}
+	}
+
+}
@@ -31,6 +31,7 @@ public final class WebQuery {
 	@Nullable Long maxSize;
 	@Nullable Collection<Parser> parsers;
 	@Nullable Collection<LuceneIndex> indexes;
+	SortSpec sortSpec = SortSpec.SCORE;
 
 	/**
 	 * Constructs a new query object for the given query string. The given
@@ -85,4 +86,12 @@ public final class WebQuery {
 		this.indexes = indexes;
 	}
 	
+	/**
+	 * Sets the order of the results. By default, the results are sorted by
+	 * descending score.
+	 */
+	public void setSortSpec(@NotNull SortSpec sortSpec) {
+		this.sortSpec = Util.checkNotNull(sortSpec);
+	}
+	
 }
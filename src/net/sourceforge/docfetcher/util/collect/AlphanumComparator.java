@@ -49,37 +49,24 @@ public final class AlphanumComparator implements Comparator<String>
         return ch >= 48 && ch <= 57;
     }
 
-    /** Length of string is passed in for improved efficiency (only need to calculate it once) **/
-    private final String getChunk(String s, int slength, int marker)
+    /**
+     * Returns the end index of the chunk starting at the given index. Length
+     * of string is passed in for improved efficiency (only need to calculate
+     * it once).
+     */
+    private final int getChunkEnd(String s, int slength, int marker)
     {
-        StringBuilder chunk = new StringBuilder();
-        char c = s.charAt(marker);
-        chunk.append(c);
+        boolean digitChunk = isDigit(s.charAt(marker));
         marker++;
-        if (isDigit(c))
-        {
-            while (marker < slength)
-            {
-                c = s.charAt(marker);
-                if (!isDigit(c))
-                    break;
-                chunk.append(c);
-                marker++;
-            }
-        } else
-        {
-            while (marker < slength)
-            {
-                c = s.charAt(marker);
-                if (isDigit(c))
-                    break;
-                chunk.append(c);
-                marker++;
-            }
-        }
-        return chunk.toString();
+        while (marker < slength && isDigit(s.charAt(marker)) == digitChunk)
+            marker++;
+        return marker;
     }
 
+    /*
+     * The chunks are compared in place rather than being copied into new
+     * strings, so that sorting large lists doesn't produce any garbage.
+     */
     public int compare(String s1, String s2)
     {
         int thisMarker = 0;
@@ -89,25 +76,23 @@ public final class AlphanumComparator implements Comparator<String>
 
         while (thisMarker < s1Length && thatMarker < s2Length)
         {
-            String thisChunk = getChunk(s1, s1Length, thisMarker);
-            thisMarker += thisChunk.length();
-
-            String thatChunk = getChunk(s2, s2Length, thatMarker);
-            thatMarker += thatChunk.length();
+            int thisEnd = getChunkEnd(s1, s1Length, thisMarker);
+            int thatEnd = getChunkEnd(s2, s2Length, thatMarker);
+            int thisChunkLength = thisEnd - thisMarker;
+            int thatChunkLength = thatEnd - thatMarker;
 
             // If both chunks contain numeric characters, sort them numerically
             int result = 0;
-            if (isDigit(thisChunk.charAt(0)) && isDigit(thatChunk.charAt(0)))
+            if (isDigit(s1.charAt(thisMarker)) && isDigit(s2.charAt(thatMarker)))
             {
                 // Simple chunk comparison by length.
-                int thisChunkLength = thisChunk.length();
-                result = thisChunkLength - thatChunk.length();
+                result = thisChunkLength - thatChunkLength;
                 // If equal, the first different number counts
                 if (result == 0)
                 {
                     for (int i = 0; i < thisChunkLength; i++)
                     {
-                        result = thisChunk.charAt(i) - thatChunk.charAt(i);
+                        result = s1.charAt(thisMarker + i) - s2.charAt(thatMarker + i);
                         if (result != 0)
                         {
                             return result;
@@ -116,16 +101,34 @@ public final class AlphanumComparator implements Comparator<String>
                 }
             } else
             {
-            	if (ignoreCase)
-            		result = thisChunk.compareToIgnoreCase(thatChunk);
-            	else
-            		result = thisChunk.compareTo(thatChunk);
+                // Same results as String.compareTo(IgnoreCase) on the chunks
+                int n = Math.min(thisChunkLength, thatChunkLength);
+                for (int i = 0; i < n && result == 0; i++)
+                    result = compareChars(s1.charAt(thisMarker + i), s2.charAt(thatMarker + i));
+                if (result == 0)
+                    result = thisChunkLength - thatChunkLength;
             }
 
             if (result != 0)
                 return result;
+
+            thisMarker = thisEnd;
+            thatMarker = thatEnd;
         }
 
         return s1Length - s2Length;
     }
+
+    private int compareChars(char c1, char c2)
+    {
+        if (c1 == c2 || !ignoreCase)
+            return c1 - c2;
+        c1 = Character.toUpperCase(c1);
+        c2 = Character.toUpperCase(c2);
+        if (c1 == c2)
+            return 0;
+        c1 = Character.toLowerCase(c1);
+        c2 = Character.toLowerCase(c2);
+        return c1 - c2;
+    }
 }
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.util.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class AlphanumComparatorTest {
+
+	private static final AlphanumComparator comparator = AlphanumComparator.ignoreCaseInstance;
+
+	@Test
+	public void testNaturalOrder() {
+		List<String> expected = Arrays.asList(
+			"", "1", "2", "10", "file", "file1.txt", "File2.txt", "file10.txt",
+			"file10a.txt", "file10b.txt", "File11.txt", "x2-g8", "x2-y7",
+			"x2-y08", "xa");
+		List<String> actual = Arrays.asList(expected.toArray(new String[0]));
+		Collections.shuffle(actual);
+		Collections.sort(actual, comparator);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testCompare() {
+		assertEquals(0, comparator.compare("abc12", "ABC12"));
+		assertTrue(comparator.compare("abc", "abd") < 0);
+		assertTrue(comparator.compare("abc", "ab") > 0);
+		assertTrue(comparator.compare("a9", "a10") < 0);
+		assertTrue(comparator.compare("a010", "a9") > 0);
+		assertTrue(comparator.compare("a1b", "a1") > 0);
+		assertTrue(comparator.compare("1a", "a") < 0);
+	}
+
+}
@@ -14,7 +14,14 @@ package net.sourceforge.docfetcher.util.gui.viewer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
@@ -24,6 +31,8 @@ import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Color;
@@ -70,18 +79,61 @@ public abstract class VirtualTableViewer<E> {
 		@Nullable protected Color getForeground(E element) { return null; }
 		@Nullable protected Color getBackground(E element) { return null; }
 		protected int compare(@NotNull E e1, @NotNull E e2) { return 0; }
+		
+		/**
+		 * Returns a key for sorting the given element, or null if the elements
+		 * should be sorted via {@link #compare(Object, Object)} instead. Sort
+		 * keys are computed only once per element and sort run, which makes
+		 * them preferable to expensive comparisons. A column must either
+		 * return non-null keys for all elements or for none, and the keys must
+		 * be mutually comparable.
+		 * <p>
+		 * Note: This method and {@link #compare(Object, Object)} may be called
+		 * from a non-GUI thread.
+		 */
+		@Nullable protected Comparable<?> getSortKey(@NotNull E element) { return null; }
 	}
 	
+	private static final class SortEntry<E> implements Comparable<SortEntry<E>> {
+		private final E element;
+		private final Comparable<Object> key;
+		
+		@SuppressWarnings("unchecked")
+		public SortEntry(@NotNull E element, @NotNull Comparable<?> key) {
+			this.element = element;
+			this.key = (Comparable<Object>) key;
+		}
+		public int compareTo(SortEntry<E> o) {
+			return key.compareTo(o.key);
+		}
+	}
+	
+	/**
+	 * Lists with at least this many elements are sorted on a separate thread,
+	 * so that the GUI doesn't freeze while sorting.
+	 */
+	private static final int ASYNC_SORT_THRESHOLD = 1000;
+	
 	private final Table table;
 	private final List<Column<E>> columns = new ArrayList<Column<E>>();
 	private List<E> elements;
 	private boolean sortingEnabled = false;
 	@Nullable private Column<E> lastSortColumn = null;
+	private int sortCount = 0; // for discarding the results of outdated sort runs
+	@Nullable private ExecutorService sortExecutor; // created on demand
+	@Nullable private Future<?> sortFuture;
 	
 	public VirtualTableViewer(@NotNull Composite parent, int style) {
 		table = new Table(parent, style | SWT.VIRTUAL);
 		table.setHeaderVisible(true);
 		
+		table.addDisposeListener(new DisposeListener() {
+			public void widgetDisposed(DisposeEvent e) {
+				if (sortExecutor != null)
+					sortExecutor.shutdownNow();
+			}
+		});
+		
 		table.addListener(SWT.SetData, new Listener() {
 			public void handleEvent(org.eclipse.swt.widgets.Event event) {
 				// Bug #3523251: event.index can be -1 sometimes, looks like a
@@ -124,7 +176,10 @@ public abstract class VirtualTableViewer<E> {
 		
 		tableColumn.addSelectionListener(new SelectionAdapter() {
 			public void widgetSelected(SelectionEvent e) {
+				if (elements == null || !sortingEnabled)
+					return;
 				sortByColumn(column);
+				onColumnSorted(column, column.lastSortDirection > 0);
 			}
 		});
 	}
@@ -135,28 +190,132 @@ public abstract class VirtualTableViewer<E> {
 		final int direction = lastSortColumn != column
 			? 1
 			: column.lastSortDirection * -1;
-		Collections.sort(elements, new Comparator<E>() {
-			public int compare(E e1, E e2) {
-				return column.compare(e1, e2) * direction;
-			};
-		});
-		table.clearAll();
-		lastSortColumn = column;
-		column.lastSortDirection = direction;
+		sort(column, direction);
 	}
 	
 	public final void sortByColumn(@NotNull final Column<E> column, boolean up) {
 		if (elements == null || !sortingEnabled)
 			return;
-		final int direction = up ? 1 : -1;
-		Collections.sort(elements, new Comparator<E>() {
-			public int compare(E e1, E e2) {
-				return column.compare(e1, e2) * direction;
-			};
-		});
-		table.clearAll();
+		sort(column, up ? 1 : -1);
+	}
+	
+	/*
+	 * Sorts a copy of the current elements and replaces the latter with the
+	 * sorted copy, so that the table can keep displaying the unsorted elements
+	 * while a large list is sorted on a separate thread. A sort run that was
+	 * outdated by replacing or sorting the elements again is canceled, and its
+	 * result is discarded if it has already finished.
+	 */
+	private void sort(@NotNull final Column<E> column, final int direction) {
 		lastSortColumn = column;
 		column.lastSortDirection = direction;
+		final int currentSortCount = ++sortCount;
+		cancelSorting();
+		final List<E> sortedElements = new ArrayList<E>(elements);
+		
+		if (sortedElements.size() < ASYNC_SORT_THRESHOLD) {
+			sort(sortedElements, column, direction);
+			setSortedElements(sortedElements);
+			return;
+		}
+		
+		if (sortExecutor == null) {
+			sortExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, VirtualTableViewer.class.getName());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		sortFuture = sortExecutor.submit(new Runnable() {
+			public void run() {
+				try {
+					sort(sortedElements, column, direction);
+				}
+				catch (CancellationException e) {
+					return;
+				}
+				Util.runAsyncExec(table, new Runnable() {
+					public void run() {
+						if (currentSortCount != sortCount)
+							return;
+						sortFuture = null;
+						setSortedElements(sortedElements);
+					}
+				});
+			}
+		});
+	}
+	
+	private void cancelSorting() {
+		if (sortFuture == null)
+			return;
+		sortFuture.cancel(true);
+		sortFuture = null;
+	}
+	
+	/*
+	 * Replaces the current elements with the given sorted elements, which must
+	 * contain the same elements in a different order, and moves the selection
+	 * along with the selected elements.
+	 */
+	private void setSortedElements(@NotNull List<E> sortedElements) {
+		Set<E> selElements = Collections.newSetFromMap(new IdentityHashMap<E, Boolean>());
+		for (int index : table.getSelectionIndices())
+			selElements.add(elements.get(index));
+		
+		elements = sortedElements;
+		table.clearAll();
+		if (selElements.isEmpty())
+			return;
+		
+		int[] selIndices = new int[selElements.size()];
+		int j = 0;
+		for (int i = 0; i < sortedElements.size() && j < selIndices.length; i++)
+			if (selElements.contains(sortedElements.get(i)))
+				selIndices[j++] = i;
+		table.setSelection(selIndices);
+	}
+	
+	/*
+	 * Throws a CancellationException if the current thread was interrupted,
+	 * i.e. if the sort run was canceled.
+	 */
+	private static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
+	
+	private static <E> void sort(	@NotNull List<E> elements,
+									@NotNull final Column<E> column,
+									final int direction) {
+		if (elements.isEmpty())
+			return;
+		if (column.getSortKey(elements.get(0)) == null) {
+			Collections.sort(elements, new Comparator<E>() {
+				public int compare(E e1, E e2) {
+					checkInterrupted();
+					return column.compare(e1, e2) * direction;
+				};
+			});
+			return;
+		}
+		
+		// Compute the sort keys only once per element
+		List<SortEntry<E>> entries = new ArrayList<SortEntry<E>>(elements.size());
+		for (E element : elements) {
+			checkInterrupted();
+			entries.add(new SortEntry<E>(element, column.getSortKey(element)));
+		}
+		Collections.sort(entries, new Comparator<SortEntry<E>>() {
+			public int compare(SortEntry<E> e1, SortEntry<E> e2) {
+				checkInterrupted();
+				return direction > 0 ? e1.compareTo(e2) : e2.compareTo(e1);
+			}
+		});
+		for (int i = 0; i < entries.size(); i++)
+			elements.set(i, entries.get(i).element);
 	}
 	
 	@Immutable
@@ -182,6 +341,8 @@ public abstract class VirtualTableViewer<E> {
 		table.setItemCount(elements.size()); // Must be called *before* calling clearAll()
 		table.clearAll();
 		lastSortColumn = null;
+		sortCount++;
+		cancelSorting();
 	}
 	
 	@MutableCopy
@@ -202,6 +363,19 @@ public abstract class VirtualTableViewer<E> {
 		return selElements;
 	}
 	
+	/**
+	 * Makes the table request the labels of the currently visible rows again.
+	 */
+	public final void refreshVisibleItems() {
+		int itemCount = table.getItemCount();
+		if (itemCount == 0)
+			return;
+		int top = table.getTopIndex();
+		int visibleCount = table.getClientArea().height / table.getItemHeight() + 1;
+		int end = Math.min(top + visibleCount, itemCount - 1);
+		table.clear(top, end);
+	}
+	
 	public final void scrollToTop() {
 		ScrollBar verticalBar = table.getVerticalBar();
 		if (verticalBar != null)
@@ -222,5 +396,11 @@ public abstract class VirtualTableViewer<E> {
 	
 	@NotNull
 	protected abstract List<E> getElements(@NotNull Object rootElement);
+	
+	/**
+	 * Called after the user has sorted the elements by clicking on the header
+	 * of the given column. Not called when sorting programmatically.
+	 */
+	protected void onColumnSorted(@NotNull Column<E> column, boolean up) {}
 
 }